@@ -0,0 +1,106 @@
+package com.github.jhoenicke.javacup.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import com.github.jhoenicke.javacup.runtime.AdvancedSymbolFactory;
+import com.github.jhoenicke.javacup.runtime.ParserPool;
+
+import fr.uha.hassenforder.javacup.sample.calculator.ETerminal;
+import fr.uha.hassenforder.javacup.sample.calculator.Parser;
+
+/**
+ * Throughput benchmark of the parse engine on the calculator sample grammar
+ * (bench/calculator.cup). It is compiled and run against the parser generated
+ * with the options under test by the ant target <tt>bench</tt>, so the
+ * default and the primitive_stack engines run the very same input in
+ * separate virtual machines.
+ * <p>
+ *
+ * The input is the synthetic token stream of CalculatorInput. Tokens are
+ * created afresh for every parse like a real scanner would do, while the
+ * parser is reused through a ParserPool. With brokenEvery set, every that many
+ * lines is malformed, so the parse runs through the error recovery; the syntax
+ * errors are counted instead of printed. The bytes a parse allocates are
+ * reported where the virtual machine measures them.
+ * <p>
+ *
+ * Usage: CalculatorBench [lines [warmup [runs [brokenEvery]]]]
+ */
+public class CalculatorBench {
+
+	/** The calculator parser, with the syntax errors of all parses counted, not printed. */
+	static class QuietParser extends Parser {
+		static int errors;
+
+		QuietParser(AdvancedSymbolFactory factory) {
+			super(null, factory);
+		}
+
+		public void report_error(String message, Object info) {
+			errors++;
+		}
+	}
+
+	/**
+	 * Return the bytes allocated by the current thread so far, or -1 if the
+	 * virtual machine does not measure them.
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return -1;
+	}
+
+	/** Parse the input once with a pooled parser. */
+	private static void parse(ParserPool<QuietParser> pool, AdvancedSymbolFactory factory, ETerminal[] tokens)
+			throws Exception {
+		pool.parse(new CalculatorInput.TokenScanner(factory, tokens));
+	}
+
+	public static void main(String[] args) throws Exception {
+		int lines = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int warmup = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int runs = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		int brokenEvery = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+
+		/* loading the parser class decodes its parse tables */
+		long load = System.nanoTime();
+		Class.forName(Parser.class.getName(), true, CalculatorBench.class.getClassLoader());
+		load = System.nanoTime() - load;
+
+		final AdvancedSymbolFactory factory = new AdvancedSymbolFactory();
+		ParserPool<QuietParser> pool = new ParserPool<QuietParser>(new ParserPool.Factory<QuietParser>() {
+			public QuietParser create() {
+				return new QuietParser(factory);
+			}
+		}, 1);
+		ETerminal[] tokens = CalculatorInput.build(lines, brokenEvery);
+
+		for (int i = 0; i < warmup; i++)
+			parse(pool, factory, tokens);
+
+		long best = Long.MAX_VALUE;
+		long total = 0;
+		QuietParser.errors = 0;
+		long allocated = allocatedBytes();
+		for (int i = 0; i < runs; i++) {
+			long start = System.nanoTime();
+			parse(pool, factory, tokens);
+			long time = System.nanoTime() - start;
+			best = Math.min(best, time);
+			total += time;
+		}
+		if (allocated >= 0)
+			allocated = allocatedBytes() - allocated;
+		System.out.println("parser class init: " + (load / 1000) + " us");
+		System.out.println("tokens: " + tokens.length + ", runs: " + runs);
+		if (brokenEvery > 0)
+			System.out.println("syntax errors per parse: " + (QuietParser.errors / runs));
+		if (allocated >= 0)
+			System.out.println("allocated per parse: " + (allocated / runs / 1024) + " KB");
+		System.out.println("best: " + (best / 1000) + " us, mean: " + (total / runs / 1000) + " us, "
+				+ (tokens.length * 1000L / Math.max(1, best / 1000)) + " tokens/ms");
+	}
+}
@@ -0,0 +1,133 @@
+package com.github.jhoenicke.javacup.bench;
+
+import com.github.jhoenicke.javacup.runtime.AdvancedSymbolFactory;
+import com.github.jhoenicke.javacup.runtime.AdvancedSymbolFactory.Location;
+import com.github.jhoenicke.javacup.runtime.BatchScanner;
+import com.github.jhoenicke.javacup.runtime.Scanner;
+import com.github.jhoenicke.javacup.runtime.Symbol;
+import com.github.jhoenicke.javacup.runtime.TokenBuffer;
+
+import fr.uha.hassenforder.javacup.sample.calculator.ETerminal;
+
+/**
+ * Synthetic input for the calculator sample grammar (bench/calculator.cup),
+ * shared by the benchmarks. The input is a token stream of assignments, which
+ * keeps the action code free of output, optionally mixed with malformed lines
+ * that the parser has to recover from.
+ */
+public final class CalculatorInput {
+
+	/** One line of input: a = (b + 12) * -c - 7 / (d - 3) + e * f */
+	private final static ETerminal[] LINE = {
+			ETerminal.ID, ETerminal.EQUAL,
+			ETerminal.LPAREN, ETerminal.ID, ETerminal.PLUS, ETerminal.NUMBER, ETerminal.RPAREN,
+			ETerminal.TIMES, ETerminal.MINUS, ETerminal.ID,
+			ETerminal.MINUS, ETerminal.NUMBER, ETerminal.DIVIDE,
+			ETerminal.LPAREN, ETerminal.ID, ETerminal.MINUS, ETerminal.NUMBER, ETerminal.RPAREN,
+			ETerminal.PLUS, ETerminal.ID, ETerminal.TIMES, ETerminal.ID,
+			ETerminal.EOLN };
+
+	/** One malformed line: a = (b + ) * = 3 */
+	private final static ETerminal[] BROKEN_LINE = {
+			ETerminal.ID, ETerminal.EQUAL,
+			ETerminal.LPAREN, ETerminal.ID, ETerminal.PLUS, ETerminal.RPAREN,
+			ETerminal.TIMES, ETerminal.EQUAL, ETerminal.NUMBER,
+			ETerminal.EOLN };
+
+	/** Names used for the identifiers of the input. */
+	private final static String[] NAMES = { "a", "b", "c", "d", "e", "f" };
+
+	private CalculatorInput() {
+	}
+
+	/**
+	 * Build a token stream.
+	 *
+	 * @param lines       the number of lines.
+	 * @param brokenEvery every that many lines a malformed line is used, 0 for a
+	 *                    correct input.
+	 */
+	public static ETerminal[] build(int lines, int brokenEvery) {
+		int size = 0;
+		for (int i = 0; i < lines; i++)
+			size += isBroken(i, brokenEvery) ? BROKEN_LINE.length : LINE.length;
+		ETerminal[] tokens = new ETerminal[size];
+		size = 0;
+		for (int i = 0; i < lines; i++) {
+			ETerminal[] line = isBroken(i, brokenEvery) ? BROKEN_LINE : LINE;
+			System.arraycopy(line, 0, tokens, size, line.length);
+			size += line.length;
+		}
+		return tokens;
+	}
+
+	private static boolean isBroken(int line, int brokenEvery) {
+		return brokenEvery > 0 && line % brokenEvery == brokenEvery - 1;
+	}
+
+	/** Return the value of the token at the given index of a stream. */
+	private static Object value(ETerminal token, int index) {
+		switch (token) {
+		case NUMBER:
+			return Integer.valueOf(index % 97 + 1);
+		case ID:
+			return NAMES[index % NAMES.length];
+		default:
+			return null;
+		}
+	}
+
+	/** Scanner replaying a token stream, creating the tokens afresh. */
+	public static class TokenScanner implements Scanner {
+		protected final AdvancedSymbolFactory factory;
+		protected final ETerminal[] tokens;
+		protected final Location location = new Location(1, 1);
+		protected int next = 0;
+
+		public TokenScanner(AdvancedSymbolFactory factory, ETerminal[] tokens) {
+			this.factory = factory;
+			this.tokens = tokens;
+		}
+
+		public Symbol next_token() {
+			if (next == tokens.length)
+				return factory.newSymbol(ETerminal.EOF, location, location);
+			int index = next++;
+			ETerminal token = tokens[index];
+			Object value = value(token, index);
+			if (value != null)
+				return factory.newSymbol(token, location, location, value);
+			return factory.newSymbol(token, location, location);
+		}
+	}
+
+	/**
+	 * Scanner replaying a token stream in batches, with the same values as
+	 * TokenScanner; the Symbols are only created on demand.
+	 */
+	public static class BatchTokenScanner extends TokenScanner implements BatchScanner {
+		private final static ETerminal[] TERMINALS = ETerminal.values();
+
+		public BatchTokenScanner(AdvancedSymbolFactory factory, ETerminal[] tokens) {
+			super(factory, tokens);
+		}
+
+		public void next_tokens(TokenBuffer buffer) {
+			if (next == tokens.length) {
+				buffer.add(ETerminal.EOF.ordinal(), next, next, null);
+				return;
+			}
+			while (!buffer.isFull() && next < tokens.length) {
+				int index = next++;
+				buffer.add(tokens[index].ordinal(), index, index, value(tokens[index], index));
+			}
+		}
+
+		public Symbol symbol(int id, int left, int right, Object value) {
+			if (value != null)
+				return factory.newSymbol(TERMINALS[id], location, location, value);
+			return factory.newSymbol(TERMINALS[id], location, location);
+		}
+	}
+
+}
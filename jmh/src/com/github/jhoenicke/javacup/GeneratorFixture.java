@@ -0,0 +1,64 @@
+package com.github.jhoenicke.javacup;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import com.github.jhoenicke.javacup.runtime.ComplexSymbolFactory;
+
+/**
+ * Runs the phases of the parser generator on a grammar given as string, for
+ * the benchmarks. It lives in the generator package because the grammar
+ * parser takes its options through a package private field.
+ */
+public final class GeneratorFixture {
+
+	private GeneratorFixture() {
+	}
+
+	/** Create the options used by the benchmarks: no warnings, no summary. */
+	public static Options options() {
+		Options options = new Options();
+		options.setOption("nowarn");
+		options.setOption("nosummary");
+		return options;
+	}
+
+	/**
+	 * Parse a grammar specification.
+	 *
+	 * @param spec    the grammar specification.
+	 * @param options the options, updated by the option clauses of the grammar.
+	 */
+	public static Grammar parse(String spec, Options options) throws Exception {
+		ErrorManager.clear();
+		ComplexSymbolFactory csf = new ComplexSymbolFactory();
+		Parser parser = new Parser(new Lexer(new ByteArrayInputStream(spec.getBytes(StandardCharsets.UTF_8)), csf),
+				csf);
+		parser.options = options;
+		Grammar grammar = (Grammar) parser.parse().value;
+		if (grammar == null || ErrorManager.getManager().getErrorCount() != 0)
+			throw new IllegalArgumentException("grammar has errors");
+		grammar.replaceWildcardRules();
+		return grammar;
+	}
+
+	/**
+	 * Parse a grammar specification and compute nullability and first sets, ready
+	 * for Grammar.buildMachine().
+	 */
+	public static Grammar prepare(String spec, Options options) throws Exception {
+		Grammar grammar = parse(spec, options);
+		grammar.computeNullability();
+		grammar.computeFirsts();
+		return grammar;
+	}
+
+	/** Run all phases up to the parse tables, ready for Emit. */
+	public static Grammar build(String spec, Options options) throws Exception {
+		Grammar grammar = prepare(spec, options);
+		grammar.buildMachine();
+		grammar.buildTables(options.opt_compact_red, options.opt_elide_errors);
+		return grammar;
+	}
+
+}
@@ -0,0 +1,128 @@
+package com.github.jhoenicke.javacup.jmh;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.jhoenicke.javacup.Emit;
+import com.github.jhoenicke.javacup.Grammar;
+import com.github.jhoenicke.javacup.GeneratorFixture;
+import com.github.jhoenicke.javacup.LalrState;
+import com.github.jhoenicke.javacup.Lookaheads;
+import com.github.jhoenicke.javacup.LrItem;
+import com.github.jhoenicke.javacup.Options;
+import com.github.jhoenicke.javacup.TerminalArena;
+import com.github.jhoenicke.javacup.TerminalSet;
+import com.github.jhoenicke.javacup.Timer;
+
+/**
+ * Benchmarks of the generator phases that can run repeatedly on one built
+ * grammar: parsing the specification, the closure of the LALR states, the
+ * compression of the parse tables and the emission of the parser class.
+ * The construction of the state machine consumes its grammar and is measured
+ * by {@link MachineBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeneratorBenchmark {
+
+	@Param({ "parser.cup", "synthetic-20x100", "synthetic-40x400" })
+	public String grammar;
+
+	/** Pack the compressed tables with high effort (-dense_tables). */
+	@Param({ "false", "true" })
+	public boolean dense;
+
+	private String spec;
+	private Options options;
+	private Grammar built;
+	private List<Map<LrItem, TerminalSet>> kernels;
+
+	@Setup
+	public void setup() throws Exception {
+		spec = Grammars.load(grammar);
+		options = GeneratorFixture.options();
+		built = GeneratorFixture.build(spec, options);
+
+		/* the kernels of all states: the items reached by shifting the dot */
+		kernels = new ArrayList<Map<LrItem, TerminalSet>>();
+		for (LalrState state : built.getLalrStates()) {
+			Map<LrItem, TerminalSet> kernel = new TreeMap<LrItem, TerminalSet>();
+			for (Entry<LrItem, Lookaheads> item : state.getItems().entrySet()) {
+				LrItem core = item.getKey();
+				if (core.getDotPosition() > 0 || core.getProduction() == built.getStartProduction())
+					kernel.put(core, item.getValue());
+			}
+			kernels.add(kernel);
+		}
+	}
+
+	@Benchmark
+	public Grammar parseSpecification() throws Exception {
+		return GeneratorFixture.parse(spec, GeneratorFixture.options());
+	}
+
+	@Benchmark
+	public int computeClosure() {
+		int items = 0;
+		TerminalArena arena = new TerminalArena(built);
+		for (int i = 0; i < kernels.size(); i++) {
+			LalrState state = new LalrState(kernels.get(i), i, arena);
+			state.computeClosure(built, arena);
+			items += state.getItems().size();
+		}
+		return items;
+	}
+
+	@Benchmark
+	public short[] compressActionTable() {
+		return built.getActionTable().compress(new int[2 * built.getActionTable().getTable().length], dense);
+	}
+
+	@Benchmark
+	public short[] compressReduceTable() {
+		return built.getReduceTable().compress(dense);
+	}
+
+	@Benchmark
+	public void emitParser() {
+		new Emit(options, new Timer()).parser(new PrintWriter(new NullWriter()), built);
+	}
+
+	/** Writer discarding its output. */
+	static class NullWriter extends Writer {
+		public void write(char[] cbuf, int off, int len) {
+		}
+
+		public void write(String str, int off, int len) {
+		}
+
+		public void flush() {
+		}
+
+		public void close() {
+		}
+	}
+
+}
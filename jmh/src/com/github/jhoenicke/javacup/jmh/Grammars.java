@@ -0,0 +1,87 @@
+package com.github.jhoenicke.javacup.jmh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The grammars the generator benchmarks run on: the bundled grammar of CUP
+ * itself (cup/parser.cup, packaged as resource) and synthetic grammars of
+ * configurable size.
+ */
+public final class Grammars {
+
+	private Grammars() {
+	}
+
+	/**
+	 * Return the grammar specification of the given name: "parser.cup" or
+	 * "synthetic-LxS" for a synthetic grammar with L precedence levels and S
+	 * statement kinds.
+	 */
+	public static String load(String name) throws Exception {
+		if (name.startsWith("synthetic-")) {
+			String[] size = name.substring("synthetic-".length()).split("x");
+			return synthetic(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+		}
+		InputStream in = Grammars.class.getResourceAsStream("/grammars/" + name);
+		if (in == null)
+			throw new IllegalArgumentException("unknown grammar " + name);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int len;
+			while ((len = in.read(buffer)) > 0)
+				bytes.write(buffer, 0, len);
+			return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Build a conflict free grammar of statements over an expression language.
+	 * Each statement kind has its own keyword and each precedence level its own
+	 * operator and nonterminal, so the number of states grows with both.
+	 *
+	 * @param levels     the number of precedence levels of expressions.
+	 * @param statements the number of statement kinds.
+	 */
+	public static String synthetic(int levels, int statements) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("terminal SEMI, EQ, LPAREN, RPAREN, COMMA;\n");
+		sb.append("terminal String ID;\nterminal Integer NUMBER;\n");
+		for (int i = 0; i < levels; i++)
+			sb.append("terminal OP").append(i).append(";\n");
+		for (int k = 0; k < statements; k++)
+			sb.append("terminal KW").append(k).append(";\n");
+		sb.append("nonterminal program, stmts;\nnonterminal Object stmt;\n");
+		sb.append("nonterminal java.util.List<Object> args, arglist;\n");
+		for (int i = 0; i <= levels; i++)
+			sb.append("nonterminal Object e").append(i).append(";\n");
+		sb.append("\nprogram ::= stmts ;\n");
+		sb.append("stmts ::= stmts stmt | ;\n");
+		sb.append("stmt ::=");
+		for (int k = 0; k < statements; k++) {
+			sb.append(k == 0 ? " " : "\n\t| ");
+			if (k % 2 == 0)
+				sb.append("KW").append(k).append(" ID:n LPAREN args:a RPAREN SEMI {: RESULT = a; :}");
+			else
+				sb.append("KW").append(k).append(" ID:n EQ e0:e SEMI {: RESULT = e; :}");
+		}
+		sb.append("\n\t;\n");
+		sb.append("args ::= arglist:l {: RESULT = l; :} | {: RESULT = new java.util.ArrayList<Object>(); :} ;\n");
+		sb.append("arglist ::= arglist:l COMMA e0:e {: l.add(e); RESULT = l; :}\n");
+		sb.append("\t| e0:e {: RESULT = new java.util.ArrayList<Object>(); RESULT.add(e); :} ;\n");
+		for (int i = 0; i < levels; i++) {
+			sb.append("e").append(i).append(" ::= e").append(i).append(":l OP").append(i).append(" e")
+					.append(i + 1).append(":r {: RESULT = l; :}\n");
+			sb.append("\t| e").append(i + 1).append(":e {: RESULT = e; :} ;\n");
+		}
+		sb.append("e").append(levels).append(" ::= ID:n {: RESULT = n; :} | NUMBER:n {: RESULT = n; :}\n");
+		sb.append("\t| LPAREN e0:e RPAREN {: RESULT = e; :}\n");
+		sb.append("\t| ID:n LPAREN args:a RPAREN {: RESULT = a; :} ;\n");
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,87 @@
+package com.github.jhoenicke.javacup.jmh;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.jhoenicke.javacup.GeneratorFixture;
+import com.github.jhoenicke.javacup.Grammar;
+import com.github.jhoenicke.javacup.LalrState;
+
+/**
+ * Benchmark of Grammar.buildMachine(), serial and parallel, with lookaheads
+ * propagated or computed from the DeRemer-Pennello relations, and of
+ * Grammar.readMachine(), which restores the machine and tables from the
+ * generation cache instead (it does not depend on the parameters). Building the
+ * machine consumes the grammar, so every invocation gets a freshly parsed
+ * grammar with nullability and first sets computed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+public class MachineBenchmark {
+
+	@Param({ "parser.cup", "synthetic-20x100", "synthetic-40x400" })
+	public String grammar;
+
+	@Param({ "false", "true" })
+	public boolean parallel;
+
+	@Param({ "false", "true" })
+	public boolean relations;
+
+	private String spec;
+	private byte[] machine;
+	private Grammar prepared;
+
+	@Setup(Level.Trial)
+	public void load() throws Exception {
+		spec = Grammars.load(grammar);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		GeneratorFixture.build(spec, GeneratorFixture.options()).writeMachine(new DataOutputStream(bytes));
+		machine = bytes.toByteArray();
+	}
+
+	@Setup(Level.Invocation)
+	public void prepare() throws Exception {
+		prepared = GeneratorFixture.prepare(spec, GeneratorFixture.options());
+	}
+
+	@Benchmark
+	public LalrState buildMachine() {
+		return prepared.buildMachine(parallel, relations);
+	}
+
+	@Benchmark
+	public Grammar buildMachineAndTables() {
+		prepared.buildMachine(parallel, relations);
+		prepared.buildTables(false);
+		return prepared;
+	}
+
+	@Benchmark
+	public Grammar readMachine() throws IOException {
+		prepared.readMachine(new DataInputStream(new ByteArrayInputStream(machine)));
+		return prepared;
+	}
+
+}
@@ -0,0 +1,207 @@
+package com.github.jhoenicke.javacup.jmh;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.jhoenicke.javacup.bench.CalculatorInput;
+import com.github.jhoenicke.javacup.runtime.AdvancedSymbolFactory;
+import com.github.jhoenicke.javacup.runtime.IncrementalParser;
+import com.github.jhoenicke.javacup.runtime.ParseTable;
+import com.github.jhoenicke.javacup.runtime.PushParser;
+import com.github.jhoenicke.javacup.runtime.Symbol;
+
+import fr.uha.hassenforder.javacup.sample.calculator.ENonterminal;
+import fr.uha.hassenforder.javacup.sample.calculator.ETerminal;
+import fr.uha.hassenforder.javacup.sample.calculator.Parser;
+
+/**
+ * Benchmarks of the parse engine on the calculator sample grammar
+ * (bench/calculator.cup): complete parses of correct, malformed and noisy
+ * input, the latter two running through the error recovery, the same parse
+ * fed in batches through a PushParser or read in batches from a BatchScanner,
+ * the reparse of an IncrementalParser after a one token edit, and the bare
+ * table lookups of such a parse.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RuntimeBenchmark {
+
+	@Param({ "10000" })
+	public int lines;
+
+	/** Every that many lines is malformed in the error recovery benchmark. */
+	@Param({ "10" })
+	public int brokenEvery;
+
+	private final AdvancedSymbolFactory factory = new AdvancedSymbolFactory();
+	private ETerminal[] correct;
+	private ETerminal[] malformed;
+	/** Every second line malformed, so most of the parse is error recovery. */
+	private ETerminal[] noisy;
+	private QuietParser parser;
+	private PushParser pushParser;
+	private final Symbol[] batch = new Symbol[64];
+	private IncrementalParser incremental;
+	/** The index of the token the incremental benchmark replaces. */
+	private int edited;
+	private int edits;
+
+	/** The (state, symbol) pairs of the action lookups of a parse. */
+	private int[] actionLookups;
+	/** The (state, symbol) pairs of the reduce-goto lookups of a parse. */
+	private int[] reduceLookups;
+
+	/** The calculator parser, with the error reports counted, not printed. */
+	static class QuietParser extends Parser {
+		int errors;
+
+		QuietParser(AdvancedSymbolFactory factory) {
+			super(null, factory);
+		}
+
+		public void report_error(String message, Object info) {
+			errors++;
+		}
+
+		public void report_fatal_error(String message, Object info) {
+			throw new IllegalStateException(message);
+		}
+
+		ParseTable table() {
+			return parse_table();
+		}
+	}
+
+	@Setup
+	public void setup() throws Exception {
+		correct = CalculatorInput.build(lines, 0);
+		malformed = CalculatorInput.build(lines, brokenEvery);
+		noisy = CalculatorInput.build(lines, 2);
+		parser = new QuietParser(factory);
+		pushParser = new PushParser(new QuietParser(factory));
+		recordLookups(parser.table(), correct);
+
+		CalculatorInput.TokenScanner scanner = new CalculatorInput.TokenScanner(factory, correct);
+		List<Symbol> tokens = new ArrayList<Symbol>(correct.length);
+		for (int i = 0; i < correct.length; i++)
+			tokens.add(scanner.next_token());
+		incremental = new IncrementalParser(new QuietParser(factory));
+		incremental.parse(tokens);
+		edited = correct.length / 2;
+		while (correct[edited] != ETerminal.NUMBER)
+			edited++;
+	}
+
+	/**
+	 * Simulate the parse of a correct input on the bare tables and record the
+	 * lookups it performs.
+	 */
+	private void recordLookups(ParseTable table, ETerminal[] tokens) {
+		int[] actions = new int[8 * tokens.length];
+		int[] reduces = new int[8 * tokens.length];
+		int nactions = 0, nreduces = 0;
+		int[] stack = new int[2 * tokens.length + 2];
+		int top = 0;
+		int start = ENonterminal.$START.ordinal();
+		for (int i = 0; i <= tokens.length; i++) {
+			int sym = i < tokens.length ? tokens[i].ordinal() : ETerminal.EOF.ordinal();
+			while (true) {
+				int act = table.getAction(stack[top], sym);
+				actions[nactions++] = stack[top];
+				actions[nactions++] = sym;
+				if ((act & 1) != 0) {
+					stack[++top] = act >> 1;
+					break;
+				}
+				if (act == 0)
+					throw new IllegalStateException("syntax error in benchmark input");
+				int rule = (act >> 1) - 1;
+				int lhs = table.getProductionSymbol(rule);
+				if (lhs == start)
+					break;
+				top -= table.getProductionSize(rule);
+				reduces[nreduces++] = stack[top];
+				reduces[nreduces++] = lhs;
+				stack[top + 1] = table.getReduce(stack[top], lhs);
+				top++;
+			}
+		}
+		actionLookups = Arrays.copyOf(actions, nactions);
+		reduceLookups = Arrays.copyOf(reduces, nreduces);
+	}
+
+	@Benchmark
+	public Symbol parse() throws Exception {
+		parser.reset(new CalculatorInput.TokenScanner(factory, correct));
+		return parser.parse();
+	}
+
+	@Benchmark
+	public Symbol parseWithErrorRecovery() throws Exception {
+		parser.reset(new CalculatorInput.TokenScanner(factory, malformed));
+		return parser.parse();
+	}
+
+	@Benchmark
+	public Symbol parseNoisyInput() throws Exception {
+		parser.reset(new CalculatorInput.TokenScanner(factory, noisy));
+		return parser.parse();
+	}
+
+	@Benchmark
+	public Symbol batchParse() throws Exception {
+		parser.reset(new CalculatorInput.BatchTokenScanner(factory, correct));
+		return parser.parse();
+	}
+
+	@Benchmark
+	public Symbol pushParse() throws Exception {
+		CalculatorInput.TokenScanner scanner = new CalculatorInput.TokenScanner(factory, correct);
+		pushParser.reset();
+		for (int i = 0; i < correct.length; i += batch.length) {
+			int len = Math.min(batch.length, correct.length - i);
+			for (int j = 0; j < len; j++)
+				batch[j] = scanner.next_token();
+			pushParser.offer(batch, 0, len);
+		}
+		pushParser.end();
+		return pushParser.getResult();
+	}
+
+	@Benchmark
+	public Symbol incrementalReparse() throws Exception {
+		Symbol number = factory.newSymbol(ETerminal.NUMBER, Integer.valueOf(++edits % 97 + 1));
+		return incremental.reparse(edited, 1, Collections.singletonList(number));
+	}
+
+	@Benchmark
+	public int tableLookups() {
+		ParseTable table = parser.table();
+		int sum = 0;
+		for (int i = 0; i < actionLookups.length; i += 2)
+			sum += table.getAction(actionLookups[i], actionLookups[i + 1]);
+		for (int i = 0; i < reduceLookups.length; i += 2)
+			sum += table.getReduce(reduceLookups[i], reduceLookups[i + 1]);
+		return sum;
+	}
+
+}
@@ -0,0 +1,52 @@
+package com.github.jhoenicke.javacup;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The recorder of the phases of the generator as JDK Flight Recorder events,
+ * one com.github.jhoenicke.javacup.GeneratorPhase per timer popped by
+ * {@link Timer}; the phase is the name of its TIMESTAMP. The event is disabled
+ * by default and enabled by a JFR settings file such as javacup.jfc. This
+ * class is compiled for Java 11 apart from the generator, which loads it
+ * through {@link PhaseRecorder}.
+ */
+final class JfrPhaseRecorder extends PhaseRecorder {
+
+	/** The type of the event, to tell whether a recording enables it. */
+	private static final EventType PHASE = EventType.getEventType(PhaseEvent.class);
+
+	@Override
+	Object start() {
+		if (!PHASE.isEnabled())
+			return null;
+		PhaseEvent event = new PhaseEvent();
+		event.begin();
+		return event;
+	}
+
+	@Override
+	void finish(Object event, Timer.TIMESTAMP timeStamp) {
+		PhaseEvent phaseEvent = (PhaseEvent) event;
+		phaseEvent.end();
+		if (phaseEvent.shouldCommit()) {
+			phaseEvent.phase = timeStamp.name();
+			phaseEvent.commit();
+		}
+	}
+
+	@Name("com.github.jhoenicke.javacup.GeneratorPhase")
+	@Label("Generator Phase")
+	@Description("A phase of the JavaCup parser generator")
+	@Category("JavaCup")
+	@Enabled(false)
+	static final class PhaseEvent extends Event {
+		@Label("Phase")
+		String phase;
+	}
+}
@@ -0,0 +1,234 @@
+package com.github.jhoenicke.javacup.runtime;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * The recorder of the parses as JDK Flight Recorder events, so that a
+ * recording shows the parser next to the GC, CPU and allocation events of the
+ * JVM. It records three events, all in the category "JavaCup":
+ * <dl>
+ * <dt>com.github.jhoenicke.javacup.Parse
+ * <dd>a parse, with the tokens it shifted, the productions it reduced and the
+ * syntax errors it met.
+ * <dt>com.github.jhoenicke.javacup.Recovery
+ * <dd>an error recovery, with the Symbols it popped, the tokens it skipped and
+ * whether the parse continued.
+ * <dt>com.github.jhoenicke.javacup.SlowReduce
+ * <dd>a reduce whose action took longer than the threshold, 1 ms by default.
+ * </dl>
+ * <p>
+ *
+ * The events are disabled by default and enabled by a JFR settings file such
+ * as javacup.jfc. The recorder passes every move on to the installed listener,
+ * if any. This class is compiled for Java 11 apart from the runtime, which
+ * loads it through {@link ParseRecorder}.
+ */
+final class JfrParseRecorder extends ParseRecorder {
+
+	/** The types of the events, to tell whether a recording enables them. */
+	private static final EventType PARSE = EventType.getEventType(ParseEvent.class);
+	private static final EventType RECOVERY = EventType.getEventType(RecoveryEvent.class);
+	private static final EventType SLOW_REDUCE = EventType.getEventType(SlowReduceEvent.class);
+
+	/** The parser whose parse is recorded. */
+	private final LRParser parser;
+
+	/** The installed listener, or null. */
+	private final ParseListener delegate;
+
+	/** The event of the parse. */
+	private final ParseEvent parse_event = new ParseEvent();
+
+	/** The event of the current recovery, or null. */
+	private RecoveryEvent recovery_event;
+
+	/** The event timing the current reduce; it is replaced once committed. */
+	private SlowReduceEvent reduce_event = new SlowReduceEvent();
+
+	/** Tells whether the next shift is the one of the error Symbol. */
+	private boolean error_pending;
+
+	/**
+	 * Create the recorder of a parse; ParseRecorder creates one without parser
+	 * to create the others.
+	 *
+	 * @param parser   the parser.
+	 * @param delegate the listener to pass the moves on to, or null.
+	 */
+	JfrParseRecorder(LRParser parser, ParseListener delegate) {
+		this.parser = parser;
+		this.delegate = delegate;
+	}
+
+	@Override
+	ParseRecorder create(LRParser parser, ParseListener delegate) {
+		if (PARSE.isEnabled() || RECOVERY.isEnabled() || SLOW_REDUCE.isEnabled())
+			return new JfrParseRecorder(parser, delegate);
+		return null;
+	}
+
+	@Override
+	public void start_parse() {
+		parse_event.begin();
+		if (delegate != null)
+			delegate.start_parse();
+	}
+
+	@Override
+	public void end_parse(Symbol result) {
+		parse_event.end();
+		if (parse_event.shouldCommit()) {
+			parse_event.parser = parser.getClass().getName();
+			parse_event.commit();
+		}
+		if (delegate != null)
+			delegate.end_parse(result);
+	}
+
+	@Override
+	public void shift(Symbol token, int state) {
+		if (error_pending)
+			error_pending = false;
+		else
+			parse_event.tokens++;
+		if (delegate != null)
+			delegate.shift(token, state);
+	}
+
+	@Override
+	public void start_reduce(int rule) {
+		if (delegate != null)
+			delegate.start_reduce(rule);
+		reduce_event.begin();
+	}
+
+	@Override
+	public void reduce(int rule, Symbol lhs, int handle_size) {
+		reduce_event.end();
+		parse_event.reductions++;
+		if (reduce_event.shouldCommit()) {
+			reduce_event.parser = parser.getClass().getName();
+			reduce_event.rule = rule;
+			reduce_event.lhs = lhs.sym;
+			reduce_event.handleSize = handle_size;
+			reduce_event.commit();
+			reduce_event = new SlowReduceEvent();
+		}
+		if (delegate != null)
+			delegate.reduce(rule, lhs, handle_size);
+	}
+
+	@Override
+	public void goto_state(Symbol lhs, int state) {
+		if (delegate != null)
+			delegate.goto_state(lhs, state);
+	}
+
+	@Override
+	public void syntax_error(Symbol token, int state) {
+		parse_event.syntaxErrors++;
+		error_pending = true;
+		recovery_event = new RecoveryEvent();
+		recovery_event.begin();
+		if (delegate != null)
+			delegate.syntax_error(token, state);
+	}
+
+	@Override
+	public void pop(Symbol sym, int state) {
+		recovery_event.depth++;
+		if (delegate != null)
+			delegate.pop(sym, state);
+	}
+
+	@Override
+	public void skip(Symbol token) {
+		recovery_event.skipped++;
+		if (delegate != null)
+			delegate.skip(token);
+	}
+
+	@Override
+	public void recovery(boolean recovered) {
+		error_pending = false;
+		recovery_event.end();
+		if (recovery_event.shouldCommit()) {
+			recovery_event.parser = parser.getClass().getName();
+			recovery_event.recovered = recovered;
+			recovery_event.commit();
+		}
+		recovery_event = null;
+		if (delegate != null)
+			delegate.recovery(recovered);
+	}
+
+	@Name("com.github.jhoenicke.javacup.Parse")
+	@Label("Parse")
+	@Description("A parse of a JavaCup parser")
+	@Category("JavaCup")
+	@Enabled(false)
+	static final class ParseEvent extends Event {
+		@Label("Parser")
+		String parser;
+
+		@Label("Tokens")
+		@Description("The tokens the parse shifted")
+		long tokens;
+
+		@Label("Reductions")
+		long reductions;
+
+		@Label("Syntax Errors")
+		int syntaxErrors;
+	}
+
+	@Name("com.github.jhoenicke.javacup.Recovery")
+	@Label("Error Recovery")
+	@Description("An error recovery of a JavaCup parser")
+	@Category("JavaCup")
+	@Enabled(false)
+	static final class RecoveryEvent extends Event {
+		@Label("Parser")
+		String parser;
+
+		@Label("Depth")
+		@Description("The Symbols popped off the stack")
+		int depth;
+
+		@Label("Tokens Skipped")
+		int skipped;
+
+		@Label("Recovered")
+		@Description("Whether the parse continued")
+		boolean recovered;
+	}
+
+	@Name("com.github.jhoenicke.javacup.SlowReduce")
+	@Label("Slow Reduce")
+	@Description("A reduce of a JavaCup parser whose action took longer than the threshold")
+	@Category("JavaCup")
+	@Enabled(false)
+	@Threshold("1 ms")
+	static final class SlowReduceEvent extends Event {
+		@Label("Parser")
+		String parser;
+
+		@Label("Rule")
+		@Description("The action number of the production")
+		int rule;
+
+		@Label("Left Hand Side")
+		@Description("The symbol index of the nonterminal")
+		int lhs;
+
+		@Label("Handle Size")
+		int handleSize;
+	}
+}
@@ -0,0 +1,208 @@
+package com.github.jhoenicke.javacup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packs the rows of a sparse table into one comb: every row gets a base such
+ * that the slots base + column of its entries are used by no other row.
+ * <p>
+ * Identical rows share one base. The other rows are placed first fit, in the
+ * order of CombRow.compareTo(). Instead of trying every base, the search
+ * jumps to the next base where the first column of the row hits a free slot,
+ * and past all bases where a conflicting column would hit a used slot. The
+ * next free slot is found in an array of forward links with path compression,
+ * so runs of used slots are skipped at once and the placement takes near
+ * linear time in the number of entries. The bases are the same a plain first
+ * fit scan would find.
+ * <p>
+ * With high effort the rows are also placed in other orders, and the order
+ * giving the smallest comb is kept.
+ */
+public class CombPacker {
+
+	/** The orders of the rows tried with high effort; the first is the default. */
+	private static final List<Comparator<CombRow>> ORDERS = new ArrayList<Comparator<CombRow>>();
+	static {
+		/* the natural order: widest rows first */
+		ORDERS.add(new Comparator<CombRow>() {
+			public int compare(CombRow a, CombRow b) {
+				return a.compareTo(b);
+			}
+		});
+		/* rows with most entries first */
+		ORDERS.add(new Comparator<CombRow>() {
+			public int compare(CombRow a, CombRow b) {
+				if (a.comb.length != b.comb.length)
+					return b.comb.length - a.comb.length;
+				return a.compareTo(b);
+			}
+		});
+		/* densest rows first */
+		ORDERS.add(new Comparator<CombRow>() {
+			public int compare(CombRow a, CombRow b) {
+				long da = (long) a.comb.length * b.width;
+				long db = (long) b.comb.length * a.width;
+				if (da != db)
+					return da > db ? -1 : 1;
+				return a.compareTo(b);
+			}
+		});
+		/* rows ending in the highest column first */
+		ORDERS.add(new Comparator<CombRow>() {
+			public int compare(CombRow a, CombRow b) {
+				int la = a.comb[a.comb.length - 1], lb = b.comb[b.comb.length - 1];
+				if (la != lb)
+					return lb - la;
+				return a.compareTo(b);
+			}
+		});
+	}
+
+	private final BitSet reserved;
+	private final int extent;
+
+	private boolean[] used;
+	/** For used slots, a later slot that is not after the next free slot. */
+	private int[] next;
+
+	/**
+	 * Create a packer.
+	 *
+	 * @param reserved the slots that no row may use.
+	 * @param extent   the number of slots after its base that every row
+	 *                 occupies in the comb.
+	 */
+	public CombPacker(BitSet reserved, int extent) {
+		this.reserved = reserved;
+		this.extent = extent;
+	}
+
+	/**
+	 * Place the rows and set their bases and representatives.
+	 *
+	 * @param rows       the rows, in any order.
+	 * @param highEffort try several orders of the rows.
+	 * @return the size of the comb, i.e. one more than the last slot used by a
+	 *         row or reserved, and at least base + extent for every base.
+	 */
+	public int pack(List<CombRow> rows, boolean highEffort) {
+		/* share the bases of identical rows */
+		Map<Integer, List<CombRow>> byHash = new HashMap<Integer, List<CombRow>>();
+		List<CombRow> unique = new ArrayList<CombRow>(rows.size());
+		next_row: for (CombRow row : rows) {
+			Integer hash = row.entriesHash();
+			List<CombRow> candidates = byHash.get(hash);
+			if (candidates == null) {
+				candidates = new ArrayList<CombRow>(1);
+				byHash.put(hash, candidates);
+			}
+			for (CombRow other : candidates) {
+				if (other.sameEntries(row)) {
+					row.representative = other;
+					continue next_row;
+				}
+			}
+			row.representative = row;
+			candidates.add(row);
+			unique.add(row);
+		}
+
+		int orders = highEffort ? ORDERS.size() : 1;
+		List<CombRow> order = new ArrayList<CombRow>(unique);
+		int[] bestBases = new int[unique.size()];
+		int bestSize = Integer.MAX_VALUE;
+		for (int o = 0; o < orders; o++) {
+			Collections.sort(order, ORDERS.get(o));
+			int size = place(order);
+			if (size < bestSize) {
+				bestSize = size;
+				for (int i = 0; i < bestBases.length; i++)
+					bestBases[i] = unique.get(i).base;
+			}
+		}
+		for (int i = 0; i < bestBases.length; i++)
+			unique.get(i).base = bestBases[i];
+		for (CombRow row : rows)
+			row.base = row.representative.base;
+		used = null;
+		next = null;
+		return bestSize;
+	}
+
+	/**
+	 * Place the rows first fit in the given order.
+	 *
+	 * @return the size of the comb.
+	 */
+	private int place(List<CombRow> order) {
+		used = new boolean[Math.max(64, 2 * reserved.length())];
+		next = new int[used.length];
+		int size = reserved.length();
+		for (int slot = reserved.nextSetBit(0); slot >= 0; slot = reserved.nextSetBit(slot + 1))
+			use(slot);
+		for (CombRow row : order) {
+			row.base = fit(row.comb);
+			size = Math.max(size, row.base + Math.max(extent, row.comb[row.comb.length - 1] + 1));
+		}
+		return size;
+	}
+
+	/** Find the first base where all columns are free, and use them. */
+	private int fit(int[] comb) {
+		int first = comb[0];
+		int base = free(first) - first;
+		next_base: while (true) {
+			for (int j = 1; j < comb.length; j++) {
+				int slot = base + comb[j];
+				if (isUsed(slot)) {
+					/* the next base where column j is free */
+					int nextBase = free(slot + 1) - comb[j];
+					base = free(nextBase + first) - first;
+					continue next_base;
+				}
+			}
+			for (int j = 0; j < comb.length; j++)
+				use(base + comb[j]);
+			return base;
+		}
+	}
+
+	private boolean isUsed(int slot) {
+		return slot < used.length && used[slot];
+	}
+
+	private void use(int slot) {
+		ensureCapacity(slot + 1);
+		used[slot] = true;
+		next[slot] = slot + 1;
+	}
+
+	/** Return the first free slot at or after the given slot. */
+	private int free(int slot) {
+		int result = slot;
+		while (isUsed(result))
+			result = next[result];
+		/* compress the path */
+		while (slot != result) {
+			int succ = next[slot];
+			next[slot] = result;
+			slot = succ;
+		}
+		return result;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > used.length) {
+			int length = Math.max(capacity, 2 * used.length);
+			used = Arrays.copyOf(used, length);
+			next = Arrays.copyOf(next, length);
+		}
+	}
+}
@@ -1,25 +1,40 @@
 package com.github.jhoenicke.javacup;
 
-import java.util.BitSet;
+import java.util.Arrays;
 
 public class CombRow implements Comparable<CombRow> {
-	
+
 	public final int index;
 	public final int[] comb;
+	public final int[] values;
 	public final int width;
 	public int base;
 
-	public CombRow(int index, int[] comb) {
+	/**
+	 * The row whose entries this row shares, this row itself unless an
+	 * identical row was placed in its stead.
+	 */
+	public CombRow representative = this;
+
+	/**
+	 * Create a row of a sparse table.
+	 *
+	 * @param index  the index of the row.
+	 * @param comb   the columns of the entries, ascending.
+	 * @param values the values of the entries.
+	 */
+	public CombRow(int index, int[] comb, int[] values) {
 		this.index = index;
 		this.width = comb[comb.length - 1] - comb[0] + 1;
 		this.comb = comb;
+		this.values = values;
 	}
 
 	/**
 	 * Compares this comb with another comb. Combs are ordered by decreasing size
 	 * and then by index. This ordering ensures that large combs, which are hardest
 	 * to fit, come first.
-	 * 
+	 *
 	 * @param other the other comb.
 	 * @return negative if smaller, positive if larger than other comb.
 	 */
@@ -35,24 +50,17 @@ public class CombRow implements Comparable<CombRow> {
 	}
 
 	/**
-	 * Fit this comb into a bit set. This computes the base offset such that all
-	 * entries in the bit set for this comb are free. It updates the bit set to mark
-	 * these entries as used.
-	 * 
-	 * @param used the bit set of used entries.
+	 * Check if this row has the same entries as another row.
+	 *
+	 * @param other the other row.
+	 * @return true if both rows have the same columns and values.
 	 */
-	public void fitInComb(BitSet used) {
-		next_base: for (int base = 0; true; base++) {
-			for (int j = 0; j < comb.length; j++) {
-				if (used.get(base + comb[j]))
-					continue next_base;
-			}
-
-			for (int j = 0; j < comb.length; j++)
-				used.set(base + comb[j]);
-
-			this.base = base;
-			return;
-		}
+	public boolean sameEntries(CombRow other) {
+		return Arrays.equals(comb, other.comb) && Arrays.equals(values, other.values);
+	}
+
+	/** Return a hash code of the entries, consistent with sameEntries. */
+	public int entriesHash() {
+		return 31 * Arrays.hashCode(comb) + Arrays.hashCode(values);
 	}
 }
@@ -1,9 +1,23 @@
 package com.github.jhoenicke.javacup;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import com.github.jhoenicke.javacup.Options.GeneratorMode;
+import com.github.jhoenicke.javacup.Options.SymType;
+import com.github.jhoenicke.javacup.runtime.ParseTable;
 
 /**
  * This class handles emitting generated code for the resulting parser. The
@@ -102,6 +116,22 @@ public class Emit {
 	/** The prefix placed on names that pollute someone else's name space. */
 	private final static String prefix = "CUP$";
 
+	/**
+	 * The most states and productions the specialized parse loop handles in
+	 * its switches; the others use the tables. This keeps the loop well below
+	 * the size up to which the JIT compiles a method.
+	 */
+	private final static int INLINE_STATES = 64, INLINE_REDUCES = 64;
+
+	/** The most non-default entries of a state handled by the state switch. */
+	private final static int INLINE_ENTRIES = 2;
+
+	/**
+	 * The most bytes of bytecode estimated for the direct coded parse loop,
+	 * below the size of 8000 bytes up to which the JIT compiles a method.
+	 */
+	private final static int DIRECT_SIZE = 7000;
+
 	public Emit(Options options, Timer timer) {
 		super();
 		this.options = options;
@@ -138,6 +168,16 @@ public class Emit {
 		}
 	}
 
+	/**
+	 * Build the type of the parse stack handed to the action code: the primitive
+	 * ParseStack or the ArrayList of the default parse engine.
+	 */
+	protected String stackType() {
+		if (options.opt_primitive_stack)
+			return RUNTIME_PACKAGE + ".ParseStack";
+		return options.opt_java15 ? "java.util.ArrayList<" + RUNTIME_PACKAGE + ".Symbol>" : "java.util.ArrayList";
+	}
+
 	public String stackElement(int index, boolean is_java15) {
 		String access = pre("stack") + ".get(" + pre("size") + " - " + index + ")";
 		return is_java15 ? access : "((" + RUNTIME_PACKAGE + ".Symbol) " + access + ")";
@@ -471,7 +511,14 @@ public class Emit {
 		 * the production is reducing to
 		 */
 		String leftright = "";
-		if (options.opt_lr_values) {
+		if (options.opt_lr_values && options.opt_primitive_stack && rightsym == null) {
+			/*
+			 * let the factory read the positions of the ends from the stack, so that
+			 * packed tokens need not be turned into Symbols
+			 */
+			int first = prod.getRhsSize() <= 1 ? 1 : prod.getRhsStackDepth();
+			leftright = ", " + pre("stack") + ", " + pre("size") + " - " + first + ", " + pre("size") + " - 1";
+		} else if (options.opt_lr_values) {
 			if (prod.getRhsSize() <= 1 && rightsym == null) {
 				leftsym = rightsym = pre("sym");
 				out.println("              " + RUNTIME_PACKAGE + ".Symbol " + rightsym + " = "
@@ -529,6 +576,84 @@ public class Emit {
 
 	/* . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . */
 
+	/** Emit the productions sharing an action as a comment. */
+	private void emitActionComment(PrintWriter out, Production prod, String indent) {
+		for (Production p2 : prod.getLhs().getProductions()) {
+			if (p2.getActionIndex() == prod.getActionIndex())
+				out.println(indent + "// " + p2.toString());
+		}
+	}
+
+	/** Emit the default case and the end of an action switch. */
+	private void emitInvalidAction(PrintWriter out) {
+		out.println("          /* . . . . . .*/");
+		out.println("          default:");
+		out.println("            throw new InternalError(");
+		out.println("               \"Invalid action number found in " + "internal parse table\");");
+		out.println();
+		out.println("        }");
+	}
+
+	/**
+	 * Emit the action code as one method per action and a two level dispatch:
+	 * do_action selects a bucket of split_actions actions and the bucket method
+	 * selects the action method. All methods stay far below the size limit of
+	 * the JIT compiler, whatever the size of the grammar. This continues the
+	 * do_action method started by emitActionCode.
+	 *
+	 * @param out stream to produce output on.
+	 */
+	private void emitSplitActions(PrintWriter out, Grammar grammar, Options options) {
+		ArrayList<Production> actions = new ArrayList<Production>();
+		for (Production prod : grammar.actions())
+			actions.add(prod);
+		int bucket_size = options.split_actions;
+		int buckets = (actions.size() + bucket_size - 1) / bucket_size;
+		String params = "(" + pre("act_num") + ", " + pre("stack") + ", " + pre("size") + ")";
+		String head = RUNTIME_PACKAGE + ".Symbol %s(int " + pre("act_num") + ", " + stackType() + " "
+				+ pre("stack") + ", int " + pre("size") + ")";
+
+		/* top level switch on the bucket */
+		out.println("      /* select the bucket of actions based on the action number */");
+		out.println("      switch (" + pre("act_num") + " / " + bucket_size + ")");
+		out.println("        {");
+		for (int b = 0; b < buckets; b++)
+			out.println("          case " + b + ": return " + pre("do_action$" + b) + params + ";");
+		emitInvalidAction(out);
+		out.println("    }");
+
+		/* one dispatch method per bucket */
+		for (int b = 0; b < buckets; b++) {
+			int last = Math.min(actions.size(), (b + 1) * bucket_size);
+			out.println();
+			out.println("  /** Dispatch of the actions " + (b * bucket_size) + " to " + (last - 1) + ". */");
+			out.println("  private " + String.format(head, pre("do_action$" + b)));
+			out.println("    throws java.lang.Exception");
+			out.println("    {");
+			out.println("      switch (" + pre("act_num") + ")");
+			out.println("        {");
+			for (int i = b * bucket_size; i < last; i++) {
+				int index = actions.get(i).getActionIndex();
+				out.println("          case " + index + ": return " + pre("action$" + index) + params + ";");
+			}
+			emitInvalidAction(out);
+			out.println("    }");
+		}
+
+		/* one method per action */
+		for (Production prod : actions) {
+			out.println();
+			emitActionComment(out, prod, "  ");
+			if (options.opt_java15)
+				out.println("  @SuppressWarnings({ \"unused\", \"unchecked\" })");
+			out.println("  private " + String.format(head, pre("action$" + prod.getActionIndex())));
+			out.println("    throws java.lang.Exception");
+			out.println("    {");
+			emitAction(out, grammar, prod, options);
+			out.println("    }");
+		}
+	}
+
 	/**
 	 * Emit code for the non-public class holding the actual action code.
 	 * 
@@ -538,9 +663,6 @@ public class Emit {
 	private void emitActionCode(PrintWriter out, Grammar grammar, String action_class, Options options) {
 		timer.pushTimer();
 
-		/* Stack generic parameter and optional casts depending on Java Version */
-		String genericArg = options.opt_java15 ? "<" + RUNTIME_PACKAGE + ".Symbol>" : "           ";
-
 		/* class header */
 		out.println();
 		out.println("/** Cup generated class to encapsulate user supplied action code.*/");
@@ -571,7 +693,7 @@ public class Emit {
 			out.println("  @SuppressWarnings({ \"unused\", \"unchecked\" })");
 		out.println("  public final " + RUNTIME_PACKAGE + ".Symbol " + pre("do_action") + "(");
 		out.println("    int                        " + pre("act_num,"));
-		out.println("    java.util.ArrayList" + genericArg + " " + pre("stack)"));
+		out.println("    " + stackType() + " " + pre("stack)"));
 		out.println("    throws java.lang.Exception");
 		out.println("    {");
 
@@ -579,40 +701,36 @@ public class Emit {
 		out.println("      int " + pre("size") + " = " + pre("stack") + ".size();");
 		out.println();
 
-		/* switch top */
-		out.println("      /* select the action based on the action number */");
-		out.println("      switch (" + pre("act_num") + ")");
-		out.println("        {");
-
-		/* emit action code for each production as a separate case */
-		for (Production prod : grammar.actions()) {
-			/* case label */
-			for (Production p2 : prod.getLhs().getProductions()) {
-				if (p2.getActionIndex() == prod.getActionIndex())
-					out.println("          // " + p2.toString());
+		if (options.split_actions > 0) {
+			emitSplitActions(out, grammar, options);
+		} else {
+			/* switch top */
+			out.println("      /* select the action based on the action number */");
+			out.println("      switch (" + pre("act_num") + ")");
+			out.println("        {");
+
+			/* emit action code for each production as a separate case */
+			for (Production prod : grammar.actions()) {
+				/* case label */
+				emitActionComment(out, prod, "          ");
+				out.println("          case " + prod.getActionIndex() + ":");
+				/* give them their own block to work in */
+				out.println("            {");
+
+				emitAction(out, grammar, prod, options);
+
+				/* end of their block */
+				out.println("            }");
+				out.println();
 			}
-			out.println("          case " + prod.getActionIndex() + ":");
-			/* give them their own block to work in */
-			out.println("            {");
 
-			emitAction(out, grammar, prod, options);
+			/* end of switch */
+			emitInvalidAction(out);
 
-			/* end of their block */
-			out.println("            }");
-			out.println();
+			/* end of method */
+			out.println("    }");
 		}
 
-		/* end of switch */
-		out.println("          /* . . . . . .*/");
-		out.println("          default:");
-		out.println("            throw new InternalError(");
-		out.println("               \"Invalid action number found in " + "internal parse table\");");
-		out.println();
-		out.println("        }");
-
-		/* end of method */
-		out.println("    }");
-
 		/* user supplied code for after reduce code */
 		if (options.after_reduce_code != null) {
 			out.println();
@@ -656,13 +774,27 @@ public class Emit {
 		return sb.toString();
 	}
 
+	/** write a short[] array into a binary parse table. */
+	private void writeArray(DataOutputStream out, short[] sharr) throws IOException {
+		out.writeInt(sharr.length);
+		for (int i = 0; i < sharr.length; i++)
+			out.writeShort(sharr[i]);
+	}
+
+	/** write an int[] array into a binary parse table. */
+	private void writeArray(DataOutputStream out, int[] intarr) throws IOException {
+		out.writeInt(intarr.length);
+		for (int i = 0; i < intarr.length; i++)
+			out.writeInt(intarr[i]);
+	}
+
 	/**
 	 * Build the production table.
 	 * 
 	 * @param grammar the grammar to process
-	 * @return a String representing the production table
+	 * @return the production table
 	 */
-	private String buildProductionTable(Grammar grammar) {
+	private short[] buildProductionTable(Grammar grammar) {
 		timer.pushTimer();
 
 		short[] prod_table = new short[2 * grammar.gatActionCount()];
@@ -670,43 +802,91 @@ public class Emit {
 			prod_table[2 * prod.getActionIndex() + 0] = (short) prod.getLhs().getIndex();
 			prod_table[2 * prod.getActionIndex() + 1] = (short) prod.getRhsSize();
 		}
-		String result = translateArrayAsString(prod_table);
 		timer.popTimer(Timer.TIMESTAMP.production_table_time);
-		return result;
+		return prod_table;
 	}
 
 	/**
 	 * Build the action table.
 	 * 
-	 * @param grammar the grammar to process
-	 * @return a String representing the action table
+	 * @param grammar  the grammar to process
+	 * @param base_tab the base table to fill, two entries per state
+	 * @return the compressed action table
 	 */
-	private String buildActionTable(Grammar grammar) {
+	private short[] buildActionTable(Grammar grammar, int[] base_tab) {
 		timer.pushTimer();
 
-		ParseActionTable act_tab = grammar.getActionTable();
-		int[] base_tab = new int[act_tab.getTable().length];
-		short[] action_tab = act_tab.compress(base_tab);
-		String result = translateArrayAsString(base_tab) + translateArrayAsString(action_tab);
+		short[] action_tab = grammar.getActionTable().compress(base_tab, options.opt_dense_tables);
 		timer.popTimer(Timer.TIMESTAMP.action_table_time);
-		return result;
+		return action_tab;
 	}
 
 	/**
 	 * Build the reduce table.
 	 * 
 	 * @param grammar the grammar to process
-	 * @return a String representing the reduce table
+	 * @return the compressed reduce table
 	 */
-	private String buildReduceTable(Grammar grammar) {
+	private short[] buildReduceTable(Grammar grammar) {
 		timer.pushTimer();
 
 		ParseReduceTable red_tab = grammar.getReduceTable();
-		String result = translateArrayAsString(red_tab.compress());
+		short[] result = red_tab.compress(options.opt_dense_tables);
 		timer.popTimer(Timer.TIMESTAMP.goto_table_time);
 		return result;
 	}
 
+	/**
+	 * Build the expected table.
+	 * 
+	 * @param grammar the grammar to process
+	 * @return the expected table
+	 */
+	private short[] buildExpectedTable(Grammar grammar) {
+		timer.pushTimer();
+
+		short[] result = grammar.getActionTable().buildExpectedTable();
+		timer.popTimer(Timer.TIMESTAMP.action_table_time);
+		return result;
+	}
+
+	/**
+	 * Build the parse tables encoded as strings for the parser source.
+	 * 
+	 * @param grammar the grammar to process
+	 * @return a String representing the production, action, reduce and expected
+	 *         tables
+	 */
+	private String buildTablesAsString(Grammar grammar) {
+		String prod_tab = translateArrayAsString(buildProductionTable(grammar));
+		int[] base_tab = new int[2 * grammar.getActionTable().getTable().length];
+		short[] action_tab = buildActionTable(grammar, base_tab);
+		String act_tab = translateArrayAsString(base_tab) + translateArrayAsString(action_tab);
+		return prod_tab + act_tab + translateArrayAsString(buildReduceTable(grammar))
+				+ translateArrayAsString(buildExpectedTable(grammar));
+	}
+
+	/**
+	 * Emit the parse tables as binary resource, loaded by the parser generated
+	 * with the binary_tables option. See ParseTable for the format.
+	 * 
+	 * @param out stream to produce output on.
+	 */
+	public void tables(DataOutputStream out, Grammar grammar) throws IOException {
+		short[] prod_tab = buildProductionTable(grammar);
+		int[] base_tab = new int[2 * grammar.getActionTable().getTable().length];
+		short[] action_tab = buildActionTable(grammar, base_tab);
+		short[] reduce_tab = buildReduceTable(grammar);
+		short[] expected_tab = buildExpectedTable(grammar);
+
+		out.writeInt(ParseTable.BINARY_MAGIC);
+		writeArray(out, prod_tab);
+		writeArray(out, base_tab);
+		writeArray(out, action_tab);
+		writeArray(out, reduce_tab);
+		writeArray(out, expected_tab);
+	}
+
 	/** print a string in java source code */
 	private void output_string(PrintWriter out, String str) {
 		int utf8len = 0;
@@ -798,18 +978,38 @@ public class Emit {
 		}
 
 		/* emit the various tables */
-		String tables = buildProductionTable(grammar) + buildActionTable(grammar) + buildReduceTable(grammar);
-
-		out.println("  /** The static parse table */");
-		out.println("  static " + RUNTIME_PACKAGE + ".ParseTable " + pre("parse_table") + " =");
-		out.println("    new " + RUNTIME_PACKAGE + ".ParseTable(new String[] {");
-		output_string(out, tables);
-		out.println("    });");
+		Map<String, List<Integer>> directArms = directParseArms(grammar);
+		boolean direct = directArms != null;
+		String indent = "  ";
+		if (direct) {
+			/* the direct coded parse loop needs no table without errors */
+			out.println("  /** Holder of the static parse table, loaded on first use. */");
+			out.println("  static final class " + pre("tables") + " {");
+			indent = "    ";
+		}
+		if (options.opt_binary_tables) {
+			String resource = options.parser_class_name + ".tables";
+			out.println(indent + "/** The static parse table, loaded from the resource " + resource + " */");
+			out.println(indent + "static final " + RUNTIME_PACKAGE + ".ParseTable " + pre("parse_table") + " =");
+			out.println(indent + "  " + RUNTIME_PACKAGE + ".ParseTable.load(" + options.parser_class_name
+					+ ".class, \"" + resource + "\");");
+		} else {
+			String tables = buildTablesAsString(grammar);
+
+			out.println(indent + "/** The static parse table */");
+			out.println(indent + "static final " + RUNTIME_PACKAGE + ".ParseTable " + pre("parse_table") + " =");
+			out.println(indent + "  new " + RUNTIME_PACKAGE + ".ParseTable(" + ParseTable.FORMAT_VERSION
+					+ ", new String[] {");
+			output_string(out, tables);
+			out.println(indent + "  });");
+		}
+		if (direct)
+			out.println("  }");
 		out.println();
 
 		out.println("  /** Return parse table */");
 		out.println("  protected " + RUNTIME_PACKAGE + ".ParseTable parse_table() {");
-		out.println("    return " + pre("parse_table") + ";");
+		out.println("    return " + (direct ? pre("tables") + "." : "") + pre("parse_table") + ";");
 		out.println("  }");
 		out.println();
 
@@ -822,6 +1022,12 @@ public class Emit {
 		out.println("  /** Action encapsulation object initializer. */");
 		out.println("  protected void init_actions()");
 		out.println("    {");
+		/*
+		 * without user action code the action object has no state of its own and
+		 * is kept for the following parses
+		 */
+		if (options.action_code == null)
+			out.println("      if (action_obj == null)");
 		out.println("      action_obj = new " + action_class + "(this);");
 		out.println("    }");
 		out.println();
@@ -829,18 +1035,52 @@ public class Emit {
 		if (options.generatorMode == GeneratorMode.CST) {
 			out.println("  /** Helpers for CST */");
 			out.println("  public " + RUNTIME_PACKAGE + ".Symbol getCSTRoot () {");
-			out.println("    return stack.get(stack.size()-1);");
+			if (options.opt_primitive_stack)
+				out.println("    return parse_stack.get(parse_stack.size()-1);");
+			else
+				out.println("    return stack.get(stack.size()-1);");
 			out.println("  }");
 			out.println();
-			out.println("  public java.util.Set<Enum<?>> getNextToken (int state) {");
-			out.println("     java.util.Set<Enum<?>> next = new java.util.TreeSet<>();");
-			out.println("     for (int i = 0; i < ETerminal.values().length; i++) {");
-			out.println("        short s = parse_table().getAction(state, i);");
-			out.println("        if (s != 0) {");
-			out.println("           next.add(ETerminal.values()[i]);");
+		}
+		if (options.generatorMode == GeneratorMode.CST || options.symType == SymType.ENUM) {
+			/* the expected sets of the parse table as sets of the terminal enum */
+			String terminals = options.symbol_const_terminal_name;
+			String set = "java.util.Set<Enum<?>>";
+			String symbols = RUNTIME_PACKAGE + ".SymbolSet";
+			out.println("  /** The terminals the parser accepts in the states, built on first use. */");
+			out.println("  private static final class " + pre("next_tokens") + " {");
+			out.println("    static final " + set + "[] sets = build();");
+			out.println();
+			out.println("    @SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+			out.println("    private static " + set + "[] build() {");
+			out.println("      " + RUNTIME_PACKAGE + ".ParseTable table = " + (direct ? pre("tables") + "." : "")
+					+ pre("parse_table") + ";");
+			out.println("      " + set + "[] sets = new java.util.Set[table.getStateCount()];");
+			out.println("      /* the states with the same expected set share its view and so its enum set */");
+			out.println("      java.util.Map<" + symbols + ", " + set + "> shared = new java.util.IdentityHashMap<"
+					+ symbols + ", " + set + ">();");
+			out.println("      " + terminals + "[] values = " + terminals + ".values();");
+			out.println("      for (int state = 0; state < sets.length; state++) {");
+			out.println("        " + symbols + " symbols = table.getExpectedSymbols(state);");
+			out.println("        " + set + " next = shared.get(symbols);");
+			out.println("        if (next == null) {");
+			out.println("          java.util.EnumSet<" + terminals + "> found = java.util.EnumSet.noneOf("
+					+ terminals + ".class);");
+			out.println("          if (symbols != null)");
+			out.println("            for (int sym = symbols.next(0); sym >= 0; sym = symbols.next(sym + 1))");
+			out.println("              found.add(values[sym]);");
+			out.println("          next = java.util.Collections.<Enum<?>>unmodifiableSet(found);");
+			out.println("          shared.put(symbols, next);");
 			out.println("        }");
-			out.println("  	  }");
-			out.println("  	  return next;");
+			out.println("        sets[state] = next;");
+			out.println("      }");
+			out.println("      return sets;");
+			out.println("    }");
+			out.println("  }");
+			out.println();
+			out.println("  /** Return the unmodifiable set of the terminals the parser accepts in a state. */");
+			out.println("  public " + set + " getNextToken (int state) {");
+			out.println("    return " + pre("next_tokens") + ".sets[state];");
 			out.println("  }");
 			out.println();
 		}
@@ -865,10 +1105,7 @@ public class Emit {
 		out.println("  /** Invoke a user supplied parse action. */");
 		out.println("  public " + RUNTIME_PACKAGE + ".Symbol do_action(");
 		out.println("    int                        act_num,");
-		if (options.opt_java15)
-			out.println("    java.util.ArrayList<" + RUNTIME_PACKAGE + ".Symbol> stack)");
-		else
-			out.println("    java.util.ArrayList        stack)");
+		out.println("    " + stackType() + " stack)");
 		out.println("    throws java.lang.Exception");
 		out.println("  {");
 		out.println("    /* call code in generated class */");
@@ -876,6 +1113,20 @@ public class Emit {
 		out.println("  }");
 		out.println("");
 
+		if (options.opt_primitive_stack) {
+			/* select the primitive parse engine */
+			out.println("  /** Run the parser on the primitive parse stack. */");
+			out.println("  protected boolean use_parse_stack() {");
+			out.println("    return true;");
+			out.println("  }");
+			out.println("");
+		}
+
+		if (direct)
+			emitDirectParse(out, grammar, directArms);
+		else if (options.opt_specialized_parse)
+			emitSpecializedParse(out, grammar);
+
 		/* user supplied code for user_init() */
 		if (options.init_code != null) {
 			out.println();
@@ -912,6 +1163,463 @@ public class Emit {
 		timer.popTimer(Timer.TIMESTAMP.parser_time);
 	}
 
+	/**
+	 * Emit the grammar specific parse loop of the specialized_parse option. It
+	 * does what the primitive parse loop of LRParser does, but on static final
+	 * copies of the tables with the lookups inlined, so the JIT sees constant
+	 * arrays instead of a virtual parse_table() call per step. The states with
+	 * at most INLINE_ENTRIES entries besides their default are decided in a
+	 * switch on the state without touching the action table, and the reduce of
+	 * a production is a case of its own with the size of its right hand side
+	 * and its left hand side folded in; a goto that leads to the same state
+	 * from every state becomes a constant. The switches take the states and
+	 * productions referenced by the most table entries, up to INLINE_STATES
+	 * resp. INLINE_REDUCES of them; the others go through the tables.
+	 *
+	 * @param out stream to produce output on.
+	 */
+	private void emitSpecializedParse(PrintWriter out, Grammar grammar) {
+		int[][] actions = grammar.getActionTable().getTable();
+		LalrState[][] gotos = grammar.getReduceTable().getTable();
+		int columns = grammar.getTerminalCount();
+		String symbol = RUNTIME_PACKAGE + ".Symbol";
+
+		/* count the table entries referencing each state and reduce */
+		int[] stateRefs = new int[actions.length];
+		int[] reduceRefs = new int[grammar.gatActionCount()];
+		for (int[] row : actions) {
+			for (int j = 0; j < columns; j++) {
+				if (ParseActionTable.isShift(row[j]))
+					stateRefs[ParseActionTable.getIndex(row[j])]++;
+				else if (ParseActionTable.isReduce(row[j]))
+					reduceRefs[ParseActionTable.getIndex(row[j])]++;
+			}
+		}
+		for (LalrState[] row : gotos)
+			for (LalrState st : row)
+				if (st != null)
+					stateRefs[st.getIndex()]++;
+
+		/* the small states referenced most, and the most frequent reduces */
+		ArrayList<Integer> small = new ArrayList<Integer>();
+		for (int i = 0; i < actions.length; i++) {
+			int entries = 0;
+			for (int j = 0; j < columns; j++)
+				if (actions[i][j] != actions[i][columns])
+					entries++;
+			if (entries <= INLINE_ENTRIES)
+				small.add(i);
+		}
+		boolean[] inlineState = mostReferenced(small, stateRefs, INLINE_STATES);
+		ArrayList<Integer> all = new ArrayList<Integer>();
+		for (int i = 0; i < reduceRefs.length; i++)
+			all.add(i);
+		boolean[] inlineReduce = mostReferenced(all, reduceRefs, INLINE_REDUCES);
+
+		out.println("  /** The parse tables of the specialized parse loop. */");
+		out.println("  private static final short[] " + pre("production_table") + " = " + pre("parse_table")
+				+ ".getProductionTable();");
+		out.println("  private static final int[] " + pre("base_table") + " = " + pre("parse_table")
+				+ ".getBaseTable();");
+		out.println("  private static final short[] " + pre("action_table") + " = " + pre("parse_table")
+				+ ".getActionTable();");
+		out.println("  private static final short[] " + pre("reduce_table") + " = " + pre("parse_table")
+				+ ".getReduceTable();");
+		out.println();
+		out.println("  /** Parse loop specialized for this grammar. */");
+		out.println("  protected " + symbol + " parse_loop() throws java.lang.Exception {");
+		out.println("    if (uses_batch_scanner())");
+		out.println("      return super.parse_loop();");
+		out.println("    " + RUNTIME_PACKAGE + ".ParseStack " + pre("stack") + " = begin_parse();");
+		out.println("    " + RUNTIME_PACKAGE + ".ParseListener " + pre("recorder") + " = parse_recorder();");
+		out.println("    int " + pre("state") + " = 0;");
+		out.println("    while (!is_done_parsing()) {");
+		out.println("      int " + pre("sym") + " = cur_token.sym;");
+		out.println("      int " + pre("act") + ";");
+		out.println("      switch (" + pre("state") + ") {");
+		for (int i = 0; i < actions.length; i++) {
+			if (!inlineState[i])
+				continue;
+			out.println("        case " + i + ": " + pre("act") + " = " + inlineAction(actions[i], columns) + "; break;");
+		}
+		out.println("        default: {");
+		out.println("          int " + pre("index") + " = " + pre("base_table") + "[2 * " + pre("state") + "] + 2 * "
+				+ pre("sym") + ";");
+		out.println("          " + pre("act") + " = " + pre("action_table") + "[" + pre("index") + "] == "
+				+ pre("base_table") + "[2 * " + pre("state") + " + 1] ? " + pre("action_table") + "[" + pre("index")
+				+ " + 1] : " + pre("action_table") + "[" + pre("state") + "];");
+		out.println("        }");
+		out.println("      }");
+		out.println("      if ((" + pre("act") + " & 1) != 0) {");
+		out.println("        /* shift */");
+		out.println("        " + pre("state") + " = " + pre("act") + " >> 1;");
+		out.println("        " + pre("stack") + ".push(cur_token, " + pre("state") + ");");
+		out.println("        if (" + pre("recorder") + " != null)");
+		out.println("          " + pre("recorder") + ".shift(cur_token, " + pre("state") + ");");
+		out.println("        cur_token = scan();");
+		out.println("      } else if (" + pre("act") + " != 0) {");
+		out.println("        /* reduce */");
+		out.println("        if (" + pre("recorder") + " != null)");
+		out.println("          " + pre("recorder") + ".start_reduce((" + pre("act") + " >> 1) - 1);");
+		out.println("        " + symbol + " " + pre("lhs") + ";");
+		out.println("        switch (" + pre("act") + ") {");
+		for (Production prod : grammar.actions()) {
+			int index = prod.getActionIndex();
+			if (!inlineReduce[index])
+				continue;
+			int lhs = prod.getLhs().getIndex();
+			LalrState target = null;
+			for (LalrState[] row : gotos) {
+				if (row[lhs] == null)
+					continue;
+				if (target != null && target != row[lhs]) {
+					target = null;
+					break;
+				}
+				target = row[lhs];
+			}
+			String next = target != null ? String.valueOf(target.getIndex())
+					: pre("reduce_table") + "[" + pre("reduce_table") + "[" + pre("stack") + ".topState()] + " + lhs + "]";
+			emitActionComment(out, prod, "          ");
+			out.println("          case " + ParseActionTable.createReduceCode(index) + ":");
+			out.println("            " + pre("lhs") + " = do_action(" + index + ", " + pre("stack") + ");");
+			if (prod.getRhsSize() > 0)
+				out.println("            " + pre("stack") + ".pop(" + prod.getRhsSize() + ");");
+			out.println("            " + pre("state") + " = " + next + ";");
+			out.println("            break;");
+		}
+		out.println("          default: {");
+		out.println("            int " + pre("rule") + " = (" + pre("act") + " >> 1) - 1;");
+		out.println("            " + pre("lhs") + " = do_action(" + pre("rule") + ", " + pre("stack") + ");");
+		out.println("            " + pre("stack") + ".pop(" + pre("production_table") + "[2 * " + pre("rule")
+				+ " + 1]);");
+		out.println("            " + pre("state") + " = " + pre("reduce_table") + "[" + pre("reduce_table") + "["
+				+ pre("stack") + ".topState()] + " + pre("lhs") + ".sym];");
+		out.println("          }");
+		out.println("        }");
+		out.println("        if (" + pre("recorder") + " != null)");
+		out.println("          " + pre("recorder") + ".reduce((" + pre("act") + " >> 1) - 1, " + pre("lhs")
+				+ ", parse_table().getProductionSize((" + pre("act") + " >> 1) - 1));");
+		out.println("        " + pre("stack") + ".push(" + pre("lhs") + ", " + pre("state") + ");");
+		out.println("      } else {");
+		out.println("        /* syntax error */");
+		out.println("        " + pre("state") + " = recover();");
+		out.println("      }");
+		out.println("    }");
+		out.println("    return " + pre("stack") + ".isEmpty() ? null : " + pre("stack") + ".top();");
+		out.println("  }");
+		out.println();
+	}
+
+	/**
+	 * Return the action of a row as an expression on the lookahead, a chain of
+	 * comparisons for the entries that differ from the default.
+	 */
+	private static String inlineAction(int[] row, int columns) {
+		StringBuilder act = new StringBuilder();
+		int parens = 0;
+		for (int j = 0; j < columns; j++) {
+			if (row[j] != row[columns]) {
+				act.append("(" + pre("sym") + " == " + j + " ? " + row[j] + " : ");
+				parens++;
+			}
+		}
+		act.append(row[columns]);
+		for (int k = 0; k < parens; k++)
+			act.append(")");
+		String expr = act.toString();
+		if (parens > 0)
+			expr = expr.substring(1, expr.length() - 1);
+		return expr;
+	}
+
+	/**
+	 * Decide whether the parser gets the direct coded parse loop of the
+	 * direct_parse option. A grammar with more states than the option allows,
+	 * or whose loop would take more than DIRECT_SIZE bytes of bytecode, falls
+	 * back to the parse tables.
+	 *
+	 * @return the arms of the state switch of the loop, see directStateArms(),
+	 *         or null if the parser uses the parse tables.
+	 */
+	private Map<String, List<Integer>> directParseArms(Grammar grammar) {
+		if (options.direct_parse <= 0)
+			return null;
+		int[][] actions = grammar.getActionTable().getTable();
+		if (actions.length > options.direct_parse) {
+			ErrorManager.getManager().emit_info("Grammar has " + actions.length + " states, more than "
+					+ options.direct_parse + " for direct_parse; the parser uses the parse tables");
+			return null;
+		}
+		Map<String, List<Integer>> arms = directStateArms(grammar);
+		/* rough bytecode size of the state switch and of the reduce switch */
+		int columns = grammar.getTerminalCount();
+		int size = 200 + 4 * actions.length + 8 * grammar.gatActionCount();
+		for (List<Integer> states : arms.values()) {
+			int entries = rowEntries(actions[states.get(0)], columns);
+			size += entries > INLINE_ENTRIES ? 15 : entries > 0 ? 12 * (entries + 1) : 8;
+		}
+		size += 40 * directReduceGroups(grammar).size();
+		if (size > DIRECT_SIZE) {
+			ErrorManager.getManager().emit_info("Parse loop of about " + size + " bytes too large for direct_parse;"
+					+ " the parser uses the parse tables");
+			return null;
+		}
+		return arms;
+	}
+
+	/** Return the number of entries of a row that differ from its default. */
+	private static int rowEntries(int[] row, int columns) {
+		int entries = 0;
+		for (int j = 0; j < columns; j++)
+			if (row[j] != row[columns])
+				entries++;
+		return entries;
+	}
+
+	/**
+	 * Return the arms of the state switch of the direct coded parse loop, each
+	 * with the states sharing it. A state with at most INLINE_ENTRIES entries
+	 * besides its default decides inline, the others call the action method of
+	 * the first state with the same row, which is the first state of the arm.
+	 */
+	private Map<String, List<Integer>> directStateArms(Grammar grammar) {
+		int[][] actions = grammar.getActionTable().getTable();
+		int columns = grammar.getTerminalCount();
+		Map<String, Integer> methods = new HashMap<String, Integer>();
+		Map<String, List<Integer>> arms = new LinkedHashMap<String, List<Integer>>();
+		for (int i = 0; i < actions.length; i++) {
+			int[] row = actions[i];
+			String arm;
+			if (rowEntries(row, columns) <= INLINE_ENTRIES) {
+				arm = inlineAction(row, columns);
+			} else {
+				String key = Arrays.toString(row);
+				Integer method = methods.get(key);
+				if (method == null) {
+					method = i;
+					methods.put(key, method);
+				}
+				arm = pre("action$" + method) + "(" + pre("sym") + ")";
+			}
+			List<Integer> states = arms.get(arm);
+			if (states == null) {
+				states = new ArrayList<Integer>();
+				arms.put(arm, states);
+			}
+			states.add(i);
+		}
+		return arms;
+	}
+
+	/**
+	 * Return the productions of the reduce switch of the direct coded parse
+	 * loop, grouped by their left hand side and the size of their right hand
+	 * side, which is all a reduce needs besides the action number.
+	 */
+	private Map<String, List<Production>> directReduceGroups(Grammar grammar) {
+		Map<String, List<Production>> groups = new LinkedHashMap<String, List<Production>>();
+		for (Production prod : grammar.actions()) {
+			String key = prod.getLhs().getIndex() + "/" + prod.getRhsSize();
+			List<Production> group = groups.get(key);
+			if (group == null) {
+				group = new ArrayList<Production>();
+				groups.put(key, group);
+			}
+			group.add(prod);
+		}
+		return groups;
+	}
+
+	/**
+	 * Emit the direct coded parse loop of the direct_parse option. The rows of
+	 * the action table and the columns of the reduce table become switches in
+	 * the code: the loop switches on the state to find the action, either
+	 * inline or in a static method per distinct row switching on the
+	 * lookahead, and on the action to reduce, with the goto as a constant or
+	 * a static method per non terminal switching on the uncovered state. The
+	 * parse table is only loaded for error recovery and when another parse
+	 * engine runs, e.g. for a BatchScanner, a PushParser or a ParseListener.
+	 *
+	 * @param out  stream to produce output on.
+	 * @param arms the arms of the state switch, see directStateArms().
+	 */
+	private void emitDirectParse(PrintWriter out, Grammar grammar, Map<String, List<Integer>> arms) {
+		int[][] actions = grammar.getActionTable().getTable();
+		LalrState[][] gotos = grammar.getReduceTable().getTable();
+		int columns = grammar.getTerminalCount();
+		String symbol = RUNTIME_PACKAGE + ".Symbol";
+
+		out.println("  /** Parse loop with the parse tables compiled into code. */");
+		out.println("  protected " + symbol + " parse_loop() throws java.lang.Exception {");
+		out.println("    if (uses_batch_scanner())");
+		out.println("      return super.parse_loop();");
+		out.println("    " + RUNTIME_PACKAGE + ".ParseStack " + pre("stack") + " = begin_parse();");
+		out.println("    " + RUNTIME_PACKAGE + ".ParseListener " + pre("recorder") + " = parse_recorder();");
+		out.println("    int " + pre("state") + " = 0;");
+		out.println("    while (!is_done_parsing()) {");
+		out.println("      int " + pre("sym") + " = cur_token.sym;");
+		out.println("      int " + pre("act") + ";");
+		out.println("      switch (" + pre("state") + ") {");
+		for (Map.Entry<String, List<Integer>> arm : arms.entrySet()) {
+			StringBuilder cases = new StringBuilder("       ");
+			for (int state : arm.getValue())
+				cases.append(" case " + state + ":");
+			out.println(cases);
+			out.println("          " + pre("act") + " = " + arm.getKey() + ";");
+			out.println("          break;");
+		}
+		out.println("        default:");
+		out.println("          " + pre("act") + " = 0;");
+		out.println("      }");
+		out.println("      if ((" + pre("act") + " & 1) != 0) {");
+		out.println("        /* shift */");
+		out.println("        " + pre("state") + " = " + pre("act") + " >> 1;");
+		out.println("        " + pre("stack") + ".push(cur_token, " + pre("state") + ");");
+		out.println("        if (" + pre("recorder") + " != null)");
+		out.println("          " + pre("recorder") + ".shift(cur_token, " + pre("state") + ");");
+		out.println("        cur_token = scan();");
+		out.println("      } else if (" + pre("act") + " != 0) {");
+		out.println("        /* reduce */");
+		out.println("        if (" + pre("recorder") + " != null)");
+		out.println("          " + pre("recorder") + ".start_reduce((" + pre("act") + " >> 1) - 1);");
+		out.println("        " + symbol + " " + pre("lhs") + ";");
+		out.println("        switch (" + pre("act") + ") {");
+		boolean[] gotoMethod = new boolean[gotos.length == 0 ? 0 : gotos[0].length];
+		for (List<Production> group : directReduceGroups(grammar).values()) {
+			for (Production prod : group) {
+				emitActionComment(out, prod, "          ");
+				out.println("          case " + ParseActionTable.createReduceCode(prod.getActionIndex()) + ":");
+			}
+			Production first = group.get(0);
+			String rule = group.size() == 1 ? String.valueOf(first.getActionIndex())
+					: "(" + pre("act") + " >> 1) - 1";
+			int lhs = first.getLhs().getIndex();
+			LalrState target = null;
+			boolean unique = true;
+			for (LalrState[] row : gotos) {
+				if (row[lhs] == null)
+					continue;
+				if (target != null && target != row[lhs])
+					unique = false;
+				target = row[lhs];
+			}
+			String next;
+			if (target == null) {
+				/* no goto, the production is only reduced to accept */
+				next = "-1";
+			} else if (unique) {
+				next = String.valueOf(target.getIndex());
+			} else {
+				next = pre("goto$" + lhs) + "(" + pre("stack") + ".topState())";
+				gotoMethod[lhs] = true;
+			}
+			out.println("            " + pre("lhs") + " = do_action(" + rule + ", " + pre("stack") + ");");
+			if (first.getRhsSize() > 0)
+				out.println("            " + pre("stack") + ".pop(" + first.getRhsSize() + ");");
+			out.println("            " + pre("state") + " = " + next + ";");
+			out.println("            break;");
+		}
+		out.println("          default:");
+		out.println("            throw new InternalError(");
+		out.println("               \"Invalid action number found in " + "internal parse table\");");
+		out.println("        }");
+		out.println("        if (" + pre("recorder") + " != null)");
+		out.println("          " + pre("recorder") + ".reduce((" + pre("act") + " >> 1) - 1, " + pre("lhs")
+				+ ", parse_table().getProductionSize((" + pre("act") + " >> 1) - 1));");
+		out.println("        " + pre("stack") + ".push(" + pre("lhs") + ", " + pre("state") + ");");
+		out.println("      } else {");
+		out.println("        /* syntax error */");
+		out.println("        " + pre("state") + " = recover();");
+		out.println("      }");
+		out.println("    }");
+		out.println("    return " + pre("stack") + ".isEmpty() ? null : " + pre("stack") + ".top();");
+		out.println("  }");
+		out.println();
+
+		/* the action methods of the larger rows */
+		Set<Integer> methods = new TreeSet<Integer>();
+		for (List<Integer> states : arms.values())
+			if (rowEntries(actions[states.get(0)], columns) > INLINE_ENTRIES)
+				methods.add(states.get(0));
+		for (int i : methods) {
+			int[] row = actions[i];
+			Map<Integer, StringBuilder> cases = new LinkedHashMap<Integer, StringBuilder>();
+			for (int j = 0; j < columns; j++) {
+				if (row[j] == row[columns])
+					continue;
+				StringBuilder labels = cases.get(row[j]);
+				if (labels == null) {
+					labels = new StringBuilder("     ");
+					cases.put(row[j], labels);
+				}
+				labels.append(" case " + j + ":");
+			}
+			out.println("  /** Return the action of state " + i + " on a lookahead. */");
+			out.println("  private static int " + pre("action$" + i) + "(int " + pre("sym") + ") {");
+			out.println("    switch (" + pre("sym") + ") {");
+			for (Map.Entry<Integer, StringBuilder> entry : cases.entrySet())
+				out.println(entry.getValue() + " return " + entry.getKey() + ";");
+			out.println("      default: return " + row[columns] + ";");
+			out.println("    }");
+			out.println("  }");
+			out.println();
+		}
+
+		/* the goto methods of the non terminals with several targets */
+		for (int lhs = 0; lhs < gotoMethod.length; lhs++) {
+			if (!gotoMethod[lhs])
+				continue;
+			Map<LalrState, StringBuilder> cases = new LinkedHashMap<LalrState, StringBuilder>();
+			Map<LalrState, Integer> counts = new HashMap<LalrState, Integer>();
+			LalrState common = null;
+			for (int st = 0; st < gotos.length; st++) {
+				LalrState target = gotos[st][lhs];
+				if (target == null)
+					continue;
+				StringBuilder labels = cases.get(target);
+				if (labels == null) {
+					labels = new StringBuilder("     ");
+					cases.put(target, labels);
+					counts.put(target, 0);
+				}
+				labels.append(" case " + st + ":");
+				counts.put(target, counts.get(target) + 1);
+				if (common == null || counts.get(target) > counts.get(common))
+					common = target;
+			}
+			out.println("  /** Return the state after reducing to non terminal " + lhs + ". */");
+			out.println("  private static int " + pre("goto$" + lhs) + "(int " + pre("state") + ") {");
+			out.println("    switch (" + pre("state") + ") {");
+			for (Map.Entry<LalrState, StringBuilder> entry : cases.entrySet())
+				if (entry.getKey() != common)
+					out.println(entry.getValue() + " return " + entry.getKey().getIndex() + ";");
+			out.println("      default: return " + common.getIndex() + ";");
+			out.println("    }");
+			out.println("  }");
+			out.println();
+		}
+	}
+
+	/**
+	 * Select the candidates with the most references, at most limit of them.
+	 *
+	 * @return a flag per index, set for the selected candidates.
+	 */
+	private static boolean[] mostReferenced(ArrayList<Integer> candidates, final int[] refs, int limit) {
+		Collections.sort(candidates, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				if (refs[a] != refs[b])
+					return refs[b] - refs[a];
+				return a - b;
+			}
+		});
+		boolean[] selected = new boolean[refs.length];
+		for (int i = 0; i < candidates.size() && i < limit; i++)
+			selected[candidates.get(i)] = true;
+		return selected;
+	}
+
 	private void dump_tables(PrintWriter dump_file, Grammar grammar) {
 		dump_file.println(grammar.getActionTable());
 		dump_file.println(grammar.getReduceTable());
@@ -0,0 +1,252 @@
+package com.github.jhoenicke.javacup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A persistent cache of generated files. An entry holds the files one run
+ * generated, stored under their path relative to the destination directory,
+ * and is keyed by a hash of the grammar specification, the options that
+ * influence the generated code and the version of the generator. When a run
+ * finds the entry of its key, it copies the files to the destination
+ * directory instead of building the parse tables.
+ * <p>
+ * The cache also keeps the state machines and parse tables of the grammars,
+ * see Grammar.writeMachine(), keyed by a hash of the symbols, precedences and
+ * productions without the code of the actions. A run whose specification
+ * changed only in its action or user code reloads them instead of building
+ * them again.
+ * <p>
+ * An entry is written to a temporary directory and renamed into place, so
+ * concurrent runs sharing the cache see either a complete entry or none;
+ * the same holds for the file of a machine.
+ * The counts of hits and misses of all runs of the JVM let the ant task
+ * report them.
+ */
+public class GeneratorCache {
+
+	private static final AtomicInteger hits = new AtomicInteger();
+	private static final AtomicInteger misses = new AtomicInteger();
+
+	private final File directory;
+
+	/**
+	 * Create a cache.
+	 *
+	 * @param directory the directory of the cache, created on the first store.
+	 */
+	public GeneratorCache(File directory) {
+		this.directory = directory;
+	}
+
+	/** Return the number of runs that found their entry in a cache. */
+	public static int getHits() {
+		return hits.get();
+	}
+
+	/** Return the number of runs that did not find their entry in a cache. */
+	public static int getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Compute the key of a run.
+	 *
+	 * @param spec    the text of the grammar specification.
+	 * @param options the options of the run, before the specification is read.
+	 * @return the key, a SHA-256 hash in hexadecimal.
+	 */
+	public static String key(byte[] spec, Options options) {
+		byte[] header = (Version.title + "\n" + options.outputKey() + "\n").getBytes(StandardCharsets.UTF_8);
+		return hash(header, spec);
+	}
+
+	/** Return the SHA-256 hash of the given bytes in hexadecimal. */
+	private static String hash(byte[]... parts) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		for (byte[] part : parts)
+			digest.update(part);
+		StringBuilder key = new StringBuilder();
+		for (byte b : digest.digest())
+			key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		return key.toString();
+	}
+
+	/**
+	 * Compute the key of the state machine of a grammar: a hash of its symbols
+	 * with their precedences and of its productions, without the code of their
+	 * actions. The indices of the actions are part of it, as productions with
+	 * the same code share one.
+	 *
+	 * @param grammar the grammar, as read from the specification.
+	 * @param options the options of the run.
+	 * @return the key, a SHA-256 hash in hexadecimal.
+	 */
+	public static String machineKey(Grammar grammar, Options options) {
+		StringBuilder text = new StringBuilder();
+		text.append(Version.title).append('\n').append(options.machineKey()).append('\n');
+		for (Terminal term : grammar.terminals())
+			text.append("T ").append(term.getName()).append(' ').append(term.getPrecedence()).append(' ')
+					.append(term.getAssociativity()).append('\n');
+		for (NonTerminal nt : grammar.non_terminals())
+			text.append("N ").append(nt.getName()).append('\n');
+		for (Production prod : grammar.productions()) {
+			text.append("P ").append(prod.getActionIndex()).append(' ').append(prod.getAction() == null).append(' ')
+					.append(prod.getPrecedence()).append(' ').append(prod.getAssociativity()).append(' ')
+					.append(prod.getLhs().getIndex());
+			for (int i = 0; i < prod.getRhsSize(); i++) {
+				GrammarSymbol sym = prod.getRhsAt(i).getSymbol();
+				text.append(sym.isNonTerm() ? " N" : " T").append(sym.getIndex());
+			}
+			text.append('\n');
+		}
+		text.append("S ").append(grammar.getStartProduction().getIndex()).append('\n');
+		return hash(text.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Copy the files of an entry to the destination directory.
+	 *
+	 * @param key         the key of the run.
+	 * @param destination the destination directory.
+	 * @return the files copied, or null if the cache has no entry for the key.
+	 */
+	public List<File> restore(String key, File destination) throws IOException {
+		File entry = new File(directory, key);
+		if (!entry.isDirectory()) {
+			misses.incrementAndGet();
+			return null;
+		}
+		List<File> files = new ArrayList<File>();
+		copy(entry, destination, files);
+		hits.incrementAndGet();
+		return files;
+	}
+
+	/**
+	 * Store the files of a run as the entry of its key.
+	 *
+	 * @param key         the key of the run.
+	 * @param destination the destination directory the files were written to.
+	 * @param files       the files, inside the destination directory.
+	 */
+	public void store(String key, File destination, List<File> files) throws IOException {
+		File entry = new File(directory, key);
+		if (entry.isDirectory())
+			return;
+		directory.mkdirs();
+		Path base = destination.getAbsoluteFile().toPath().normalize();
+		Path temp = Files.createTempDirectory(directory.toPath(), key + ".");
+		try {
+			for (File file : files) {
+				Path relative = base.relativize(file.getAbsoluteFile().toPath().normalize());
+				Path target = temp.resolve(relative);
+				Files.createDirectories(target.getParent());
+				Files.copy(file.toPath(), target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			if (!temp.toFile().renameTo(entry) && !entry.isDirectory())
+				throw new IOException("Can't create cache entry \"" + entry + "\"");
+		} finally {
+			/* left over if another run stored the entry first */
+			if (temp.toFile().exists())
+				delete(temp.toFile());
+		}
+	}
+
+	/**
+	 * Restore the state machine and parse tables of a grammar from the cache.
+	 *
+	 * @param key     the key of the machine, see machineKey().
+	 * @param grammar the grammar to restore them in.
+	 * @return true if the cache had them, false if the grammar must be built.
+	 * @throws IOException if the file of the machine can't be read; it is
+	 *                     removed, so the machine built instead replaces it.
+	 */
+	public boolean restoreMachine(String key, Grammar grammar) throws IOException {
+		File file = new File(directory, key + ".machine");
+		if (!file.isFile())
+			return false;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			grammar.readMachine(in);
+		} catch (EOFException e) {
+			file.delete();
+			throw new IOException("Truncated state machine \"" + file + "\"");
+		} catch (IOException e) {
+			file.delete();
+			throw e;
+		}
+		return true;
+	}
+
+	/**
+	 * Store the state machine and parse tables of a grammar in the cache.
+	 *
+	 * @param key     the key of the machine, see machineKey().
+	 * @param grammar the grammar, with its machine and tables built.
+	 */
+	public void storeMachine(String key, Grammar grammar) throws IOException {
+		File file = new File(directory, key + ".machine");
+		if (file.isFile())
+			return;
+		directory.mkdirs();
+		File temp = File.createTempFile(key + ".", ".tmp", directory);
+		try {
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temp)))) {
+				grammar.writeMachine(out);
+			}
+			if (!temp.renameTo(file) && !file.isFile())
+				throw new IOException("Can't create cache entry \"" + file + "\"");
+		} finally {
+			if (temp.exists())
+				temp.delete();
+		}
+	}
+
+	/** Copy a directory tree, collecting the files copied. */
+	private static void copy(File from, File to, List<File> files) throws IOException {
+		File[] children = from.listFiles();
+		if (children == null)
+			return;
+		to.mkdirs();
+		for (File child : children) {
+			File target = new File(to, child.getName());
+			if (child.isDirectory()) {
+				copy(child, target, files);
+			} else {
+				Files.copy(child.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				files.add(target);
+			}
+		}
+	}
+
+	/** Delete a directory tree. */
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				delete(child);
+		file.delete();
+	}
+}
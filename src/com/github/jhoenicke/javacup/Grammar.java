@@ -1,6 +1,12 @@
 package com.github.jhoenicke.javacup;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -8,6 +14,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Represents the context-free grammar for which we build a parser. An object of
@@ -22,6 +32,9 @@ import java.util.Map.Entry;
  *
  */
 public class Grammar {
+
+	/** Magic number at the start of a state machine written by writeMachine() ("CUPM"). */
+	private static final int MACHINE_MAGIC = 0x4355504D;
 	
 	private final List<Terminal> terminals;
 	private final List<NonTerminal> nonterminals;
@@ -35,14 +48,35 @@ public class Grammar {
 	/**
 	 * Hash table to find states by their kernels (i.e, the original, unclosed, set
 	 * of items -- which uniquely define the state). This table stores state objects
-	 * using (a copy of) their kernel item sets as keys.
+	 * using the sorted ids of their kernel items as keys.
 	 */
-	private final Map<Collection<LrItem>, LalrState> kernelsToLalr = new HashMap<Collection<LrItem>, LalrState>();
+	private final KernelTable kernelsToLalr = new KernelTable();
 	private final List<LalrState> lalrStates = new ArrayList<LalrState>();
 
+	/** The arena of the lookaheads of the states, see getArena(). */
+	private TerminalArena arena;
+
 	/** Number of conflict found while building tables. */
 	private int conflictCount = 0;
 
+	/** The conflict reports, and which of them are errors, kept for writeMachine(). */
+	private final List<String> conflicts = new ArrayList<String>();
+	private final BitSet conflictErrors = new BitSet();
+
+	/**
+	 * The first sets of the non-terminals, as a matrix of bit words: the set of
+	 * a non-terminal is the row of firstWords words at its position in
+	 * nonterminals times firstWords, see computeFirsts(). The position is the
+	 * index of every non-terminal but $START, which shares index 0 with the
+	 * first declared one; it never occurs on a right hand side, so it is never
+	 * looked up by its index.
+	 */
+	private long[] firsts;
+	private int firstWords;
+
+	/** The strongly connected components of the non-terminals, see components(). */
+	private List<int[]> components;
+
 	/** Resulting parse action table. */
 	private ParseActionTable actionTable;
 
@@ -363,64 +397,249 @@ public class Grammar {
 		return true;
 	}
 
-	public LalrState getLalrState(Map<LrItem, TerminalSet> kernel) {
-		Collection<LrItem> key = kernel.keySet();
-		LalrState state = kernelsToLalr.get(key);
+	/**
+	 * Return the arena holding the lookaheads of the states created by the thread
+	 * building the machine. The states are created when all terminals are
+	 * declared, so all sets have the same size.
+	 */
+	public TerminalArena getArena() {
+		if (arena == null)
+			arena = new TerminalArena(this);
+		return arena;
+	}
+
+	public LalrState getLalrState(Kernel kernel) {
+		LalrState state = kernelsToLalr.get(kernel);
 		if (state != null) {
 			state.propagateLookaheads(kernel);
 		} else {
-			state = new LalrState(kernel, lalrStates.size());
+			state = new LalrState(kernel, lalrStates.size(), getArena());
 			lalrStates.add(state);
-			kernelsToLalr.put(key, state);
+			kernelsToLalr.put(kernel, state);
 		}
 		return state;
 	}
 
-	/** Compute nullability of all non-terminals. */
-	public void computeNullability() {
-		boolean change = true;
+	/**
+	 * Find the state of the LR(0) machine with the given kernel, creating it if
+	 * it does not exist yet. Lookaheads are not propagated.
+	 */
+	public LalrState getLalrCore(Kernel kernel) {
+		LalrState state = kernelsToLalr.get(kernel);
+		if (state == null) {
+			state = new LalrState(kernel, lalrStates.size(), getArena());
+			lalrStates.add(state);
+			kernelsToLalr.put(kernel, state);
+		}
+		return state;
+	}
 
-		/* repeat this process until there is no change */
-		while (change) {
-			/* look for a new change */
-			change = false;
+	/**
+	 * Create the items of all productions and number them densely: the items of
+	 * a production get consecutive ids, in production order.
+	 */
+	public void numberItems() {
+		int id = 0;
+		for (Production prod : productions) {
+			prod.setItemBase(id);
+			LrItem item = prod.getItem();
+			while (!item.isDotAtEnd())
+				item = item.getItemDotPositionShifted();
+			id += prod.getRhsSize() + 1;
+		}
+	}
+
+	/**
+	 * Compute nullability of all non-terminals. The non-terminals are visited by
+	 * strongly connected components, see components(), so the nullability of
+	 * the non-terminals a component depends on is known, and only the members of
+	 * a recursive component are visited more than once.
+	 */
+	public void computeNullability() {
+		for (int[] component : components()) {
+			boolean change = true;
+			while (change) {
+				change = false;
+				for (int position : component) {
+					NonTerminal nt = nonterminals.get(position);
+					if (!nt.isNullable() && derivesEmpty(nt)) {
+						nt.setNullable(true);
+						change = isRecursive(component);
+					}
+				}
+			}
+		}
+	}
 
-			/* consider each non-terminal */
-			for (NonTerminal nt : nonterminals) {
-				/* check nullable and set change flag */
-				change |= nt.checkNullable();
+	/** Check if a production of a non-terminal consists of nullable non-terminals. */
+	private static boolean derivesEmpty(NonTerminal nt) {
+		for (Production prod : nt.getProductions()) {
+			boolean empty = true;
+			for (int pos = 0; pos < prod.getRhsSize() && empty; pos++) {
+				GrammarSymbol sym = prod.getRhsAt(pos).getSymbol();
+				empty = sym.isNonTerm() && ((NonTerminal) sym).isNullable();
 			}
+			if (empty)
+				return true;
 		}
+		return false;
 	}
 
 	/**
 	 * Compute first sets for all non-terminals. This assumes nullability has
-	 * already computed.
+	 * already computed. The sets are computed by strongly connected components
+	 * like the nullability, into one matrix of bit words rather than a set per
+	 * non-terminal, and merged word by word.
 	 */
 	public void computeFirsts() {
-		boolean change = true;
-
-		/* initialize first sets */
-		for (NonTerminal nt : nonterminals)
-			nt.setFirsts(new TerminalSet(this));
-
-		/* repeat this process until we have no change */
-		while (change) {
-			/* look for a new change */
-			change = false;
-
-			/* consider each non-terminal */
-			for (NonTerminal nt : nonterminals) {
-				/* consider every production of that non terminal */
-				for (Production prod : nt.getProductions()) {
-					/* get the updated first of that production */
-					TerminalSet prod_first = prod.getFirsts(this);
-
-					/* if this going to add anything, add it */
-					change |= nt.getFirsts().add(prod_first);
+		firstWords = TerminalSet.wordCount(getTerminalCount());
+		firsts = new long[nonterminals.size() * firstWords];
+		for (int[] component : components()) {
+			boolean change = true;
+			while (change) {
+				change = false;
+				for (int position : component)
+					for (Production prod : nonterminals.get(position).getProductions())
+						change |= addFirsts(position * firstWords, prod);
+				change &= isRecursive(component);
+			}
+		}
+	}
+
+	/**
+	 * Add the first set of a production to the first set of its left hand side.
+	 *
+	 * @param row  the start of the row of the left hand side in firsts.
+	 * @param prod the production.
+	 * @return true if this changes the first set.
+	 */
+	private boolean addFirsts(int row, Production prod) {
+		boolean changed = false;
+		for (int pos = 0; pos < prod.getRhsSize(); pos++) {
+			GrammarSymbol sym = prod.getRhsAt(pos).getSymbol();
+
+			/* a terminal is its own first set and ends the production's */
+			if (!sym.isNonTerm()) {
+				int word = row + (sym.getIndex() >>> 6);
+				long bit = 1L << sym.getIndex();
+				changed |= (firsts[word] & bit) == 0;
+				firsts[word] |= bit;
+				return changed;
+			}
+
+			int other = sym.getIndex() * firstWords;
+			for (int i = 0; i < firstWords; i++) {
+				changed |= (~firsts[row + i] & firsts[other + i]) != 0;
+				firsts[row + i] |= firsts[other + i];
+			}
+			if (!((NonTerminal) sym).isNullable())
+				break;
+		}
+		return changed;
+	}
+
+	/**
+	 * Add the first set of a non-terminal to a set of terminals. This assumes
+	 * first sets have already been computed.
+	 *
+	 * @return true if this changes the set.
+	 */
+	public boolean addFirsts(TerminalSet set, NonTerminal nt) {
+		return set.add(firsts, nt.getIndex() * firstWords);
+	}
+
+	/**
+	 * Return the strongly connected components of the graph in which every
+	 * non-terminal points to the non-terminals on the right hand sides of its
+	 * productions, as sorted arrays of positions in nonterminals. The
+	 * components are returned in reverse topological order, so every component
+	 * comes after the components it points to, and analyses like nullability
+	 * and first sets reach their fixpoint component by component. This is
+	 * Tarjan's algorithm with an explicit stack, so deeply nested grammars do
+	 * not overflow the call stack. The components are computed once, when all
+	 * productions have been added.
+	 */
+	List<int[]> components() {
+		if (components != null)
+			return components;
+		int count = nonterminals.size();
+		int[][] edges = new int[count][];
+		BitSet targets = new BitSet(count);
+		for (int position = 0; position < count; position++) {
+			targets.clear();
+			for (Production prod : nonterminals.get(position).getProductions())
+				for (int pos = 0; pos < prod.getRhsSize(); pos++)
+					if (prod.getRhsAt(pos).getSymbol().isNonTerm())
+						targets.set(prod.getRhsAt(pos).getSymbol().getIndex());
+			int[] out = new int[targets.cardinality()];
+			for (int i = 0, t = targets.nextSetBit(0); t >= 0; t = targets.nextSetBit(t + 1))
+				out[i++] = t;
+			edges[position] = out;
+		}
+
+		components = new ArrayList<int[]>();
+		int[] number = new int[count];
+		int[] low = new int[count];
+		boolean[] onStack = new boolean[count];
+		int[] stack = new int[count];
+		int[] path = new int[count];
+		int[] nextEdge = new int[count];
+		int size = 0, next = 1;
+		for (int root = 0; root < count; root++) {
+			if (number[root] != 0)
+				continue;
+			int depth = 0;
+			path[depth++] = root;
+			number[root] = low[root] = next++;
+			stack[size++] = root;
+			onStack[root] = true;
+			while (depth > 0) {
+				int v = path[depth - 1];
+				if (nextEdge[v] < edges[v].length) {
+					int w = edges[v][nextEdge[v]++];
+					if (number[w] == 0) {
+						path[depth++] = w;
+						number[w] = low[w] = next++;
+						stack[size++] = w;
+						onStack[w] = true;
+					} else if (onStack[w]) {
+						low[v] = Math.min(low[v], number[w]);
+					}
+					continue;
+				}
+
+				/* all successors of v are done */
+				depth--;
+				if (depth > 0)
+					low[path[depth - 1]] = Math.min(low[path[depth - 1]], low[v]);
+				if (low[v] == number[v]) {
+					int first = size;
+					do {
+						onStack[stack[--first]] = false;
+					} while (stack[first] != v);
+					int[] component = Arrays.copyOfRange(stack, first, size);
+					Arrays.sort(component);
+					size = first;
+					components.add(component);
 				}
 			}
 		}
+		return components;
+	}
+
+	/**
+	 * Check if the non-terminals of a component depend on themselves, i.e. if it
+	 * has more than one member or its member occurs in its own productions.
+	 */
+	private boolean isRecursive(int[] component) {
+		if (component.length > 1)
+			return true;
+		NonTerminal nt = nonterminals.get(component[0]);
+		for (Production prod : nt.getProductions())
+			for (int pos = 0; pos < prod.getRhsSize(); pos++)
+				if (prod.getRhsAt(pos).getSymbol() == nt)
+					return true;
+		return false;
 	}
 
 	/**
@@ -467,31 +686,171 @@ public class Grammar {
 	 */
 
 	public LalrState buildMachine() {
+		return buildMachine(false, false);
+	}
+
+	/**
+	 * Build the LALR viable prefix recognition machine, optionally on all
+	 * available processors, and optionally computing the lookaheads from the
+	 * DeRemer-Pennello relations on the finished LR(0) machine. All variants
+	 * number the states identically and compute the same lookaheads, hence
+	 * produce the same parse tables.
+	 *
+	 * @param parallel  true to close the states and compute their successors in
+	 *                  parallel, see buildMachineParallel().
+	 * @param relations true to build only the LR(0) machine and compute the
+	 *                  lookaheads afterwards, see LookaheadRelations.
+	 */
+	public LalrState buildMachine(boolean parallel, boolean relations) {
 		/* sanity check */
 		assert startProduction != null : "Attempt to build viable prefix recognizer using a null production";
 
+		/*
+		 * create all items upfront: they are created lazily on the first shift, and
+		 * need their ids for the kernel table.
+		 */
+		numberItems();
+
 		/* build item with dot at front of start production and EOF lookahead */
-		TreeMap<LrItem, TerminalSet> start_items = new TreeMap<LrItem, TerminalSet>();
-		TerminalSet lookahead = new TerminalSet(this);
+		Lookaheads lookahead = new Lookaheads(new TerminalSet(this), getArena());
 		lookahead.add(Terminal.EOF);
 		LrItem core = startProduction.getItem();
-		start_items.put(core, lookahead);
-		LalrState start_state = getLalrState(start_items);
+		LalrState start_state = getLalrState(
+				new Kernel(null, new LrItem[] { core }, new Lookaheads[] { lookahead }, 1));
 
-		/*
-		 * continue looking at new states until we have no more work to do. Note that
-		 * the lalr_states are continually expanded.
-		 */
-		for (int i = 0; i < lalrStates.size(); i++) {
-			/* remove a state from the work set */
-			LalrState st = lalrStates.get(i);
-			st.computeClosure(this);
-			st.computeSuccessors(this);
+		if (parallel) {
+			buildMachineParallel(relations);
+		} else {
+			/*
+			 * continue looking at new states until we have no more work to do. Note that
+			 * the lalr_states are continually expanded.
+			 */
+			for (int i = 0; i < lalrStates.size(); i++) {
+				/* remove a state from the work set */
+				LalrState st = lalrStates.get(i);
+				if (relations) {
+					st.computeCoreClosure(this, getArena());
+					st.computeCoreSuccessors(this);
+				} else {
+					st.computeClosure(this, getArena());
+					st.computeSuccessors(this);
+				}
+			}
 		}
 
+		if (relations)
+			new LookaheadRelations(this).computeLookaheads();
 		return start_state;
 	}
 
+	/**
+	 * Build the machine from the start state in waves on a fork/join pool. Each
+	 * wave consists of the states found by the previous one. The states of a wave
+	 * are closed, and their successor kernels are computed and looked up in
+	 * kernelsToLalr, in parallel. Then a sequential pass walks the wave in state
+	 * order and the successors in symbol order, which is the order the serial
+	 * builder discovers states in, adds and numbers the new states and links the
+	 * lookaheads. No lookaheads are propagated between states while the machine
+	 * grows; this is done for all states at once at the end. Every thread of the
+	 * pool closes states with an arena of its own.
+	 *
+	 * @param core true to build only the LR(0) machine, without lookaheads.
+	 */
+	private void buildMachineParallel(boolean core) {
+		ForkJoinPool pool = new ForkJoinPool();
+		ThreadLocal<TerminalArena> arenas = new ThreadLocal<TerminalArena>() {
+			protected TerminalArena initialValue() {
+				return new TerminalArena(Grammar.this);
+			}
+		};
+		try {
+			int done = 0;
+			while (done < lalrStates.size()) {
+				List<LalrState> wave = lalrStates.subList(done, lalrStates.size());
+				int chunk = Math.max(1, wave.size() / (4 * pool.getParallelism()));
+				List<Callable<List<Successors>>> tasks = new ArrayList<Callable<List<Successors>>>();
+				for (int i = 0; i < wave.size(); i += chunk)
+					tasks.add(closeStates(new ArrayList<LalrState>(wave.subList(i, Math.min(i + chunk, wave.size()))),
+							core, arenas));
+
+				/* add and number the new states and link them in discovery order */
+				int end = lalrStates.size();
+				int index = done;
+				for (Future<List<Successors>> result : pool.invokeAll(tasks)) {
+					for (Successors successors : result.get()) {
+						LalrState st = lalrStates.get(index++);
+						for (int i = 0; i < successors.kernels.size(); i++) {
+							Kernel kernel = successors.kernels.get(i);
+							LalrState newstate = successors.states[i];
+							if (newstate == null)
+								newstate = getLalrCore(kernel);
+							st.addTransition(newstate, kernel, !core);
+						}
+					}
+				}
+				done = end;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new Error("Interrupted while building the state machine");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new Error("Error while building the state machine", e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+
+		if (core)
+			return;
+
+		/* now propagate the lookaheads along all links */
+		List<Lookaheads> lookaheads = new ArrayList<Lookaheads>();
+		for (LalrState st : lalrStates)
+			lookaheads.addAll(st.getItems().values());
+		Lookaheads.propagateAll(lookaheads);
+	}
+
+	/**
+	 * The successor kernels of a state, with the states found for them in
+	 * kernelsToLalr (null for a new kernel).
+	 */
+	private static class Successors {
+		final List<Kernel> kernels;
+		final LalrState[] states;
+
+		Successors(List<Kernel> kernels) {
+			this.kernels = kernels;
+			this.states = new LalrState[kernels.size()];
+		}
+	}
+
+	/**
+	 * Create the task closing some states of a wave and computing their
+	 * successors. It only reads kernelsToLalr, which is not modified while the
+	 * tasks run.
+	 */
+	private Callable<List<Successors>> closeStates(final List<LalrState> states, final boolean core,
+			final ThreadLocal<TerminalArena> arenas) {
+		return new Callable<List<Successors>>() {
+			public List<Successors> call() {
+				TerminalArena arena = arenas.get();
+				List<Successors> result = new ArrayList<Successors>(states.size());
+				for (LalrState st : states) {
+					if (core)
+						st.computeCoreClosure(Grammar.this, arena);
+					else
+						st.computeClosure(Grammar.this, arena);
+					Successors successors = new Successors(st.computeSuccessorKernels());
+					for (int i = 0; i < successors.states.length; i++)
+						successors.states[i] = kernelsToLalr.get(successors.kernels.get(i));
+					result.add(successors);
+				}
+				return result;
+			}
+		};
+	}
+
 	/**
 	 * Produce a warning message for one reduce/reduce conflict.
 	 *
@@ -511,10 +870,7 @@ public class Grammar {
 			}
 		}
 		message.append("}\n  Resolved in favor of the first production.\n");
-
-		/* count the conflict */
-		conflictCount++;
-		ErrorManager.getManager().emit_error(message.toString());
+		reportConflict(message.toString(), true);
 	}
 
 	/**
@@ -539,18 +895,203 @@ public class Grammar {
 		}
 		message.append("  under symbol ").append(conflict_sym).append("\n");
 		message.append("  Resolved in favor of shifting.\n");
+		reportConflict(message.toString(), false);
+	}
 
-		/* count the conflict */
+	/** Count and emit a conflict report, and keep it for writeMachine(). */
+	private void reportConflict(String message, boolean error) {
+		if (error)
+			conflictErrors.set(conflicts.size());
+		conflicts.add(message);
 		conflictCount++;
-		ErrorManager.getManager().emit_warning(message.toString());
+		if (error)
+			ErrorManager.getManager().emit_error(message);
+		else
+			ErrorManager.getManager().emit_warning(message);
 	}
 
 	public void buildTables(boolean compactReduces) {
+		buildTables(compactReduces, false);
+	}
+
+	/**
+	 * Build the action and reduce-goto tables from the state machine and
+	 * minimize the action table, see ParseActionTable.minimize().
+	 *
+	 * @param compactReduces use the most frequent reduce as default action.
+	 * @param elideErrors    replace error entries by reductions where the error
+	 *                       recovery allows it.
+	 */
+	public void buildTables(boolean compactReduces, boolean elideErrors) {
 		actionTable = new ParseActionTable(this);
 		reduceTable = new ParseReduceTable(this);
 		for (LalrState lst : getLalrStates()) {
 			lst.buildTableEntries(this, actionTable, reduceTable, compactReduces);
 		}
+		actionTable.minimize(this, elideErrors);
+	}
+
+	/**
+	 * Write the state machine and the parse tables, as built by buildMachine()
+	 * and buildTables(), together with the conflicts reported meanwhile. The
+	 * items, states and symbols are written by their ids and indices, so
+	 * readMachine() can restore them for any grammar with the same symbols and
+	 * productions, whatever the code of its actions. Most items of a machine
+	 * share their lookaheads with others, so every distinct lookahead set is
+	 * written once and referred to by its number.
+	 *
+	 * @param out the stream to write to.
+	 */
+	public void writeMachine(DataOutputStream out) throws IOException {
+		Map<TerminalSet, Integer> sets = new HashMap<TerminalSet, Integer>();
+		List<TerminalSet> distinct = new ArrayList<TerminalSet>();
+		for (LalrState state : lalrStates) {
+			for (Lookaheads lookaheads : state.getItems().values()) {
+				if (!sets.containsKey(lookaheads)) {
+					sets.put(lookaheads, distinct.size());
+					distinct.add(lookaheads);
+				}
+			}
+		}
+
+		out.writeInt(MACHINE_MAGIC);
+		out.writeInt(distinct.size());
+		for (TerminalSet set : distinct)
+			writeTerminals(out, set);
+		out.writeInt(lalrStates.size());
+		for (LalrState state : lalrStates) {
+			out.writeInt(state.getItems().size());
+			for (Entry<LrItem, Lookaheads> item : state.getItems().entrySet()) {
+				out.writeInt(item.getKey().getId());
+				out.writeInt(sets.get(item.getValue()));
+			}
+		}
+		for (LalrState state : lalrStates) {
+			int count = 0;
+			for (LalrTransition trans = state.getTransitions(); trans != null; trans = trans.next)
+				count++;
+			out.writeInt(count);
+			for (LalrTransition trans = state.getTransitions(); trans != null; trans = trans.next) {
+				out.writeBoolean(trans.onSymbol.isNonTerm());
+				out.writeInt(trans.onSymbol.getIndex());
+				out.writeInt(trans.toState.getIndex());
+			}
+		}
+		actionTable.write(out);
+		out.writeInt(conflicts.size());
+		for (int i = 0; i < conflicts.size(); i++) {
+			byte[] message = conflicts.get(i).getBytes(StandardCharsets.UTF_8);
+			out.writeBoolean(conflictErrors.get(i));
+			out.writeInt(message.length);
+			out.write(message);
+		}
+	}
+
+	/**
+	 * Restore the state machine and the parse tables written by writeMachine(),
+	 * instead of building them with buildMachine() and buildTables(). The
+	 * conflicts found when they were built are reported again. Nothing is
+	 * changed if the stream does not hold a valid machine of this grammar.
+	 *
+	 * @param in the stream to read from.
+	 */
+	public void readMachine(DataInputStream in) throws IOException {
+		if (in.readInt() != MACHINE_MAGIC)
+			throw new IOException("Invalid state machine");
+		TerminalSet[] sets = new TerminalSet[in.readInt()];
+		for (int i = 0; i < sets.length; i++)
+			sets[i] = readTerminals(in);
+
+		/* the items by id, see numberItems() */
+		numberItems();
+		List<LrItem> itemsById = new ArrayList<LrItem>();
+		for (Production prod : productions) {
+			LrItem item = prod.getItem();
+			itemsById.add(item);
+			while (!item.isDotAtEnd()) {
+				item = item.getItemDotPositionShifted();
+				itemsById.add(item);
+			}
+		}
+
+		int stateCount = in.readInt();
+		List<LalrState> states = new ArrayList<LalrState>();
+		for (int s = 0; s < stateCount; s++) {
+			Map<LrItem, TerminalSet> items = new TreeMap<LrItem, TerminalSet>();
+			int itemCount = in.readInt();
+			for (int i = 0; i < itemCount; i++) {
+				LrItem item = itemsById.get(readIndex(in, itemsById.size()));
+				items.put(item, sets[readIndex(in, sets.length)]);
+			}
+			states.add(new LalrState(items, s, getArena()));
+		}
+
+		/* the transitions are prepended, so add them in reverse order */
+		ParseReduceTable reduce = new ParseReduceTable(stateCount, getNonterminalCount());
+		for (LalrState state : states) {
+			int count = in.readInt();
+			GrammarSymbol[] symbols = new GrammarSymbol[count];
+			LalrState[] targets = new LalrState[count];
+			for (int i = 0; i < count; i++) {
+				boolean nonterm = in.readBoolean();
+				symbols[i] = nonterm ? nonterminals.get(readIndex(in, nonterminals.size()))
+						: terminals.get(readIndex(in, terminals.size()));
+				targets[i] = states.get(readIndex(in, stateCount));
+			}
+			for (int i = count - 1; i >= 0; i--) {
+				state.addTransition(symbols[i], targets[i]);
+				if (symbols[i].isNonTerm())
+					reduce.getTable()[state.getIndex()][symbols[i].getIndex()] = targets[i];
+			}
+		}
+		ParseActionTable action = new ParseActionTable(stateCount, getTerminalCount());
+		action.read(in);
+
+		int reports = in.readInt();
+		List<String> messages = new ArrayList<String>();
+		BitSet errors = new BitSet();
+		for (int i = 0; i < reports; i++) {
+			if (in.readBoolean())
+				errors.set(i);
+			byte[] message = new byte[in.readInt()];
+			in.readFully(message);
+			messages.add(new String(message, StandardCharsets.UTF_8));
+		}
+
+		lalrStates.addAll(states);
+		actionTable = action;
+		reduceTable = reduce;
+		for (int i = 0; i < messages.size(); i++)
+			reportConflict(messages.get(i), errors.get(i));
+	}
+
+	private void writeTerminals(DataOutputStream out, TerminalSet set) throws IOException {
+		for (int base = 0; base < getTerminalCount(); base += 64) {
+			long word = 0;
+			for (int t = base; t < base + 64 && t < getTerminalCount(); t++)
+				if (set.contains(t))
+					word |= 1L << (t - base);
+			out.writeLong(word);
+		}
+	}
+
+	private TerminalSet readTerminals(DataInputStream in) throws IOException {
+		TerminalSet set = new TerminalSet(this);
+		for (int base = 0; base < getTerminalCount(); base += 64) {
+			long word = in.readLong();
+			for (int t = base; t < base + 64 && t < getTerminalCount(); t++)
+				if ((word & 1L << (t - base)) != 0)
+					set.add(terminals.get(t));
+		}
+		return set;
+	}
+
+	/** Read an index and check that it is below the given bound. */
+	private static int readIndex(DataInputStream in, int bound) throws IOException {
+		int index = in.readInt();
+		if (index < 0 || index >= bound)
+			throw new IOException("Invalid state machine");
+		return index;
 	}
 
 	public void checkTables() {
@@ -0,0 +1,66 @@
+package com.github.jhoenicke.javacup;
+
+import java.util.Arrays;
+
+/**
+ * The kernel of a state, i.e. the items obtained by shifting the dot of some
+ * items of a predecessor state past a symbol. It consists of these items sorted
+ * by id, together with the lookaheads of the items they were shifted from. The
+ * sorted item ids with their cached hash code identify the state in the
+ * KernelTable.
+ */
+public class Kernel {
+
+	/** The symbol of the transition into the state, null for the start state. */
+	public final GrammarSymbol symbol;
+
+	/** The kernel items, sorted by id. */
+	public final LrItem[] items;
+
+	/** The lookaheads of the items the kernel items were shifted from. */
+	public final Lookaheads[] lookaheads;
+
+	/** The ids of the kernel items, sorted. */
+	public final int[] ids;
+
+	/** The hash code of the ids. */
+	public final int hash;
+
+	/**
+	 * Create a kernel from the first count elements of the arrays, which are
+	 * sorted in place.
+	 *
+	 * @param symbol     the symbol of the transition into the state.
+	 * @param items      the kernel items, in any order.
+	 * @param lookaheads the lookaheads of the items they were shifted from.
+	 * @param count      the number of kernel items.
+	 */
+	public Kernel(GrammarSymbol symbol, LrItem[] items, Lookaheads[] lookaheads, int count) {
+		this.symbol = symbol;
+		this.items = items.length == count ? items : Arrays.copyOf(items, count);
+		this.lookaheads = lookaheads.length == count ? lookaheads : Arrays.copyOf(lookaheads, count);
+		this.ids = new int[count];
+
+		/* insertion sort: the items come in sorted runs, one per shifted symbol */
+		for (int i = 0; i < count; i++) {
+			LrItem item = this.items[i];
+			Lookaheads la = this.lookaheads[i];
+			int id = item.getId();
+			int j = i;
+			while (j > 0 && ids[j - 1] > id) {
+				ids[j] = ids[j - 1];
+				this.items[j] = this.items[j - 1];
+				this.lookaheads[j] = this.lookaheads[j - 1];
+				j--;
+			}
+			ids[j] = id;
+			this.items[j] = item;
+			this.lookaheads[j] = la;
+		}
+
+		/* spread the bits, the table masks the low bits of the hash */
+		int h = Arrays.hashCode(ids) * 0x9e3779b9;
+		this.hash = h ^ (h >>> 16);
+	}
+
+}
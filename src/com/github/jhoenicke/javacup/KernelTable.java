@@ -0,0 +1,59 @@
+package com.github.jhoenicke.javacup;
+
+import java.util.Arrays;
+
+/**
+ * Hash table to find states by their kernels. It uses open addressing with
+ * linear probing; the keys are the sorted item ids of the kernels, stored with
+ * their hash codes, so a lookup only compares int arrays. Lookups may run
+ * concurrently as long as no state is added.
+ */
+public class KernelTable {
+
+	private int[][] keys = new int[64][];
+	private int[] hashes = new int[64];
+	private LalrState[] states = new LalrState[64];
+	private int size = 0;
+
+	/** Return the state with the given kernel, or null if there is none. */
+	public LalrState get(Kernel kernel) {
+		int mask = keys.length - 1;
+		for (int i = kernel.hash & mask; keys[i] != null; i = (i + 1) & mask) {
+			if (hashes[i] == kernel.hash && Arrays.equals(keys[i], kernel.ids))
+				return states[i];
+		}
+		return null;
+	}
+
+	/** Add a state under its kernel, which must not be in the table yet. */
+	public void put(Kernel kernel, LalrState state) {
+		if (2 * (size + 1) > keys.length)
+			resize();
+		insert(kernel.ids, kernel.hash, state);
+		size++;
+	}
+
+	private void insert(int[] key, int hash, LalrState state) {
+		int mask = keys.length - 1;
+		int i = hash & mask;
+		while (keys[i] != null)
+			i = (i + 1) & mask;
+		keys[i] = key;
+		hashes[i] = hash;
+		states[i] = state;
+	}
+
+	private void resize() {
+		int[][] oldKeys = keys;
+		int[] oldHashes = hashes;
+		LalrState[] oldStates = states;
+		keys = new int[2 * oldKeys.length][];
+		hashes = new int[keys.length];
+		states = new LalrState[keys.length];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != null)
+				insert(oldKeys[i], oldHashes[i], oldStates[i]);
+		}
+	}
+
+}
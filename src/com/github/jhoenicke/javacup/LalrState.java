@@ -74,8 +74,9 @@ public class LalrState {
 	 * 
 	 * @param kernel the set of items that makes up the kernel of this state.
 	 * @param index  a unique index that is given to this state.
+	 * @param arena  the arena holding the lookaheads of the items.
 	 */
-	public LalrState(Map<LrItem, TerminalSet> kernel, int index) {
+	public LalrState(Map<LrItem, ? extends TerminalSet> kernel, int index, TerminalArena arena) {
 		/* don't allow null or duplicate item sets */
 		if (kernel == null)
 			throw new AssertionError("Attempt to construct an LALR state from a null item set");
@@ -85,8 +86,23 @@ public class LalrState {
 
 		/* store the items */
 		this.items = new TreeMap<LrItem, Lookaheads>();
-		for (Entry<LrItem, TerminalSet> entry : kernel.entrySet())
-			items.put(entry.getKey(), new Lookaheads(entry.getValue()));
+		for (Entry<LrItem, ? extends TerminalSet> entry : kernel.entrySet())
+			items.put(entry.getKey(), new Lookaheads(entry.getValue(), arena));
+	}
+
+	/**
+	 * Constructor for building a state from a kernel. The kernel items start
+	 * with (a copy of) the lookaheads of the items they were shifted from.
+	 * 
+	 * @param kernel the kernel of this state.
+	 * @param index  a unique index that is given to this state.
+	 * @param arena  the arena holding the lookaheads of the items.
+	 */
+	public LalrState(Kernel kernel, int index, TerminalArena arena) {
+		this.index = index;
+		this.items = new TreeMap<LrItem, Lookaheads>();
+		for (int i = 0; i < kernel.items.length; i++)
+			items.put(kernel.items[i], new Lookaheads(kernel.lookaheads[i], arena));
 	}
 
 	public Map<LrItem, Lookaheads> getItems() {
@@ -97,6 +113,11 @@ public class LalrState {
 		return index;
 	}
 
+	/** Return the first of the transitions out of this state. */
+	public LalrTransition getTransitions() {
+		return transitions;
+	}
+
 	/**
 	 * Compute the closure of the set using the LALR closure rules. Basically for
 	 * every item of the form:
@@ -118,9 +139,12 @@ public class LalrState {
 	 * merged" and this is where the merger is). This routine assumes that
 	 * nullability and first sets have been computed for all productions before it
 	 * is called.
+	 *
+	 * @param arena the arena holding the lookaheads of the new items.
 	 */
-	public void computeClosure(Grammar grammar) {
-		TerminalSet newLookaheads;
+	public void computeClosure(Grammar grammar, TerminalArena arena) {
+		/* the lookaheads of the items of one non terminal, reused for all of them */
+		TerminalSet newLookaheads = new TerminalSet(grammar);
 		boolean needPropagation;
 
 		/* each current element needs to be considered */
@@ -137,7 +161,8 @@ public class LalrState {
 			if (nt != null) {
 				LrItem nextitem = item.getItemDotPositionShifted();
 				/* create the lookahead set based on first symbol after dot */
-				newLookaheads = nextitem.calculateLookahead(grammar);
+				newLookaheads.clear();
+				nextitem.calculateLookahead(grammar, newLookaheads);
 
 				/* are we going to need to propagate our lookahead to new item */
 				needPropagation = nextitem.isNullable();
@@ -153,7 +178,7 @@ public class LalrState {
 						newLa = items.get(newItem);
 						newLa.add(newLookaheads);
 					} else {
-						newLa = new Lookaheads(newLookaheads);
+						newLa = new Lookaheads(newLookaheads, arena);
 						items.put(newItem, newLa);
 						/* that may need further closure, consider it also */
 						consider.push(newItem);
@@ -167,7 +192,49 @@ public class LalrState {
 		}
 	}
 
-	public void computeSuccessors(Grammar grammar) {
+	/**
+	 * Compute the LR(0) closure of the set: like computeClosure(), but all items
+	 * get empty lookaheads and no propagation links. The lookaheads are filled in
+	 * after the machine is built, see LookaheadRelations.
+	 *
+	 * @param arena the arena holding the lookaheads of the new items.
+	 */
+	public void computeCoreClosure(Grammar grammar, TerminalArena arena) {
+		TerminalSet empty = new TerminalSet(grammar);
+
+		/* each current element needs to be considered */
+		Stack<LrItem> consider = new Stack<LrItem>();
+		consider.addAll(items.keySet());
+
+		/* repeat this until there is nothing else to consider */
+		while (consider.size() > 0) {
+			/* do we have a dot before a non terminal */
+			NonTerminal nt = consider.pop().getNonTerminalAfterDotPosition();
+			if (nt != null) {
+				/* create items for each production of that non term */
+				for (Production prod : nt.getProductions()) {
+					LrItem newItem = prod.getItem();
+					if (!items.containsKey(newItem)) {
+						items.put(newItem, new Lookaheads(empty, arena));
+						consider.push(newItem);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compute the kernels of the successor states. For each symbol that appears
+	 * after a dot, the kernel consists of the items with the dot shifted past that
+	 * symbol, together with the lookaheads of the items they were shifted from.
+	 * Proxy productions are skipped: a transition under a symbol also shifts the
+	 * items waiting for the left hand side of a proxy production of that symbol.
+	 * This does not modify any state, so it may run concurrently for distinct
+	 * states.
+	 *
+	 * @return the successor kernels ordered by their transition symbol.
+	 */
+	public List<Kernel> computeSuccessorKernels() {
 		/* gather up all the symbols that appear before dots */
 		Map<GrammarSymbol, List<LrItem>> outgoing = new TreeMap<>();
 		for (LrItem itm : items.keySet()) {
@@ -180,59 +247,108 @@ public class LalrState {
 			}
 		}
 
-		/* now create a transition out for each individual symbol */
+		/* now create a kernel for each individual symbol */
+		List<Kernel> kernels = new ArrayList<Kernel>(outgoing.size());
+		ArrayList<GrammarSymbol> proxySymbols = new ArrayList<GrammarSymbol>();
 		for (GrammarSymbol out : outgoing.keySet()) {
-			/*
-			 * gather up shifted versions of all the items that have this symbol before the
-			 * dot
-			 */
-			Map<LrItem, TerminalSet> new_items = new TreeMap<>();
-
 			/* find proxy symbols on the way */
-			ArrayList<GrammarSymbol> proxySymbols = new ArrayList<GrammarSymbol>();
+			proxySymbols.clear();
 			proxySymbols.add(out);
+			int size = 0;
 			for (int i = 0; i < proxySymbols.size(); i++) {
 				GrammarSymbol symbol = proxySymbols.get(i);
 				for (LrItem item : outgoing.get(symbol)) {
-					/* add to the kernel of the new state */
 					if (item.getProduction().isProxy()) {
 						GrammarSymbol proxy = item.getProduction().getLhs();
 						if (!proxySymbols.contains(proxy)) {
 							proxySymbols.add(proxy);
 						}
 					} else {
-						new_items.put(item.getItemDotPositionShifted(), getItems().get(item));
+						size++;
 					}
 				}
 			}
 
-			/* create/get successor state */
-			LalrState newstate = grammar.getLalrState(new_items);
+			/*
+			 * gather up shifted versions of all the items that have these symbols before the
+			 * dot
+			 */
+			LrItem[] new_items = new LrItem[size];
+			Lookaheads[] lookaheads = new Lookaheads[size];
+			int count = 0;
 			for (GrammarSymbol symbol : proxySymbols) {
 				for (LrItem item : outgoing.get(symbol)) {
-					/* ... remember that item has propagate link to it */
+					/* add to the kernel of the new state */
 					if (!item.getProduction().isProxy()) {
-						getItems().get(item).addListener(newstate.getItems().get(item.getItemDotPositionShifted()));
+						new_items[count] = item.getItemDotPositionShifted();
+						lookaheads[count] = items.get(item);
+						count++;
 					}
 				}
 			}
+			kernels.add(new Kernel(out, new_items, lookaheads, count));
+		}
+		return kernels;
+	}
+
+	public void computeSuccessors(Grammar grammar) {
+		for (Kernel kernel : computeSuccessorKernels()) {
+			/* create/get successor state */
+			LalrState newstate = grammar.getLalrState(kernel);
+			addTransition(newstate, kernel, true);
+		}
+	}
 
-			/* add a transition from current state to that state */
-			transitions = new LalrTransition(out, newstate, transitions);
+	/**
+	 * Create the transitions of the LR(0) machine out of this state, without
+	 * lookaheads or propagation links.
+	 */
+	public void computeCoreSuccessors(Grammar grammar) {
+		for (Kernel kernel : computeSuccessorKernels()) {
+			/* create/get successor state */
+			LalrState newstate = grammar.getLalrCore(kernel);
+			addTransition(newstate, kernel, false);
 		}
 	}
 
+	/**
+	 * Add a transition to a successor state and optionally link the lookaheads
+	 * of the shifted items to the kernel items of that state.
+	 *
+	 * @param to     the successor state.
+	 * @param kernel the successor kernel as computed by computeSuccessorKernels().
+	 * @param link   true to add the propagation links.
+	 */
+	void addTransition(LalrState to, Kernel kernel, boolean link) {
+		/* ... remember that item has propagate link to it */
+		if (link) {
+			for (int i = 0; i < kernel.items.length; i++)
+				kernel.lookaheads[i].addListener(to.items.get(kernel.items[i]));
+		}
+
+		/* add a transition from current state to that state */
+		transitions = new LalrTransition(kernel.symbol, to, transitions);
+	}
+
+	/**
+	 * Add a transition to a successor state, without touching the lookaheads,
+	 * when the machine is read back by Grammar.readMachine().
+	 */
+	void addTransition(GrammarSymbol symbol, LalrState to) {
+		transitions = new LalrTransition(symbol, to, transitions);
+	}
+
 	/**
 	 * Propagate lookahead sets out of this state. This recursively propagates to
 	 * all items that have propagation links from some item in this state.
 	 */
-	public void propagateLookaheads(Map<LrItem, TerminalSet> new_kernel) {
+	public void propagateLookaheads(Kernel new_kernel) {
 		/*
 		 * Add the new lookaheads to the existing ones. This will propagate the
 		 * lookaheads to all dependent items.
 		 */
-		for (Entry<LrItem, TerminalSet> entry : new_kernel.entrySet()) {
-			items.get(entry.getKey()).add(entry.getValue());
+		for (int i = 0; i < new_kernel.items.length; i++) {
+			items.get(new_kernel.items[i]).add(new_kernel.lookaheads[i]);
 		}
 	}
 
@@ -0,0 +1,271 @@
+package com.github.jhoenicke.javacup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Computes the lookaheads of an LR(0) machine with the relations of DeRemer
+ * and Pennello (Efficient Computation of LALR(1) Look-Ahead Sets, TOPLAS 4(4),
+ * 1982), instead of propagating them through Lookaheads listeners while the
+ * machine is built.
+ * <p>
+ * For every transition (p, A) under a non terminal the set of terminals that
+ * may follow A in state p is
+ *
+ * <pre>
+ *    Follow(p, A) = Read(p, A) + U { Follow(p', B) | (p, A) includes (p', B) }
+ * </pre>
+ *
+ * Read(p, A) is the union of first(gamma) over the items [B ::= beta * A gamma]
+ * in p. This is what the reads relation of DeRemer and Pennello computes; since
+ * the first sets are already known it is read off the items directly.
+ * (p, A) includes (p', B) if p contains an item [B ::= beta * A gamma] with
+ * nullable gamma, and p is reached from p' by shifting beta. The equations are
+ * solved by the digraph algorithm, which collapses the strongly connected
+ * components of includes, so every set union is done once per edge.
+ * <p>
+ * The lookaheads of an item [B ::= beta * gamma] in a state q are the union of
+ * Follow(p', B) over the states p' it looks back to, i.e. the states q is
+ * reached from by shifting beta. As the machine skips proxy productions (see
+ * LalrState.computeSuccessorKernels()), an item may be shifted by several
+ * transitions out of one state; the shift paths follow all of them. The result
+ * is the same as the lookaheads propagated by LalrState.computeClosure() and
+ * Grammar.getLalrState() for every item, not only the reduce items.
+ */
+public class LookaheadRelations {
+
+	private final Grammar grammar;
+	private final LalrState[] states;
+
+	/** The non terminals with a transition out of each state, sorted. */
+	private final int[][] gotoSymbols;
+	/** The number of the first non terminal transition of each state. */
+	private final int[] gotoBase;
+
+	/** The transitions a non terminal transition includes. */
+	private IntList[] includes;
+	/** Follow(p, A) for each non terminal transition. */
+	private TerminalSet[] follow;
+
+	/** For each state, the successor states that each item is shifted into. */
+	private final List<Map<LrItem, List<LalrState>>> successors;
+	/** For each state, the transitions each kernel item looks back to. */
+	private final List<Map<LrItem, IntList>> lookbacks;
+
+	/** A growable list of ints. */
+	private static class IntList {
+		int[] data = new int[4];
+		int size;
+
+		void add(int value) {
+			if (size == data.length)
+				data = Arrays.copyOf(data, 2 * size);
+			data[size++] = value;
+		}
+	}
+
+	public LookaheadRelations(Grammar grammar) {
+		this.grammar = grammar;
+		this.states = grammar.getLalrStates().toArray(new LalrState[0]);
+		this.gotoSymbols = new int[states.length][];
+		this.gotoBase = new int[states.length + 1];
+		this.successors = new ArrayList<Map<LrItem, List<LalrState>>>(states.length);
+		this.lookbacks = new ArrayList<Map<LrItem, IntList>>(states.length);
+
+		/* number the non terminal transitions */
+		int[] symbols = new int[grammar.getNonterminalCount()];
+		for (int s = 0; s < states.length; s++) {
+			int count = 0;
+			for (LalrTransition trans = states[s].getTransitions(); trans != null; trans = trans.next) {
+				if (trans.onSymbol.isNonTerm())
+					symbols[count++] = trans.onSymbol.getIndex();
+			}
+			gotoSymbols[s] = Arrays.copyOf(symbols, count);
+			Arrays.sort(gotoSymbols[s]);
+			gotoBase[s + 1] = gotoBase[s] + count;
+			successors.add(new IdentityHashMap<LrItem, List<LalrState>>());
+			lookbacks.add(new IdentityHashMap<LrItem, IntList>());
+		}
+
+		/* record which transitions shift each item */
+		for (int s = 0; s < states.length; s++) {
+			Map<LrItem, List<LalrState>> shifts = successors.get(s);
+			for (LalrTransition trans = states[s].getTransitions(); trans != null; trans = trans.next) {
+				for (LrItem item : trans.toState.getItems().keySet()) {
+					/* the items with the dot not at the start form the kernel */
+					if (item.getDotPosition() == 0)
+						continue;
+					LrItem source = unshift(item);
+					List<LalrState> targets = shifts.get(source);
+					if (targets == null) {
+						targets = new ArrayList<LalrState>(2);
+						shifts.put(source, targets);
+					}
+					targets.add(trans.toState);
+				}
+			}
+		}
+	}
+
+	/** Return the item with the dot one position to the left. */
+	private static LrItem unshift(LrItem item) {
+		LrItem result = item.getProduction().getItem();
+		while (result.getDotPosition() + 1 < item.getDotPosition())
+			result = result.getItemDotPositionShifted();
+		return result;
+	}
+
+	/** Return the number of the transition under a non terminal out of a state. */
+	private int gotoIndex(int state, NonTerminal nt) {
+		return gotoBase[state] + Arrays.binarySearch(gotoSymbols[state], nt.getIndex());
+	}
+
+	/**
+	 * Compute the lookaheads of all items of all states and add them to the
+	 * items' Lookaheads objects.
+	 */
+	public void computeLookaheads() {
+		int count = gotoBase[states.length];
+		includes = new IntList[count];
+		follow = new TerminalSet[count];
+		TerminalSet empty = new TerminalSet(grammar);
+		TerminalArena arena = new TerminalArena(grammar);
+		for (int x = 0; x < count; x++) {
+			includes[x] = new IntList();
+			follow[x] = new TerminalSet(empty, arena);
+		}
+
+		/* Read(p, A) */
+		for (int s = 0; s < states.length; s++) {
+			for (LrItem item : states[s].getItems().keySet()) {
+				NonTerminal nt = item.getNonTerminalAfterDotPosition();
+				if (nt != null)
+					item.getItemDotPositionShifted().calculateLookahead(grammar, follow[gotoIndex(s, nt)]);
+			}
+		}
+
+		/* walk the shift paths of all productions for includes and lookback */
+		int[] visited = new int[states.length];
+		int stamp = 0;
+		for (int s = 0; s < states.length; s++) {
+			for (LrItem item : states[s].getItems().keySet()) {
+				if (item.getDotPosition() != 0 || item.getProduction() == grammar.getStartProduction())
+					continue;
+				int origin = gotoIndex(s, item.getProduction().getLhs());
+				List<LalrState> frontier = new ArrayList<LalrState>(1);
+				frontier.add(states[s]);
+				while (!item.isDotAtEnd()) {
+					LrItem next = item.getItemDotPositionShifted();
+					NonTerminal nt = item.getNonTerminalAfterDotPosition();
+					if (nt != null && next.isNullable()) {
+						for (LalrState st : frontier)
+							includes[gotoIndex(st.getIndex(), nt)].add(origin);
+					}
+					/* proxy productions are never shifted */
+					if (item.getProduction().isProxy())
+						break;
+					stamp++;
+					List<LalrState> shifted = new ArrayList<LalrState>(frontier.size());
+					for (LalrState st : frontier) {
+						for (LalrState target : successors.get(st.getIndex()).get(item)) {
+							if (visited[target.getIndex()] != stamp) {
+								visited[target.getIndex()] = stamp;
+								shifted.add(target);
+								lookback(target, next).add(origin);
+							}
+						}
+					}
+					frontier = shifted;
+					item = next;
+				}
+			}
+		}
+
+		digraph();
+
+		/* finally the lookaheads of the items */
+		for (int s = 0; s < states.length; s++) {
+			for (Entry<LrItem, Lookaheads> entry : states[s].getItems().entrySet()) {
+				LrItem item = entry.getKey();
+				Lookaheads lookaheads = entry.getValue();
+				if (item.getProduction() == grammar.getStartProduction()) {
+					lookaheads.add(Terminal.EOF);
+				} else if (item.getDotPosition() == 0) {
+					lookaheads.add(follow[gotoIndex(s, item.getProduction().getLhs())]);
+				} else {
+					IntList origins = lookbacks.get(s).get(item);
+					for (int i = 0; i < origins.size; i++)
+						lookaheads.add(follow[origins.data[i]]);
+				}
+			}
+		}
+	}
+
+	/** Return the lookback list of a kernel item, creating it if necessary. */
+	private IntList lookback(LalrState state, LrItem item) {
+		Map<LrItem, IntList> lookback = lookbacks.get(state.getIndex());
+		IntList origins = lookback.get(item);
+		if (origins == null) {
+			origins = new IntList();
+			lookback.put(item, origins);
+		}
+		return origins;
+	}
+
+	/**
+	 * The digraph algorithm: close follow under includes. It is Tarjan's
+	 * strongly connected components algorithm, with an explicit stack instead of
+	 * recursion; all transitions of a component get the same set.
+	 */
+	private void digraph() {
+		int count = follow.length;
+		int[] depth = new int[count];
+		int[] stack = new int[count];
+		int[] calls = new int[count];
+		int[] edge = new int[count];
+		int sp = 0;
+		for (int root = 0; root < count; root++) {
+			if (depth[root] != 0)
+				continue;
+			int cp = 0;
+			stack[sp++] = root;
+			depth[root] = sp;
+			calls[cp++] = root;
+			while (cp > 0) {
+				int x = calls[cp - 1];
+				if (edge[x] < includes[x].size) {
+					int y = includes[x].data[edge[x]++];
+					if (depth[y] == 0) {
+						stack[sp++] = y;
+						depth[y] = sp;
+						calls[cp++] = y;
+					} else {
+						depth[x] = Math.min(depth[x], depth[y]);
+						follow[x].add(follow[y]);
+					}
+					continue;
+				}
+				cp--;
+				if (sp > 0 && stack[depth[x] - 1] == x) {
+					/* x is the root of a component: pop it */
+					int top;
+					do {
+						top = stack[--sp];
+						depth[top] = Integer.MAX_VALUE;
+						follow[top] = follow[x];
+					} while (top != x);
+				}
+				if (cp > 0) {
+					int parent = calls[cp - 1];
+					depth[parent] = Math.min(depth[parent], depth[x]);
+					follow[parent].add(follow[x]);
+				}
+			}
+		}
+	}
+
+}
@@ -1,7 +1,7 @@
 package com.github.jhoenicke.javacup;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Stack;
 
 /**
@@ -16,15 +16,24 @@ import java.util.Stack;
  */
 public class Lookaheads extends TerminalSet {
 	
-	private List<Lookaheads> listeners = null;
+	private final static Lookaheads[] NO_LISTENERS = new Lookaheads[0];
+
+	/** The listeners, in the first listenerCount elements. */
+	private Lookaheads[] listeners = NO_LISTENERS;
+	private int listenerCount = 0;
 
 	public Lookaheads(TerminalSet t) {
 		super(t);
 	}
 
-	public List<Lookaheads> getListeners() {
-		if (listeners == null) listeners = new ArrayList<>();
-		return listeners;
+	/**
+	 * Create a lookaheads object holding its terminals in an arena.
+	 * 
+	 * @param t     the initial lookaheads.
+	 * @param arena the arena holding the terminals.
+	 */
+	public Lookaheads(TerminalSet t, TerminalArena arena) {
+		super(t, arena);
 	}
 
 	/**
@@ -34,13 +43,21 @@ public class Lookaheads extends TerminalSet {
 	 * @param child the lookaheads object that is dependent on this.
 	 */
 	public void addListener(Lookaheads child) {
-		getListeners().add(child);
+		if (listenerCount == listeners.length)
+			listeners = Arrays.copyOf(listeners, Math.max(2, 2 * listenerCount));
+		listeners[listenerCount++] = child;
 	}
 
 	private boolean addWithoutPropagation(TerminalSet new_lookaheads) {
 		return super.add(new_lookaheads);
 	}
 
+	/** Push the listeners on a work stack. */
+	private void pushListeners(Stack<Lookaheads> work) {
+		for (int i = 0; i < listenerCount; i++)
+			work.push(listeners[i]);
+	}
+
 	/**
 	 * Adds new lookaheads. This will also propagate the lookaheads to all objects
 	 * added by add_propagation().
@@ -50,15 +67,37 @@ public class Lookaheads extends TerminalSet {
 	public boolean add(TerminalSet newLookaheads) {
 		if (!super.add(newLookaheads))
 			return false;
+		if (listenerCount == 0)
+			return true;
 
 		Stack<Lookaheads> work = new Stack<>();
-		work.addAll(getListeners());
+		pushListeners(work);
 		while (!work.isEmpty()) {
 			Lookaheads la = work.pop();
 			if (la.addWithoutPropagation(newLookaheads)) {
-				work.addAll(la.getListeners());
+				la.pushListeners(work);
 			}
 		}
 		return true;
 	}
+
+	/**
+	 * Propagate the lookaheads of the given objects to their listeners, and so
+	 * on, until no set changes anymore. This is needed when listeners were added
+	 * without propagating the lookaheads that were already present.
+	 * 
+	 * @param lookaheads the objects whose lookaheads need to be propagated.
+	 */
+	public static void propagateAll(Collection<Lookaheads> lookaheads) {
+		Stack<Lookaheads> work = new Stack<>();
+		work.addAll(lookaheads);
+		while (!work.isEmpty()) {
+			Lookaheads la = work.pop();
+			for (int i = 0; i < la.listenerCount; i++) {
+				Lookaheads child = la.listeners[i];
+				if (child.addWithoutPropagation(la))
+					work.push(child);
+			}
+		}
+	}
 }
@@ -69,6 +69,15 @@ public class LrItem implements Comparable<LrItem> {
 		return dotPosition;
 	}
 
+	/**
+	 * Return the id of this item. The items of all productions are numbered
+	 * densely in production order, so ids compare like the items do. Only valid
+	 * after Grammar.numberItems().
+	 */
+	public int getId() {
+		return production.getItemBase() + dotPosition;
+	}
+
 	/** Is the dot at the end of the production? */
 	public final boolean isDotAtEnd() {
 		return dotPosition >= production.getRhsSize();
@@ -131,7 +140,17 @@ public class LrItem implements Comparable<LrItem> {
 	public TerminalSet calculateLookahead(Grammar grammar) {
 		/* start with an empty result */
 		TerminalSet result = new TerminalSet(grammar);
+		calculateLookahead(grammar, result);
+		return result;
+	}
 
+	/**
+	 * Add the lookahead representing symbols that could appear after the symbol
+	 * that the dot is currently in front of to a set, see calculateLookahead().
+	 *
+	 * @param result the set to add the lookahead to.
+	 */
+	public void calculateLookahead(Grammar grammar, TerminalSet result) {
 		/* consider all nullable symbols after the one to the right of the dot */
 		for (int pos = dotPosition; pos < production.getRhsSize(); pos++) {
 			GrammarSymbol sym = production.getRhsAt(pos).getSymbol();
@@ -143,14 +162,13 @@ public class LrItem implements Comparable<LrItem> {
 			} else {
 				NonTerminal nt = (NonTerminal) sym;
 				/* otherwise add in first set of the non terminal */
-				result.add(nt.getFirsts());
+				grammar.addFirsts(result, nt);
 
 				/* if its nullable we continue adding, if not, we are done */
 				if (!nt.isNullable())
 					break;
 			}
 		}
-		return result;
 	}
 
 	/**
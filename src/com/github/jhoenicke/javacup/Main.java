@@ -1,12 +1,18 @@
 package com.github.jhoenicke.javacup;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.github.jhoenicke.javacup.runtime.ComplexSymbolFactory;
 
@@ -31,6 +37,9 @@ import com.github.jhoenicke.javacup.runtime.ComplexSymbolFactory;
  * <dd>specify package generated classes go in [default none]
  * <dt>-parser name
  * <dd>specify parser class name [default "parser"]
+ * <dt>-cache dir
+ * <dd>copy the generated files of an unchanged grammar from a cache directory,
+ * and reload the state machine of a grammar whose productions did not change
  * <dt>-symbols name
  * <dd>specify name for symbol constant class [default "Sym"]
  * <dt>-terminals name
@@ -47,6 +56,28 @@ import com.github.jhoenicke.javacup.runtime.ComplexSymbolFactory;
  * <dd>number of warning conflicts expected/allowed [default 0]
  * <dt>-compact_red
  * <dd>compact tables by defaulting to most frequent reduce
+ * <dt>-dense_tables
+ * <dd>spend more time packing the parse tables into less space
+ * <dt>-elide_errors
+ * <dd>reduce instead of reporting errors in states that can't recover from them;
+ * like the default reduce of -compact_red, this runs the actions of the
+ * reduces before the error is reported, e.g. the calculator prints 1 for the
+ * input <code>1 2 3</code> before it reports the error
+ * <dt>-split_actions
+ * <dd>generate one method per action instead of one big switch
+ * <dt>-binary_tables
+ * <dd>put the parse tables in a binary resource next to the parser class
+ * <dt>-primitive_stack
+ * <dd>generate a parser running on the primitive int array parse stack
+ * <dt>-specialized_parse
+ * <dd>generate a parse loop specialized for the grammar (implies -primitive_stack)
+ * <dt>-direct_parse
+ * <dd>compile the parse tables into the parse loop unless the grammar is too
+ * large (implies -primitive_stack)
+ * <dt>-parallel
+ * <dd>build the state machine in parallel on all available processors
+ * <dt>-lookahead_relations
+ * <dd>compute the lookaheads with the DeRemer-Pennello relations
  * <dt>-nowarn
  * <dd>don't warn about useless productions, etc.
  * <dt>-nosummary
@@ -111,6 +142,25 @@ public class Main {
 
 		timer.popTimer(Timer.TIMESTAMP.preliminary_time);
 
+		/* copy the files of an unchanged grammar out of the cache */
+		String cache_key = null;
+		if (options.cache_dir != null) {
+			cache = new GeneratorCache(new File(options.cache_dir));
+			byte[] spec = read_input();
+			if (spec == null)
+				return 1;
+			cache_key = GeneratorCache.key(spec, options);
+			List<File> restored = cache.restore(cache_key, destination());
+			if (restored != null) {
+				for (File file : restored)
+					ErrorManager.getManager().emit_info("Restore file : " + file.getPath());
+				ErrorManager.getManager().emit_info("Generation cache hit for " + input_name + " (" + cache_key + ")");
+				return 0;
+			}
+			ErrorManager.getManager().emit_info("Generation cache miss for " + input_name + " (" + cache_key + ")");
+			input_file = new ByteArrayInputStream(spec);
+		}
+
 		/* parse spec into internal data structures */
 		timer.pushTimer();
 		if (options.print_progress)
@@ -170,6 +220,16 @@ public class Main {
 			emit_dumps(grammar);
 		timer.popTimer(Timer.TIMESTAMP.dump_time);
 
+		/* keep the files of a successful run in the cache */
+		if (cache != null && did_output && ErrorManager.getManager().getFatalCount() == 0
+				&& ErrorManager.getManager().getErrorCount() == 0) {
+			try {
+				cache.store(cache_key, destination(), generated);
+			} catch (IOException e) {
+				ErrorManager.getManager().emit_warning("Can't store generated files in the cache: " + e.getMessage());
+			}
+		}
+
 		timer.popTimer(Timer.TIMESTAMP.final_time);
 		/* produce a summary if desired */
 		if (!options.no_summary)
@@ -195,6 +255,8 @@ public class Main {
 				+ "    -out name  	  specify an output filename [default System.out]\n"
 				+ "    -package name  specify package generated classes go in [default none]\n"
 				+ "    -destdir name  specify the destination directory, to store the generated files in\n"
+				+ "    -cache dir     copy the generated files of an unchanged grammar from a cache directory,\n"
+				+ "                   and reload the state machine of a grammar whose productions did not change\n"
 				+ "    -parser name   specify parser class name [default \"parser\"]\n"
 				+ "    -typearg args  specify type arguments for parser class\n"
 				+ "    -symbols name  specify name for symbol constant class [default \"sym\"]\n"
@@ -205,6 +267,16 @@ public class Main {
 				+ "    -nonterms      put non terminals in symbol constant class\n"
 				+ "    -expect #      number of conflicts expected/allowed [default 0]\n"
 				+ "    -compact_red   compact tables by defaulting to most frequent reduce\n"
+				+ "    -dense_tables  spend more time packing the parse tables into less space\n"
+				+ "    -elide_errors  reduce instead of reporting errors in states that can't recover from them,\n"
+				+ "                   so actions may run before a syntax error is reported\n"
+				+ "    -binary_tables put the parse tables in a binary resource next to the parser class\n"
+				+ "    -primitive_stack  run the parser on a primitive int array parse stack\n"
+				+ "    -specialized_parse  generate a parse loop specialized for the grammar\n"
+				+ "    -direct_parse  compile the parse tables into code for small grammars\n"
+				+ "    -split_actions generate one method per action instead of one big switch\n"
+				+ "    -parallel      build the state machine on all available processors\n"
+				+ "    -lookahead_relations  compute the lookaheads with the DeRemer-Pennello relations\n"
 				+ "    -newpositions  don't generate old style access for left and right token\n"
 				+ "    -nowarn        don't warn about useless productions, etc.\n"
 				+ "    -nosummary     don't print the usual summary of parse states, etc.\n"
@@ -235,7 +307,8 @@ public class Main {
 			/* try to get the various options */
 			if (option.equals("-package") || option.equals("-destdir") || option.equals("-parser")
 					|| option.equals("-symbols") || option.equals("-terminals") || option.equals("-nonterminals")
-					|| option.equals("-typearg") || option.equals("-expect") || option.equals("-out")) {
+					|| option.equals("-typearg") || option.equals("-expect") || option.equals("-out")
+					|| option.equals("-cache")) {
 				/* must have an arg */
 				if (++i >= len || argv[i].startsWith("-") || argv[i].endsWith(".cup"))
 					ErrorManager.getManager().emit_fatal(option + " must have an argument");
@@ -257,6 +330,7 @@ public class Main {
 				/* use input from file. */
 				try {
 					input_file = new FileInputStream(argv[i]);
+					input_name = argv[i];
 				} catch (FileNotFoundException e) {
 					ErrorManager.getManager().emit_fatal("Unable to open \"" + argv[i] + "\" for input");
 					usage();
@@ -280,6 +354,32 @@ public class Main {
 	/** Input file. This defaults to System.in. */
 	private InputStream input_file = System.in;
 
+	/** Name of the input file for messages. */
+	private String input_name = "standard input";
+
+	/** The files written by this run. */
+	private final List<File> generated = new ArrayList<File>();
+
+	/** The cache of generated files and state machines, or null. */
+	private GeneratorCache cache = null;
+
+	/** Read the whole grammar specification, or return null if that fails. */
+	private byte[] read_input() {
+		try {
+			ByteArrayOutputStream spec = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int len;
+			while ((len = input_file.read(buffer)) > 0)
+				spec.write(buffer, 0, len);
+			if (input_file != System.in)
+				input_file.close();
+			return spec.toByteArray();
+		} catch (IOException e) {
+			ErrorManager.getManager().emit_fatal("Can't read " + input_name + ": " + e.getMessage());
+			return null;
+		}
+	}
+
 	/**
 	 * Parse the grammar specification from standard input. This produces sets of
 	 * terminal, non-terminals, and productions which can be accessed via variables
@@ -391,17 +491,36 @@ public class Main {
 		timer.popTimer(Timer.TIMESTAMP.first_time);
 
 		timer.pushTimer();
+		/* reload the machine and tables of a grammar with the same productions */
+		String machine_key = null;
+		boolean reloaded = false;
+		if (cache != null) {
+			machine_key = GeneratorCache.machineKey(grammar, options);
+			reloaded = restore_machine(grammar, machine_key);
+		}
+
 		/* build the LR viable prefix recognition machine */
-		if (options.opt_do_debug || options.print_progress)
-			ErrorManager.getManager().emit_info("  Building state machine...");
-		grammar.buildMachine();
+		if (!reloaded) {
+			if (options.opt_do_debug || options.print_progress)
+				ErrorManager.getManager().emit_info("  Building state machine...");
+			grammar.buildMachine(options.opt_parallel, options.opt_lookahead_relations);
+		}
 		timer.popTimer(Timer.TIMESTAMP.machine_time);
 
 		timer.pushTimer();
 		/* build the LR parser action and reduce-goto tables */
-		if (options.opt_do_debug || options.print_progress)
-			ErrorManager.getManager().emit_info("  Filling in tables...");
-		grammar.buildTables(options.opt_compact_red);
+		if (!reloaded) {
+			if (options.opt_do_debug || options.print_progress)
+				ErrorManager.getManager().emit_info("  Filling in tables...");
+			grammar.buildTables(options.opt_compact_red, options.opt_elide_errors);
+			if (cache != null) {
+				try {
+					cache.storeMachine(machine_key, grammar);
+				} catch (IOException e) {
+					ErrorManager.getManager().emit_warning("Can't store state machine in the cache: " + e.getMessage());
+				}
+			}
+		}
 		timer.popTimer(Timer.TIMESTAMP.table_time);
 
 		timer.pushTimer();
@@ -421,9 +540,32 @@ public class Main {
 		}
 	}
 
+	/**
+	 * Restore the state machine and parse tables of the grammar from the cache.
+	 *
+	 * @return true if they were restored, false if they must be built.
+	 */
+	private boolean restore_machine(Grammar grammar, String machine_key) {
+		try {
+			if (cache.restoreMachine(machine_key, grammar)) {
+				ErrorManager.getManager().emit_info("State machine cache hit for " + input_name + " (" + machine_key + ")");
+				return true;
+			}
+		} catch (IOException e) {
+			ErrorManager.getManager().emit_warning("Can't read state machine from the cache: " + e.getMessage());
+		}
+		ErrorManager.getManager().emit_info("State machine cache miss for " + input_name + " (" + machine_key + ")");
+		return false;
+	}
+
+	/** Return the destination directory. */
+	private File destination() {
+		return new File(options.dest_dir == null ? "." : options.dest_dir);
+	}
+
 	private File buildFile(String filename, String extension) {
 		String packageAsFileSystem = options.package_name.replace(".", "/");
-		File folder = new File(new File(options.dest_dir == null ? "." : options.dest_dir), packageAsFileSystem);
+		File folder = new File(destination(), packageAsFileSystem);
 		folder.mkdirs();
 		File file = new File(folder, filename + "." + extension);
 		return file;
@@ -444,6 +586,7 @@ public class Main {
 		PrintWriter writer = null;
 		try {
 			writer = new PrintWriter(new BufferedOutputStream(new FileOutputStream(file), 4096));
+			generated.add(file);
 		} catch (Exception e) {
 			ErrorManager.getManager().emit_fatal("Can't open \"" + file.getAbsolutePath() + "\"");
 		}
@@ -465,6 +608,7 @@ public class Main {
 		safeDelete(buildFile(options.symbol_const_class_name, "java"));
 		safeDelete(buildFile(options.parser_class_name, "java"));
 		safeDelete(buildFile(options.parser_class_name, "dump"));
+		safeDelete(buildFile(options.parser_class_name, "tables"));
 	}
 
 	private void emit_symbols(Grammar grammar) {
@@ -511,6 +655,21 @@ public class Main {
 			emit.parser(parser_class_file, grammar);
 		}
 		safeClose(parser_class_file, file);
+		if (options.opt_binary_tables)
+			emit_tables(grammar);
+	}
+
+	private void emit_tables(Grammar grammar) {
+		File file = buildFile(options.parser_class_name, "tables");
+		try (DataOutputStream tables_file = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file), 4096))) {
+			generated.add(file);
+			ErrorManager.getManager().emit_info("Generate Tables file : " + file.getPath());
+			Emit emit = new Emit(options, timer);
+			emit.tables(tables_file, grammar);
+		} catch (Exception e) {
+			ErrorManager.getManager().emit_fatal("Can't write \"" + file.getAbsolutePath() + "\"");
+		}
 	}
 
 	private void emit_dumps(Grammar grammar) {
@@ -565,6 +724,21 @@ public class Main {
 		System.err.print("  producing " + grammar.getLalrStates().size() + " unique parse states,");
 		System.err.println(" " + grammar.gatActionCount() + " unique action" + plural(grammar.gatActionCount()) + ". ");
 
+		/* table sizes */
+		ParseActionTable action_table = grammar.getActionTable();
+		ParseReduceTable reduce_table = grammar.getReduceTable();
+		if (action_table != null && action_table.getCompressedSize() > 0) {
+			int states = grammar.getLalrStates().size();
+			System.err.println("  action table: " + states + "x" + grammar.getTerminalCount() + " with "
+					+ action_table.getEntriesBefore() + " -> " + action_table.getEntriesAfter()
+					+ " non-default entries in " + action_table.getDistinctRows() + " distinct rows,");
+			System.err.println("    compressed to " + action_table.getCompressedSize() + " + " + 2 * states
+					+ " base entries.");
+			System.err.println("  reduce table: " + states + "x" + grammar.getNonterminalCount() + " with "
+					+ reduce_table.getEntries() + " entries in " + reduce_table.getDistinctRows()
+					+ " distinct rows, compressed to " + reduce_table.getCompressedSize() + " entries.");
+		}
+
 		/* unused symbols */
 		System.err.println("  " + unused_term + " terminal" + plural(unused_term) + " declared but not used.");
 		System.err.println(
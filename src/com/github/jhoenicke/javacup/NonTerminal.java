@@ -22,9 +22,6 @@ public class NonTerminal extends GrammarSymbol {
 	/** Nullability of this non terminal. */
 	private boolean nullable;
 
-	/** First set for this non-terminal. */
-	private TerminalSet firsts;
-
 	/**
 	 * Full constructor.
 	 * 
@@ -50,12 +47,8 @@ public class NonTerminal extends GrammarSymbol {
 		return nullable;
 	}
 
-	public TerminalSet getFirsts() {
-		return firsts;
-	}
-
-	public void setFirsts(TerminalSet firsts) {
-		this.firsts = firsts;
+	void setNullable(boolean nullable) {
+		this.nullable = nullable;
 	}
 
 	/** Lazy access to productions with this non terminal on the LHS. */
@@ -82,29 +75,6 @@ public class NonTerminal extends GrammarSymbol {
 		return true;
 	}
 
-	/**
-	 * Test to see if this non terminal currently looks nullable.
-	 * 
-	 * @return true if nullable status changed.
-	 */
-	public boolean checkNullable() {
-		/* only look at things that aren't already marked nullable */
-		if (nullable)
-			return false;
-
-		/* look and see if any of the productions now look nullable */
-		for (Production prod : getProductions()) {
-			/* if the production can go to empty, we are nullable */
-			if (prod.checkNullable()) {
-				nullable = true;
-				return true;
-			}
-		}
-
-		/* none of the productions can go to empty, so we are not nullable */
-		return false;
-	}
-
 	public String toString() {
 		return super.toString() + "[" + getIndex() + "]" + (isNullable() ? "*" : "");
 	}
@@ -34,9 +34,72 @@ public class Options {
 	 * action
 	 */
 	public boolean opt_compact_red = false;
+
+	/**
+	 * User option -- spend more time packing the parse tables, trying several
+	 * orders of the rows and keeping the smallest tables
+	 */
+	public boolean opt_dense_tables = false;
+
+	/**
+	 * User option -- replace the error entries of states without an action on
+	 * the error terminal by a reduce, to share more rows of the action table.
+	 * As with a default reduce, the parser then runs the actions of these
+	 * reduces before it detects the error on the next shift.
+	 */
+	public boolean opt_elide_errors = false;
 	/** User option -- use java 1.5 syntax (generics, annotations) */
 	public boolean opt_java15 = false;
 
+	/**
+	 * User option -- run the generated parser on the primitive int array parse
+	 * stack instead of the ArrayList of Symbols
+	 */
+	public boolean opt_primitive_stack = false;
+
+	/**
+	 * User option -- generate a parse loop specialized for the grammar, with the
+	 * tables in static final arrays; implies primitive_stack
+	 */
+	public boolean opt_specialized_parse = false;
+
+	/**
+	 * User option -- compile the parse tables into a direct coded parse loop
+	 * for grammars with at most that many states, larger grammars fall back to
+	 * the tables (0 means tables only); implies primitive_stack
+	 */
+	public int direct_parse = 0;
+
+	/**
+	 * User option -- split the action code into one method per action, with a
+	 * dispatch through buckets of that many actions (0 means one big switch)
+	 */
+	public int split_actions = 0;
+
+	/**
+	 * User option -- emit the parse tables as binary resource next to the parser
+	 * class instead of string literals in the parser source
+	 */
+	public boolean opt_binary_tables = false;
+
+	/**
+	 * User option -- build the LALR state machine in parallel on all available
+	 * processors
+	 */
+	public boolean opt_parallel = false;
+
+	/**
+	 * User option -- compute the lookaheads from the DeRemer-Pennello relations
+	 * on the LR(0) machine instead of propagating them while building it
+	 */
+	public boolean opt_lookahead_relations = false;
+
+	/** Default number of actions per dispatch bucket for split_actions. */
+	public final static int DEFAULT_ACTION_BUCKET = 64;
+
+	/** Default number of states up to which direct_parse codes the parser. */
+	public final static int DEFAULT_DIRECT_STATES = 400;
+
 	/** Package that the resulting code goes into (null is used for unnamed). */
 	public String package_name = null;
 
@@ -131,6 +194,33 @@ public class Options {
 	/** User option -- never use System.exit() */
 	public boolean opt_no_exit = false;
 
+	/** User option -- directory of the cache of generated files (null for none) */
+	public String cache_dir = null;
+
+	/**
+	 * Return the values of the options that influence the generated files, as
+	 * part of the key of the generation cache. The options given in the
+	 * specification are covered by its text.
+	 */
+	public String outputKey() {
+		return generatorMode + " " + opt_dump_includes_messages + " " + opt_dump_states + " " + opt_dump_tables + " "
+				+ opt_dump_grammar + " " + opt_compact_red + " " + opt_dense_tables + " " + opt_elide_errors + " "
+				+ opt_java15 + " " + opt_primitive_stack + " " + opt_specialized_parse + " " + direct_parse + " "
+				+ split_actions + " " + opt_binary_tables + " " + opt_lookahead_relations + " " + package_name + " "
+				+ symbol_const_nonterminal_name + " " + symbol_const_terminal_name + " " + symbol_const_class_name
+				+ " " + symType + " " + parser_class_name + " " + class_type_argument + " " + include_non_terms + " "
+				+ expect_conflicts + " " + nowarn + " " + opt_lr_values + " " + opt_old_lr_values + " " + use_list
+				+ " " + suppress_scanner;
+	}
+
+	/**
+	 * Return the values of the options that influence the state machine and the
+	 * parse tables, as part of the key of a machine in the generation cache.
+	 */
+	public String machineKey() {
+		return opt_compact_red + " " + opt_elide_errors;
+	}
+
 	public boolean setOption(String option) {
 		return setOption(option, null);
 	}
@@ -245,10 +335,70 @@ public class Options {
 			opt_java15 = true;
 			return true;
 		}
+		if (option.equals("primitive_stack")) {
+			opt_primitive_stack = true;
+			return true;
+		}
+		if (option.equals("specialized_parse")) {
+			opt_specialized_parse = true;
+			opt_primitive_stack = true;
+			return true;
+		}
+		if (option.equals("direct_parse")) {
+			opt_primitive_stack = true;
+			if (arg == null) {
+				direct_parse = DEFAULT_DIRECT_STATES;
+				return true;
+			}
+			try {
+				direct_parse = Integer.parseInt(arg);
+			} catch (NumberFormatException e) {
+				direct_parse = -1;
+			}
+			if (direct_parse > 0)
+				return true;
+			ErrorManager.getManager().emit_fatal("direct_parse must be followed by a positive decimal integer");
+			return false;
+		}
+		if (option.equals("split_actions")) {
+			if (arg == null) {
+				split_actions = DEFAULT_ACTION_BUCKET;
+				return true;
+			}
+			try {
+				split_actions = Integer.parseInt(arg);
+			} catch (NumberFormatException e) {
+				split_actions = -1;
+			}
+			if (split_actions > 0)
+				return true;
+			ErrorManager.getManager().emit_fatal("split_actions must be followed by a positive decimal integer");
+			return false;
+		}
+		if (option.equals("binary_tables")) {
+			opt_binary_tables = true;
+			return true;
+		}
+		if (option.equals("parallel")) {
+			opt_parallel = true;
+			return true;
+		}
+		if (option.equals("lookahead_relations")) {
+			opt_lookahead_relations = true;
+			return true;
+		}
 		if (option.equals("compact_red")) {
 			opt_compact_red = true;
 			return true;
 		}
+		if (option.equals("dense_tables")) {
+			opt_dense_tables = true;
+			return true;
+		}
+		if (option.equals("elide_errors")) {
+			opt_elide_errors = true;
+			return true;
+		}
 		if (option.equals("nosummary")) {
 			no_summary = true;
 			return true;
@@ -323,6 +473,15 @@ public class Options {
 			opt_no_exit = true;
 			return true;
 		}
+		if (option.equals("cache")) {
+			if (arg != null) {
+				cache_dir = arg;
+				return true;
+			} else {
+				ErrorManager.getManager().emit_fatal("cache must have a directory argument");
+				return false;
+			}
+		}
 		ErrorManager.getManager().emit_fatal("Unrecognized option \"" + option + "\"");
 		return false;
 	}
@@ -1,8 +1,15 @@
 
 package com.github.jhoenicke.javacup;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
-import java.util.TreeSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * This class represents the complete "action" table of the parser. It has one
@@ -21,6 +28,12 @@ public class ParseActionTable {
 	/** Actual array of rows, one per state. */
 	private final int[][] table;
 
+	/** The number of non-default entries before and after minimize(). */
+	private int entriesBefore, entriesAfter;
+
+	/** The number of distinct rows and the size of the last compressed table. */
+	private int distinctRows, compressedSize;
+
 	/** Constant for action type -- error action. */
 	private static final int ERROR = 0;
 
@@ -37,9 +50,11 @@ public class ParseActionTable {
 	 */
 	public ParseActionTable(Grammar grammar) {
 		/* determine how many states we are working with */
-		int stateCount = grammar.getLalrStates().size();
-		int terminalCount = grammar.getTerminalCount();
+		this(grammar.getLalrStates().size(), grammar.getTerminalCount());
+	}
 
+	/** Create an empty table of the given size. */
+	ParseActionTable(int stateCount, int terminalCount) {
 		/* allocate the array and fill it in with empty rows */
 		table = new int[stateCount][terminalCount + 1];
 	}
@@ -137,58 +152,194 @@ public class ParseActionTable {
 		return ((actionCode - 1) >> 1);
 	}
 
+	/**
+	 * Minimize the table before it is compressed. The default action of every
+	 * state is chosen among the actions in its row such that the row's
+	 * non-default entries equal those of an earlier state, so both share one
+	 * comb row, or else such that it has the fewest non-default entries. This
+	 * does not change any entry of the table; error entries simply become
+	 * non-default entries if another action is the default.
+	 * <p>
+	 * With elideErrors the error entries of states without an action on the
+	 * error terminal are replaced by a reduce of the state, again chosen for
+	 * sharing. This only delays the detection of a syntax error by some
+	 * reductions, like compact_red does. States with an action on error are
+	 * left alone, as the reductions would pop them from the stack before the
+	 * error recovery can resume in them, and so is the error column itself.
+	 * Reductions of empty productions are not used, as on erroneous input they
+	 * would push states instead of popping them.
+	 *
+	 * @param grammar     the grammar of the table.
+	 * @param elideErrors replace error entries by reductions.
+	 */
+	public void minimize(Grammar grammar, boolean elideErrors) {
+		int errorColumn = Terminal.error.getIndex();
+		Map<Integer, List<CombRow>> rows = new HashMap<Integer, List<CombRow>>();
+		entriesBefore = entriesAfter = 0;
+		for (int i = 0; i < table.length; i++) {
+			int[] row = table[i];
+			int columns = row.length - 1;
+			entriesBefore += countEntries(row, row[columns]);
+
+			if (elideErrors && isEmpty(row[errorColumn])) {
+				int bestReduce = ERROR;
+				int bestCost = Integer.MAX_VALUE;
+				int[] elided = new int[row.length];
+				int[] sorted = Arrays.copyOf(row, columns);
+				Arrays.sort(sorted);
+				for (int j = 0; j < columns; j++) {
+					int act = sorted[j];
+					if ((j > 0 && act == sorted[j - 1]) || !isReduce(act)
+							|| grammar.getActionAt(getIndex(act)).getRhsSize() == 0)
+						continue;
+					for (int k = 0; k < columns; k++)
+						elided[k] = isEmpty(row[k]) && k != errorColumn ? act : row[k];
+					int cost = cost(rows, i, elided, chooseDefault(rows, i, elided));
+					if (cost < bestCost) {
+						bestCost = cost;
+						bestReduce = act;
+					}
+				}
+				if (bestReduce != ERROR) {
+					for (int k = 0; k < columns; k++)
+						if (isEmpty(row[k]) && k != errorColumn)
+							row[k] = bestReduce;
+				}
+			}
+
+			row[columns] = chooseDefault(rows, i, row);
+			CombRow entries = nonDefaultEntries(i, row, row[columns]);
+			entriesAfter += entries == null ? 0 : entries.comb.length;
+			if (entries != null && findRow(rows, entries) == null) {
+				List<CombRow> candidates = rows.get(entries.entriesHash());
+				if (candidates == null) {
+					candidates = new ArrayList<CombRow>(1);
+					rows.put(entries.entriesHash(), candidates);
+				}
+				candidates.add(entries);
+			}
+		}
+	}
+
+	/**
+	 * Choose the default action of a row: the action that leaves the row with
+	 * the same entries as a known row, or with the fewest entries. Actions that
+	 * occur only once are not tried, unless they are the current default. Ties
+	 * keep the current default, then prefer errors and lower codes.
+	 */
+	private int chooseDefault(Map<Integer, List<CombRow>> rows, int index, int[] row) {
+		int columns = row.length - 1;
+		int best = row[columns];
+		int bestCost = cost(rows, index, row, best);
+		int[] sorted = Arrays.copyOf(row, columns);
+		Arrays.sort(sorted);
+		for (int j = 1; j < columns; j++) {
+			int act = sorted[j];
+			if (act != sorted[j - 1] || (j > 1 && act == sorted[j - 2]) || act == row[columns])
+				continue;
+			int cost = cost(rows, index, row, act);
+			if (cost < bestCost || (cost == bestCost && act < best && best != row[columns])) {
+				best = act;
+				bestCost = cost;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Return the number of comb entries a row adds with the given default: none
+	 * if its non-default entries equal those of a known row.
+	 */
+	private int cost(Map<Integer, List<CombRow>> rows, int index, int[] row, int defaultAction) {
+		CombRow entries = nonDefaultEntries(index, row, defaultAction);
+		if (entries == null || findRow(rows, entries) != null)
+			return 0;
+		return entries.comb.length;
+	}
+
+	private static CombRow findRow(Map<Integer, List<CombRow>> rows, CombRow entries) {
+		List<CombRow> candidates = rows.get(entries.entriesHash());
+		if (candidates != null) {
+			for (CombRow other : candidates) {
+				if (other.sameEntries(entries))
+					return other;
+			}
+		}
+		return null;
+	}
+
+	private static int countEntries(int[] row, int defaultAction) {
+		int len = 0;
+		for (int j = 0; j < row.length - 1; j++)
+			if (row[j] != defaultAction)
+				len++;
+		return len;
+	}
+
+	/**
+	 * Return the entries of a row that differ from the default action, or null
+	 * if there are none.
+	 */
+	private static CombRow nonDefaultEntries(int index, int[] row, int defaultAction) {
+		int len = countEntries(row, defaultAction);
+		if (len == 0)
+			return null;
+
+		int[] comb = new int[len];
+		int[] values = new int[len];
+		len = 0;
+		for (int j = 0; j < row.length - 1; j++)
+			if (row[j] != defaultAction) {
+				comb[len] = j;
+				values[len++] = row[j];
+			}
+		return new CombRow(index, comb, values);
+	}
+
 	/**
 	 * Compress the action table into it's runtime form. This returns an array
-	 * act_tab and initializes base_table, such that for all entries with
-	 * table[state][term] != default/error:
+	 * act_tab and initializes base_table with a base and a row id for every
+	 * state, such that for all entries with table[state][term] !=
+	 * default/error:
 	 * 
 	 * <pre>
-	 * act_tab[base_table[state]+2*term] == state
-	 * act_tab[base_table[state]+2*term+1] == table[state][term]
+	 * act_tab[base_table[2*state]+2*term] == base_table[2*state+1]
+	 * act_tab[base_table[2*state]+2*term+1] == table[state][term]
 	 * </pre>
 	 * 
 	 * For all entries that equal default_action[state], we have:
 	 * 
 	 * <pre>
-	 * act_tab[base_table[state]+2*term] != state
+	 * act_tab[base_table[2*state]+2*term] != base_table[2*state+1]
 	 * act_tab[state] == default_action[state]
 	 * </pre>
+	 * 
+	 * States whose rows have the same non-default entries share one base; the
+	 * row id is the index of the first of these states.
+	 *
+	 * @param base_table the base table to fill, two entries per state.
+	 * @param dense      search harder for a small table.
 	 */
-	public short[] compress(int[] base_table) {
+	public short[] compress(int[] base_table, boolean dense) {
 		int[] default_actions = new int[table.length];
-		TreeSet<CombRow> rows = new TreeSet<CombRow>();
+		List<CombRow> rows = new ArrayList<CombRow>();
 		for (int i = 0; i < table.length; i++) {
 			int[] row = table[i];
 			default_actions[i] = row[row.length - 1];
-			int len = 0;
-			for (int j = 0; j < row.length - 1; j++)
-				if (row[j] != default_actions[i])
-					len++;
-			if (len == 0)
-				continue;
-
-			int[] comb = new int[len];
-			len = 0;
-			for (int j = 0; j < row.length - 1; j++)
-				if (row[j] != default_actions[i])
-					comb[len++] = j;
-			rows.add(new CombRow(i, comb));
-		}
-
-		BitSet used = new BitSet();
-		int combsize = 0;
-		for (CombRow row : rows) {
-			row.fitInComb(used);
-			int lastidx = row.base + table[row.index].length;
-			if (lastidx > combsize)
-				combsize = lastidx;
+			CombRow entries = nonDefaultEntries(i, row, default_actions[i]);
+			if (entries != null)
+				rows.add(entries);
 		}
 
 		int _num_states = table.length;
+		int rowLength = _num_states > 0 ? table[0].length : 0;
+		int combsize = new CombPacker(new BitSet(), rowLength).pack(rows, dense);
+
 		short[] compressed = new short[_num_states + 2 * (combsize)];
 		/* Fill default actions */
 		for (int i = 0; i < _num_states; i++) {
-			base_table[i] = (short) _num_states;
+			base_table[2 * i] = _num_states;
+			base_table[2 * i + 1] = i;
 			compressed[i] = (short) default_actions[i];
 		}
 		/* Mark entries in comb as invalid */
@@ -197,17 +348,135 @@ public class ParseActionTable {
 			compressed[_num_states + 2 * i + 1] = 1;
 		}
 		for (CombRow row : rows) {
-			int base = table.length + 2 * row.base;
-			base_table[row.index] = base;
+			int base = _num_states + 2 * row.base;
+			base_table[2 * row.index] = base;
+			base_table[2 * row.index + 1] = row.representative.index;
+			if (row.representative != row)
+				continue;
 			for (int j = 0; j < row.comb.length; j++) {
 				int t = row.comb[j];
 				compressed[base + 2 * t] = (short) row.index;
-				compressed[base + 2 * t + 1] = (short) table[row.index][t];
+				compressed[base + 2 * t + 1] = (short) row.values[j];
 			}
 		}
+		distinctRows = 0;
+		for (CombRow row : rows)
+			if (row.representative == row)
+				distinctRows++;
+		compressedSize = compressed.length;
 		return compressed;
 	}
 
+	/**
+	 * Build the expected table the parser uses for error recovery and to tell
+	 * the expected terminals, see ParseTable. It holds the number of 16 bit
+	 * words of a terminal set, followed by a bit set of the states that have an
+	 * action on the error terminal, followed by the number of the expected set
+	 * of every state, followed by the expected sets, numbered from 1. The
+	 * expected set of a state holds the terminals with an action in it; states
+	 * with the same set share it.
+	 *
+	 * @return the expected table.
+	 */
+	public short[] buildExpectedTable() {
+		int numStates = table.length;
+		int numTerms = numStates > 0 ? table[0].length - 1 : 0;
+		int setWords = (numTerms + 15) >> 4;
+		int stateWords = (numStates + 15) >> 4;
+		int errorIndex = Terminal.error.getIndex();
+
+		short[] header = new short[1 + stateWords + numStates];
+		header[0] = (short) setWords;
+		List<short[]> sets = new ArrayList<short[]>();
+		Map<String, Integer> setNumbers = new HashMap<String, Integer>();
+		for (int state = 0; state < numStates; state++) {
+			if (!isError(table[state][errorIndex]))
+				header[1 + (state >> 4)] |= (short) (1 << (state & 15));
+			short[] set = new short[setWords];
+			for (int t = 0; t < numTerms; t++)
+				if (!isError(table[state][t]))
+					set[t >> 4] |= (short) (1 << (t & 15));
+			String key = new String(toChars(set));
+			Integer number = setNumbers.get(key);
+			if (number == null) {
+				sets.add(set);
+				number = sets.size();
+				setNumbers.put(key, number);
+			}
+			header[1 + stateWords + state] = (short) number.intValue();
+		}
+
+		short[] result = Arrays.copyOf(header, header.length + sets.size() * setWords);
+		for (int i = 0; i < sets.size(); i++)
+			System.arraycopy(sets.get(i), 0, result, header.length + i * setWords, setWords);
+		return result;
+	}
+
+	/** Return the words of a set as chars, to use them as a key. */
+	private static char[] toChars(short[] set) {
+		char[] chars = new char[set.length];
+		for (int i = 0; i < set.length; i++)
+			chars[i] = (char) set[i];
+		return chars;
+	}
+
+	/**
+	 * Write the minimized table, see Grammar.writeMachine(): every row as its
+	 * default action followed by its non-default entries.
+	 */
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(entriesBefore);
+		out.writeInt(entriesAfter);
+		for (int[] row : table) {
+			int defaultAction = row[row.length - 1];
+			out.writeInt(defaultAction);
+			out.writeInt(countEntries(row, defaultAction));
+			for (int j = 0; j < row.length - 1; j++) {
+				if (row[j] != defaultAction) {
+					out.writeInt(j);
+					out.writeInt(row[j]);
+				}
+			}
+		}
+	}
+
+	/** Fill the table with the entries written by write(). */
+	void read(DataInputStream in) throws IOException {
+		entriesBefore = in.readInt();
+		entriesAfter = in.readInt();
+		for (int[] row : table) {
+			int defaultAction = in.readInt();
+			Arrays.fill(row, defaultAction);
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				int column = in.readInt();
+				if (column < 0 || column >= row.length - 1)
+					throw new IOException("Invalid state machine");
+				row[column] = in.readInt();
+			}
+		}
+	}
+
+	/** Return the number of non-default entries before minimize(). */
+	public int getEntriesBefore() {
+		return entriesBefore;
+	}
+
+	/** Return the number of non-default entries after minimize(). */
+	public int getEntriesAfter() {
+		return entriesAfter;
+	}
+
+	/** Return the number of distinct non-empty rows of the compressed table. */
+	public int getDistinctRows() {
+		return distinctRows;
+	}
+
+	/** Return the size of the compressed table, 0 before it is compressed. */
+	public int getCompressedSize() {
+		return compressedSize;
+	}
+
 	private static String toString(int code) {
 		if (isError(code))
 			return "ERROR";
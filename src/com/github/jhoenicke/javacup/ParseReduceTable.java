@@ -1,8 +1,9 @@
 
 package com.github.jhoenicke.javacup;
 
+import java.util.ArrayList;
 import java.util.BitSet;
-import java.util.TreeSet;
+import java.util.List;
 
 /**
  * This class represents the complete "reduce-goto" table of the parser. It has
@@ -21,6 +22,9 @@ public class ParseReduceTable {
 	private int stateCount;
 	private int nonterminalCount;
 
+	/** The number of entries, distinct rows and the size of the last compressed table. */
+	private int entries, distinctRows, compressedSize;
+
 	/**
 	 * Simple constructor. Note: all terminals, non-terminals, and productions must
 	 * already have been entered, and the viable prefix recognizer should have been
@@ -28,8 +32,13 @@ public class ParseReduceTable {
 	 */
 	public ParseReduceTable(Grammar grammar) {
 		/* determine how many states we are working with */
-		stateCount = grammar.getLalrStates().size();
-		nonterminalCount = grammar.getNonterminalCount();
+		this(grammar.getLalrStates().size(), grammar.getNonterminalCount());
+	}
+
+	/** Create an empty table of the given size. */
+	ParseReduceTable(int stateCount, int nonterminalCount) {
+		this.stateCount = stateCount;
+		this.nonterminalCount = nonterminalCount;
 
 		/* allocate the array and fill it in with empty rows */
 		table = new LalrState[stateCount][nonterminalCount];
@@ -51,11 +60,14 @@ public class ParseReduceTable {
 	 * red_tab[red_tab[state] + nonterm] = table[state][nonterm].index()
 	 * </pre>
 	 * 
-	 * for all non-null table entries.
+	 * for all non-null table entries. States with the same entries share one
+	 * base.
+	 *
+	 * @param dense search harder for a small table.
 	 */
-	public short[] compress() {
+	public short[] compress(boolean dense) {
 		BitSet used = new BitSet();
-		TreeSet<CombRow> rows = new TreeSet<CombRow>();
+		List<CombRow> rows = new ArrayList<CombRow>();
 		for (int i = 0; i < stateCount; i++) {
 			int len = 0;
 			for (int j = 0; j < nonterminalCount; j++)
@@ -66,20 +78,23 @@ public class ParseReduceTable {
 
 			used.set(i);
 			int[] rowidx = new int[len];
+			int[] values = new int[len];
 			len = 0;
 			for (int j = 0; j < nonterminalCount; j++)
-				if (table[i][j] != null)
-					rowidx[len++] = j;
-			CombRow row = new CombRow(i, rowidx);
-			rows.add(row);
+				if (table[i][j] != null) {
+					rowidx[len] = j;
+					values[len++] = table[i][j].getIndex();
+				}
+			rows.add(new CombRow(i, rowidx, values));
 		}
 
+		int maxbase = new CombPacker(used, 0).pack(rows, dense);
+		entries = distinctRows = 0;
 		for (CombRow row : rows) {
-			row.fitInComb(used);
+			entries += row.comb.length;
+			if (row.representative == row)
+				distinctRows++;
 		}
-		int maxbase = used.size();
-		while (!used.get(maxbase - 1))
-			maxbase--;
 
 		short[] compressed = new short[maxbase];
 		/* initialize compressed table with 1 (shortest UTF-8 encoding) */
@@ -90,12 +105,28 @@ public class ParseReduceTable {
 			int base = row.base;
 			compressed[row.index] = (short) base;
 			for (int j = 0; j < row.comb.length; j++) {
-				compressed[base + row.comb[j]] = (short) table[row.index][row.comb[j]].getIndex();
+				compressed[base + row.comb[j]] = (short) row.values[j];
 			}
 		}
+		compressedSize = compressed.length;
 		return compressed;
 	}
 
+	/** Return the number of entries, counted when the table is compressed. */
+	public int getEntries() {
+		return entries;
+	}
+
+	/** Return the number of distinct non-empty rows of the compressed table. */
+	public int getDistinctRows() {
+		return distinctRows;
+	}
+
+	/** Return the size of the compressed table, 0 before it is compressed. */
+	public int getCompressedSize() {
+		return compressedSize;
+	}
+
 	public String toString() {
 		StringBuilder result = new StringBuilder();
 		LalrState goto_st;
@@ -0,0 +1,40 @@
+package com.github.jhoenicke.javacup;
+
+/**
+ * Records the phases timed by {@link Timer} for a profiler. The generator has
+ * no implementation of its own, so it depends neither on jdk.jfr nor on Java
+ * 11: JfrPhaseRecorder, compiled from src-jfr, records the phases as JDK
+ * Flight Recorder events and is loaded when the JVM supports it.
+ */
+abstract class PhaseRecorder {
+
+	/**
+	 * Load the recorder.
+	 *
+	 * @return the recorder, or null if the JVM cannot record the phases.
+	 */
+	static PhaseRecorder load() {
+		try {
+			Class<?> type = Class.forName("com.github.jhoenicke.javacup.JfrPhaseRecorder");
+			return (PhaseRecorder) type.getDeclaredConstructor().newInstance();
+		} catch (Throwable e) {
+			/* no JFR in this JVM, or a JVM older than the recorder */
+			return null;
+		}
+	}
+
+	/**
+	 * Start the event of a phase.
+	 *
+	 * @return the event, or null if no recording enables it.
+	 */
+	abstract Object start();
+
+	/**
+	 * End the event of a phase and commit it.
+	 *
+	 * @param event     the event start() returned.
+	 * @param timeStamp the name of the phase.
+	 */
+	abstract void finish(Object event, Timer.TIMESTAMP timeStamp);
+}
@@ -45,6 +45,12 @@ public class Production {
 	/** initial lr item corresponding to the production. */
 	private LrItem lrItem;
 
+	/**
+	 * Id of the initial lr item. The items of a production are numbered
+	 * consecutively from it, see Grammar.numberItems().
+	 */
+	private int itemBase;
+
 	/** Is the nullability of the production known or unknown? */
 	private boolean nullableKnown = false;
 
@@ -163,6 +169,14 @@ public class Production {
 		return rhs.length;
 	}
 
+	public int getItemBase() {
+		return itemBase;
+	}
+
+	void setItemBase(int itemBase) {
+		this.itemBase = itemBase;
+	}
+
 	/** Index number of the production. */
 	public LrItem getItem() {
 		if (lrItem == null)
@@ -0,0 +1,60 @@
+package com.github.jhoenicke.javacup;
+
+/**
+ * Storage for the bit words of many terminal sets of one grammar. The sets
+ * are laid out one after the other in large blocks, so a set needs no array
+ * of its own, and the lookaheads of the items of a state, which are created
+ * together, lie next to each other in memory. The words of a set are never
+ * freed on their own; a block is collected with the last set that lives in
+ * it.
+ * <p>
+ * An arena is not thread safe: every thread creating sets needs its own.
+ */
+public final class TerminalArena {
+
+	/** The number of words of a block. */
+	private final static int BLOCK_WORDS = 8192;
+
+	/** The number of words of a set. */
+	private final int setWords;
+
+	/** The block the next sets are allocated in. */
+	private long[] block;
+
+	/** The number of words of the block already allocated. */
+	private int used;
+
+	/**
+	 * Create an arena for the terminal sets of a grammar.
+	 *
+	 * @param grammar the grammar, with all its terminals declared.
+	 */
+	public TerminalArena(Grammar grammar) {
+		this.setWords = TerminalSet.wordCount(grammar.getTerminalCount());
+	}
+
+	/** Return the number of words of a set. */
+	int setWords() {
+		return setWords;
+	}
+
+	/**
+	 * Allocate the words of a new, empty set.
+	 *
+	 * @return the index of its first word in block().
+	 */
+	int allocate() {
+		if (block == null || used + setWords > block.length) {
+			block = new long[Math.max(BLOCK_WORDS, setWords)];
+			used = 0;
+		}
+		int offset = used;
+		used += setWords;
+		return offset;
+	}
+
+	/** Return the block of the set allocated last. */
+	long[] block() {
+		return block;
+	}
+}
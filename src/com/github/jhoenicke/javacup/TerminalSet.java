@@ -12,14 +12,28 @@ public class TerminalSet {
 	private final static int LOG_BITS_PER_UNIT = 6;
 	private final static int BITS_PER_UNIT = 64;
 	
+	/**
+	 * The array holding the bit words of the set, either of its own or a block
+	 * of a TerminalArena shared with other sets.
+	 */
 	private long[] elements;
+	/** The index of the first word of the set in elements. */
+	private int offset;
+	/** The number of words of the set. */
+	private int length;
 	private Grammar grammar;
 
 	/** Constructor for an empty set. */
 	public TerminalSet(Grammar grammar) {
 		/* allocate the bitset at what is probably the right size */
 		this.grammar = grammar;
-		this.elements = new long[((grammar.getTerminalCount() - 1) >>> LOG_BITS_PER_UNIT) + 1];
+		this.length = wordCount(grammar.getTerminalCount());
+		this.elements = new long[length];
+	}
+
+	/** Return the number of bit words of a set of the given number of terminals. */
+	static int wordCount(int terminalCount) {
+		return ((terminalCount - 1) >>> LOG_BITS_PER_UNIT) + 1;
 	}
 
 	/**
@@ -28,14 +42,37 @@ public class TerminalSet {
 	 * @param other the set we are cloning from.
 	 */
 	public TerminalSet(TerminalSet other) {
-		this(other.grammar);
-		elements = other.elements.clone();
+		this.grammar = other.grammar;
+		this.length = other.length;
+		this.elements = new long[length];
+		System.arraycopy(other.elements, other.offset, elements, 0, length);
+	}
+
+	/**
+	 * Constructor for cloning from another set into the words of an arena.
+	 * 
+	 * @param other the set we are cloning from.
+	 * @param arena the arena holding the words of the new set.
+	 */
+	public TerminalSet(TerminalSet other, TerminalArena arena) {
+		assert arena.setWords() == other.length;
+		this.grammar = other.grammar;
+		this.length = other.length;
+		this.offset = arena.allocate();
+		this.elements = arena.block();
+		System.arraycopy(other.elements, other.offset, elements, offset, length);
+	}
+
+	/** Remove all terminals from the set. */
+	void clear() {
+		for (int i = 0; i < length; i++)
+			elements[offset + i] = 0;
 	}
 
 	/** Determine if the set is empty. */
 	public boolean empty() {
-		for (int i = 0; i < elements.length; i++)
-			if (elements[i] != 0)
+		for (int i = 0; i < length; i++)
+			if (elements[offset + i] != 0)
 				return false;
 		return true;
 	}
@@ -57,7 +94,7 @@ public class TerminalSet {
 	public boolean contains(int indx) {
 		int idx = indx >> LOG_BITS_PER_UNIT;
 		long mask = (1L << (indx & (BITS_PER_UNIT - 1)));
-		return (elements[idx] & mask) != 0;
+		return (elements[offset + idx] & mask) != 0;
 	}
 
 	/**
@@ -66,9 +103,9 @@ public class TerminalSet {
 	 * @param other the set we are testing against.
 	 */
 	public boolean is_subset_of(TerminalSet other) {
-		assert (other.elements.length == elements.length);
-		for (int i = 0; i < elements.length; i++)
-			if ((elements[i] & ~other.elements[i]) != 0)
+		assert (other.length == length);
+		for (int i = 0; i < length; i++)
+			if ((elements[offset + i] & ~other.elements[other.offset + i]) != 0)
 				return false;
 		return true;
 	}
@@ -83,8 +120,8 @@ public class TerminalSet {
 		int indx = sym.getIndex();
 		int idx = indx >> LOG_BITS_PER_UNIT;
 		long mask = (1L << (indx & (BITS_PER_UNIT - 1)));
-		boolean result = (elements[idx] & mask) == 0;
-		elements[idx] |= mask;
+		boolean result = (elements[offset + idx] & mask) == 0;
+		elements[offset + idx] |= mask;
 		return result;
 	}
 
@@ -97,7 +134,7 @@ public class TerminalSet {
 		int indx = sym.getIndex();
 		int idx = indx >> LOG_BITS_PER_UNIT;
 		long mask = (1L << (indx & (BITS_PER_UNIT - 1)));
-		elements[idx] &= ~mask;
+		elements[offset + idx] &= ~mask;
 	}
 
 	/**
@@ -107,14 +144,26 @@ public class TerminalSet {
 	 * @return true if this changes the set.
 	 */
 	public boolean add(TerminalSet other) {
-		assert (other.elements.length == elements.length);
-		boolean changed = false;
-		for (int i = 0; i < elements.length; i++) {
-			if ((~elements[i] & other.elements[i]) != 0)
-				changed = true;
-			elements[i] |= other.elements[i];
+		assert (other.length == length);
+		return add(other.elements, other.offset);
+	}
+
+	/**
+	 * Add (union) in a set stored as bit words in an array, like the rows of
+	 * the first sets of Grammar.
+	 * 
+	 * @param words  the array holding the set.
+	 * @param offset the index of the first word of the set.
+	 * @return true if this changes the set.
+	 */
+	boolean add(long[] words, int offset) {
+		long changed = 0;
+		for (int i = 0; i < length; i++) {
+			long word = words[offset + i];
+			changed |= word & ~elements[this.offset + i];
+			elements[this.offset + i] |= word;
 		}
-		return changed;
+		return changed != 0;
 	}
 
 	/**
@@ -123,9 +172,9 @@ public class TerminalSet {
 	 * @param other the other set in question.
 	 */
 	public boolean intersects(TerminalSet other) {
-		assert (other.elements.length == elements.length);
-		for (int i = 0; i < elements.length; i++) {
-			if ((elements[i] & other.elements[i]) != 0)
+		assert (other.length == length);
+		for (int i = 0; i < length; i++) {
+			if ((elements[offset + i] & other.elements[other.offset + i]) != 0)
 				return true;
 		}
 		return false;
@@ -133,9 +182,9 @@ public class TerminalSet {
 
 	/** Equality comparison. */
 	public boolean equals(TerminalSet other) {
-		assert (other.elements.length == elements.length);
-		for (int i = 0; i < elements.length; i++) {
-			if (elements[i] != other.elements[i])
+		assert (other.length == length);
+		for (int i = 0; i < length; i++) {
+			if (elements[offset + i] != other.elements[other.offset + i])
 				return false;
 		}
 		return true;
@@ -152,8 +201,8 @@ public class TerminalSet {
 	@Override
 	public int hashCode() {
 		int hash = 0;
-		for (int i = 0; i < elements.length; i++)
-			hash = 13 * hash + 157 * (int) (elements[i] >> 16) + (int) elements[i];
+		for (int i = 0; i < length; i++)
+			hash = 13 * hash + 157 * (int) (elements[offset + i] >> 16) + (int) elements[offset + i];
 		return hash;
 	}
 
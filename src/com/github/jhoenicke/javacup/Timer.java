@@ -12,6 +12,9 @@ import java.util.TreeMap;
  * elapsed time will be stored in the TreeMap
  * later it is possible to gather all times by name.
  * 
+ * when the JVM has JFR, every popped timer is also recorded
+ * as an event by the {@link PhaseRecorder}, if a recording enables it.
+ * 
  */
 public class Timer {
 
@@ -44,6 +47,12 @@ public class Timer {
 	/** a stack with all starting times */
 	private Stack<Long> starts;
 
+	/** a stack with the JFR events of the running timers, null when not recorded */
+	private Stack<Object> events;
+
+	/** the recorder of the phases, null when the JVM has no JFR */
+	private static final PhaseRecorder RECORDER = PhaseRecorder.load();
+
 	/** a registry of elapsed time */
 	private Map<TIMESTAMP, Long> times = null;
 
@@ -53,6 +62,12 @@ public class Timer {
 		return starts;
 	}
 
+	private Stack<Object> getEvents() {
+		if (events == null)
+			events = new Stack<>();
+		return events;
+	}
+
 	private Map<TIMESTAMP, Long> getTimes() {
 		if (times == null)
 			times = new TreeMap<>();
@@ -64,6 +79,7 @@ public class Timer {
 	 */
 	public void clearAllTimers() {
 		starts = null;
+		events = null;
 		times = null;
 	}
 
@@ -72,6 +88,8 @@ public class Timer {
 	 */
 	public void pushTimer() {
 		getStarts().add(System.currentTimeMillis());
+		if (RECORDER != null)
+			getEvents().push(RECORDER.start());
 	}
 
 	/**
@@ -88,6 +106,11 @@ public class Timer {
 		long started = getStarts().pop();
 		long current = System.currentTimeMillis();
 		getTimes().put(timeStamp, current - started);
+		if (RECORDER != null) {
+			Object event = getEvents().pop();
+			if (event != null)
+				RECORDER.finish(event, timeStamp);
+		}
 	}
 
 	/**
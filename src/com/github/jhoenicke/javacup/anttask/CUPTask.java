@@ -24,6 +24,7 @@ package com.github.jhoenicke.javacup.anttask;
 import org.apache.tools.ant.Task;
 import org.apache.tools.ant.BuildException;
 
+import com.github.jhoenicke.javacup.GeneratorCache;
 import com.github.jhoenicke.javacup.Version;
 
 import java.util.List;
@@ -59,6 +60,7 @@ public class CUPTask extends Task
     private boolean noscanner=false;
     private boolean force=false;
     private boolean quiet=false;
+    private String cache=null;
   
     /**
      * executes the task
@@ -91,6 +93,7 @@ public class CUPTask extends Task
 	if (debug)         {  sc.add("-debug"); }
 	if (nopositions)   {  sc.add("-nopositions"); }
 	if (noscanner)     {  sc.add("-noscanner"); }
+	if (cache!=null)   {  sc.add("-cache"); sc.add(cache); }
 	if (!quiet) log ("This is "+Version.title);
         if (!quiet) log ("Authors : "+Version.authors);
 	if (!quiet) log ("Bugreports to petter@cs.tum.edu");
@@ -154,11 +157,15 @@ public class CUPTask extends Task
         for (int i=0;i<args.length;i++) args[i]=(String)sc.get(i);
         
 
+	int hits = GeneratorCache.getHits();
+	int misses = GeneratorCache.getMisses();
 	try {
             com.github.jhoenicke.javacup.Main.main(args);
         }catch(Exception e){
             log("CUP error occured int CUP task: "+e);
         }
+	if (!quiet && GeneratorCache.getHits() != hits) log("generation cache hit for "+srcfile);
+	if (!quiet && GeneratorCache.getMisses() != misses) log("generation cache miss for "+srcfile);
     }
 
     /**
@@ -600,6 +607,24 @@ public class CUPTask extends Task
 	this.noscanner = argNoscanner;
     }
 
+    /**
+     * Gets the value of cache
+     *
+     * @return the value of cache
+     */
+    public String getCache() {
+	return this.cache;
+    }
+
+    /**
+     * Sets the value of cache
+     *
+     * @param argCache Value to assign to this.cache
+     */
+    public void setCache(String argCache){
+	this.cache = argCache;
+    }
+
 
 }
 
@@ -309,10 +309,10 @@ public class AdvancedSymbolFactory implements SymbolFactory2, SymbolFactory {
 
 	/**
 	 * internal hack to create an EOF as an Enum
-	 * reply on the fact that it should ever be the first in the generated ETerminal
+	 * rely on the fact that error and EOF should ever be the two firsts in the generated ETerminal
 	 */
 	private static enum SpecialTerminal {
-		EOF,
+		error, EOF,
 	}
 
 	/**
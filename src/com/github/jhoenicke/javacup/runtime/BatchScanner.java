@@ -0,0 +1,46 @@
+package com.github.jhoenicke.javacup.runtime;
+
+/**
+ * A scanner that delivers its tokens in batches. Instead of calling
+ * next_token() once per token, the parser lets the scanner fill a
+ * {@link TokenBuffer} with the symbol numbers, positions and values of many
+ * tokens, and only builds a Symbol object for a token when someone asks for
+ * it.
+ * <p>
+ *
+ * Parsers generated with the primitive_stack option push the tokens they
+ * shift without a Symbol and create it on the first access to the stack slot,
+ * so tokens whose Symbol no action and no error report looks at are never
+ * materialized. With the default parse stack every token is materialized when
+ * it is read from the buffer, which still saves the call per token. While the
+ * parser reads from the buffer, the "scan with" code of the parser is not used
+ * and cur_token is null except during error recovery.
+ * <p>
+ *
+ * The parser recognizes a BatchScanner when it is installed with setScanner()
+ * or reset(), not one returned by an overridden getScanner(). Since a
+ * BatchScanner is a Scanner, it still works with code that calls next_token().
+ */
+public interface BatchScanner extends Scanner {
+
+	/**
+	 * Append the next tokens to the buffer, at least one unless the input has
+	 * ended. At the end of the input the scanner appends the EOF token, like
+	 * next_token() returns it, also on later calls; a call that adds no token
+	 * is taken as the end of the input as well.
+	 *
+	 * @param buffer the empty buffer to fill.
+	 */
+	public void next_tokens(TokenBuffer buffer) throws java.lang.Exception;
+
+	/**
+	 * Create the Symbol of a token from the buffer.
+	 *
+	 * @param id    the symbol number of the token.
+	 * @param left  the left position of the token.
+	 * @param right the right position of the token.
+	 * @param value the value of the token.
+	 * @return the Symbol, which next_token() would have returned for the token.
+	 */
+	public Symbol symbol(int id, int left, int right, Object value);
+}
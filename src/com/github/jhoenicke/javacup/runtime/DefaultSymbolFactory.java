@@ -44,6 +44,18 @@ public class DefaultSymbolFactory implements SymbolFactory {
 		return new Symbol(id, left, right);
 	}
 
+	/**
+	 * Create the left hand side from the positions on the stack, so that the
+	 * packed tokens at the ends of the handle keep no Symbol.
+	 */
+	public Symbol newSymbol(String name, int id, ParseStack stack, int first, int last, Object value) {
+		return new Symbol(id, stack.getLeft(first), stack.getRight(last), value);
+	}
+
+	public Symbol newSymbol(String name, int id, ParseStack stack, int first, int last) {
+		return new Symbol(id, stack.getLeft(first), stack.getRight(last));
+	}
+
 	public Symbol startSymbol(String name, int id, int state) {
 		return new Symbol(id, state);
 	}
@@ -0,0 +1,396 @@
+package com.github.jhoenicke.javacup.runtime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Drives a generated parser over a list of tokens and reparses it after an
+ * edit of the list, for example in an editor that re-runs the parser on every
+ * keystroke. The parser keeps the tree of the previous parse, with the state
+ * in which each non terminal was shifted, and shifts an unchanged subtree as
+ * a whole instead of parsing its tokens again, so a reparse mostly costs the
+ * parse of the edited tokens and of the subtrees enclosing them.
+ * <p>
+ *
+ * A subtree is reused when the parser reaches its first token in the state it
+ * was shifted in, none of its tokens nor the token following it were edited,
+ * and no error recovery took place inside it. As the parser is deterministic,
+ * the parse of its tokens would then reduce the same subtree again; its
+ * Symbol is reused without running the actions inside it once more. This is
+ * exact for actions that only build a value from their right hand side, like
+ * the trees of the CST mode, but not for actions with side effects.
+ *
+ * <pre>
+ * IncrementalParser incremental = new IncrementalParser(new Parser(null, new ComplexSymbolFactory()));
+ * Symbol result = incremental.parse(tokens);
+ * // the user replaced the tokens from index 10 to 12 by a single one
+ * result = incremental.reparse(10, 3, Collections.singletonList(token));
+ * </pre>
+ *
+ * The token list does not hold the EOF token; it is supplied by the parser's
+ * symbol factory. Scan code of the parser ("scan with") is not used, but its
+ * user_init() code is run before every parse. An IncrementalParser is not
+ * thread safe.
+ */
+public class IncrementalParser {
+
+	/** The symbol number of the eof symbol (hardcoded) */
+	private final static int EOF = 1;
+
+	/**
+	 * A node of the parse tree. A token is a leaf without children; a non
+	 * terminal built by the error recovery, whose children are unknown, is a
+	 * node without children that is not clean.
+	 */
+	private static final class Node {
+		/** The Symbol of the node, as on the parse stack. */
+		final Symbol symbol;
+		/** The parse state the node was shifted in, for non terminals. */
+		final int state;
+		/** The number of tokens the node covers. */
+		final int size;
+		/** The child nodes of a non terminal, null for a token. */
+		final Node[] children;
+		/** Whether no error recovery took place in the node. */
+		final boolean clean;
+
+		Node(Symbol symbol, int state, int size, Node[] children, boolean clean) {
+			this.symbol = symbol;
+			this.state = state;
+			this.size = size;
+			this.children = children;
+			this.clean = clean;
+		}
+	}
+
+	/** The parser driven by this incremental parser. */
+	private final LRParser parser;
+
+	/** The tokens of the current input. */
+	private final ArrayList<Symbol> tokens = new ArrayList<Symbol>();
+
+	/** The EOF token of the current parse. */
+	private Symbol eof;
+
+	/** The nodes on the parse stack, index 0 for the start symbol. */
+	private Node[] nodes = new Node[64];
+
+	/** The index of the first token of each node on the parse stack. */
+	private int[] starts = new int[64];
+
+	/** The nodes of the previous parse, the roots of the old tree. */
+	private Node[] roots = new Node[0];
+
+	/** The number of tokens covered by the previous parse, without EOF. */
+	private int oldSize;
+
+	/**
+	 * The edit since the previous parse: the index of the first edited token,
+	 * the number of tokens removed and the number of tokens inserted.
+	 */
+	private int editFrom, editRemoved, editInserted;
+
+	/**
+	 * The path from the roots of the old tree to the node at the cursor, with
+	 * the siblings, the index and the index of the first token of the node on
+	 * each level.
+	 */
+	private Node[][] pathSiblings = new Node[16][];
+	private int[] pathIndex = new int[16];
+	private int[] pathStart = new int[16];
+	private int pathDepth;
+
+	/** The number of tokens in the subtrees reused by the last parse. */
+	private int reused;
+
+	/**
+	 * Create an incremental parser.
+	 *
+	 * @param parser the generated parser to drive; it should not be used for
+	 *               other parses while this incremental parser is.
+	 */
+	public IncrementalParser(LRParser parser) {
+		this.parser = parser;
+	}
+
+	/** Return the parser driven by this incremental parser. */
+	public LRParser getParser() {
+		return parser;
+	}
+
+	/** Return the tokens of the current input; the list must not be modified. */
+	public List<Symbol> getTokens() {
+		return Collections.unmodifiableList(tokens);
+	}
+
+	/**
+	 * Return the number of tokens in the subtrees the last parse reused from the
+	 * previous one.
+	 */
+	public int getReusedTokens() {
+		return reused;
+	}
+
+	/**
+	 * Parse a new input from scratch.
+	 *
+	 * @param input the tokens of the input, without EOF.
+	 * @return the Symbol parse() would return.
+	 */
+	public Symbol parse(List<Symbol> input) throws java.lang.Exception {
+		tokens.clear();
+		tokens.addAll(input);
+		roots = new Node[0];
+		oldSize = 0;
+		editFrom = editRemoved = editInserted = 0;
+		return run();
+	}
+
+	/**
+	 * Replace tokens of the input and parse it again, reusing the subtrees of
+	 * the previous parse that the edit left intact.
+	 *
+	 * @param from     the index of the first replaced token.
+	 * @param removed  the number of tokens replaced.
+	 * @param inserted the tokens replacing them.
+	 * @return the Symbol parse() would return.
+	 */
+	public Symbol reparse(int from, int removed, List<Symbol> inserted) throws java.lang.Exception {
+		if (from < 0 || removed < 0 || from + removed > tokens.size())
+			throw new IndexOutOfBoundsException("edit " + from + "+" + removed + " of " + tokens.size() + " tokens");
+		tokens.subList(from, from + removed).clear();
+		tokens.addAll(from, inserted);
+		editFrom = from;
+		editRemoved = removed;
+		editInserted = inserted.size();
+		return run();
+	}
+
+	/** Run the parse loop over the tokens, reusing the old tree. */
+	private Symbol run() throws java.lang.Exception {
+		LRParser parser = this.parser;
+		ParseTable table = parser.parse_table();
+		eof = parser.end_symbol();
+		reused = 0;
+		pathDepth = 0;
+		if (roots.length > 0) {
+			pathSiblings[0] = roots;
+			pathIndex[0] = 0;
+			pathStart[0] = 0;
+			pathDepth = 1;
+		}
+
+		/* a failed parse leaves no tree to reuse */
+		roots = new Node[0];
+		parser.push_start();
+		nodes[0] = null;
+		starts[0] = 0;
+		int position = 0;
+		while (!parser.is_done_parsing()) {
+			Symbol token = token(position);
+			parser.cur_token = token;
+			int state = parser.top_state();
+			int act = table.getAction(state, token.sym);
+
+			/* decode the action: odd encodes shift */
+			if ((act & 1) != 0) {
+				Node node = reusable(position, state);
+				if (node != null) {
+					/* shift the old subtree in its stead */
+					push(node, table.getReduce(state, node.symbol.sym), position);
+					position += node.size;
+					reused += node.size;
+				} else {
+					push(new Node(token, 0, 1, null, true), act >> 1, position);
+					position++;
+				}
+			}
+			/* if its even, then it encodes a reduce action */
+			else if (act != 0) {
+				act = (act >> 1) - 1;
+				Symbol lhs_sym = parser.reduce_action(act);
+				int handle_size = table.getProductionSize(act);
+				parser.pop_symbols(handle_size);
+				int depth = parser.stack_size();
+				int below = parser.top_state();
+				int goto_state = table.getReduce(below, lhs_sym.sym);
+
+				/* the node of the non terminal takes the nodes of its handle */
+				Node[] children = Arrays.copyOfRange(nodes, depth, depth + handle_size);
+				int size = 0;
+				boolean clean = true;
+				for (Node child : children) {
+					size += child.size;
+					clean &= child.clean;
+				}
+				parser.push_symbol(lhs_sym, goto_state);
+				set(depth, new Node(lhs_sym, below, size, children, clean),
+						handle_size > 0 ? starts[depth] : position);
+			}
+			/* finally if the entry is zero, we have an error */
+			else {
+				position = recover(position);
+			}
+		}
+
+		oldSize = tokens.size();
+		roots = Arrays.copyOfRange(nodes, 1, Math.max(1, parser.stack_size()));
+		Arrays.fill(nodes, null);
+		Arrays.fill(pathSiblings, null);
+		return parser.stack_size() == 0 ? null : parser.stack_symbol(parser.stack_size() - 1);
+	}
+
+	/** Return the token at the given index, the EOF token past the end. */
+	private Symbol token(int position) {
+		return position < tokens.size() ? tokens.get(position) : eof;
+	}
+
+	/** Shift a node in the given state; it starts at the given token. */
+	private void push(Node node, int state, int start) {
+		parser.push_symbol(node.symbol, state);
+		set(parser.stack_size() - 1, node, start);
+	}
+
+	/** Record the node of a stack element. */
+	private void set(int depth, Node node, int start) {
+		if (depth >= nodes.length) {
+			nodes = Arrays.copyOf(nodes, 2 * nodes.length);
+			starts = Arrays.copyOf(starts, 2 * starts.length);
+		}
+		nodes[depth] = node;
+		starts[depth] = start;
+	}
+
+	/**
+	 * Recover from a syntax error on the token at the given index, like the
+	 * error recovery of parse() does, with the lookahead taken from the token
+	 * list. The stack elements the recovery pushed become nodes without
+	 * children, which are never reused.
+	 *
+	 * @return the index of the token the parse continues with.
+	 */
+	private int recover(int position) throws java.lang.Exception {
+		LRParser parser = this.parser;
+		Symbol[] lookaheads = parser.lookahead_buffer();
+		parser.syntax_error(parser.cur_token);
+		if (!parser.find_recovery_config(null)) {
+			parser.unrecovered_syntax_error(parser.cur_token);
+			parser.done_parsing();
+		} else {
+			for (int i = 0; i < lookaheads.length; i++)
+				lookaheads[i] = token(position + i);
+			while (!parser.try_recovery(lookaheads)) {
+				/* if we are now at EOF, we have failed */
+				if (lookaheads[0].sym == EOF) {
+					parser.unrecovered_syntax_error(parser.cur_token);
+					parser.done_parsing();
+					break;
+				}
+				/* otherwise, we consume another token and try again */
+				position++;
+				System.arraycopy(lookaheads, 1, lookaheads, 0, lookaheads.length - 1);
+				lookaheads[lookaheads.length - 1] = token(position + lookaheads.length - 1);
+			}
+			if (!parser.is_done_parsing()) {
+				parser.parse_lookahead(null, lookaheads);
+				position += lookaheads.length - 1;
+			}
+		}
+
+		/* keep the nodes of the stack elements the recovery left in place */
+		int depth = 1;
+		int size = parser.stack_size();
+		while (depth < size && nodes[depth] != null && nodes[depth].symbol == parser.stack_symbol(depth))
+			depth++;
+		for (int i = depth; i < size; i++) {
+			int start = i == depth ? starts[i] : position;
+			int covered = i == depth ? position - start : 0;
+			set(i, new Node(parser.stack_symbol(i), 0, covered, null, false), start);
+		}
+		return position;
+	}
+
+	/**
+	 * Return the outermost subtree of the old tree that starts at the given
+	 * token and can be shifted in the given state, or null if there is none.
+	 */
+	private Node reusable(int position, int state) {
+		/* map the index to the old input */
+		int from = editFrom;
+		int old;
+		if (position < from)
+			old = position;
+		else if (position >= from + editInserted)
+			old = position - editInserted + editRemoved;
+		else
+			return null;
+		if (!advance(old))
+			return null;
+		Node node = pathSiblings[pathDepth - 1][pathIndex[pathDepth - 1]];
+		while (node != null) {
+			int end = old + node.size;
+			if (node.children != null && node.clean && node.state == state && end <= oldSize
+					&& (end < from || old >= from + editRemoved))
+				return node;
+			/* try the first child, which starts at the same token */
+			Node first = null;
+			if (node.children != null) {
+				for (Node child : node.children) {
+					if (child.size > 0) {
+						first = child;
+						break;
+					}
+				}
+			}
+			node = first;
+		}
+		return null;
+	}
+
+	/**
+	 * Move the cursor forward to the outermost node of the old tree that starts
+	 * at the given token of the old input.
+	 *
+	 * @return true if such a node exists.
+	 */
+	private boolean advance(int old) {
+		while (pathDepth > 0) {
+			int level = pathDepth - 1;
+			Node[] siblings = pathSiblings[level];
+			if (pathIndex[level] == siblings.length) {
+				/* past the last child, continue after the parent */
+				pathSiblings[level] = null;
+				pathDepth--;
+				if (pathDepth > 0) {
+					Node parent = pathSiblings[level - 1][pathIndex[level - 1]];
+					pathIndex[level - 1]++;
+					pathStart[level - 1] += parent.size;
+				}
+				continue;
+			}
+			Node node = siblings[pathIndex[level]];
+			int start = pathStart[level];
+			if (start + node.size <= old) {
+				/* the node ends before the token */
+				pathIndex[level]++;
+				pathStart[level] += node.size;
+			} else if (start < old && node.children != null) {
+				/* the token is inside the node */
+				if (pathDepth == pathSiblings.length) {
+					pathSiblings = Arrays.copyOf(pathSiblings, 2 * pathDepth);
+					pathIndex = Arrays.copyOf(pathIndex, 2 * pathDepth);
+					pathStart = Arrays.copyOf(pathStart, 2 * pathDepth);
+				}
+				pathSiblings[pathDepth] = node.children;
+				pathIndex[pathDepth] = 0;
+				pathStart[pathDepth] = start;
+				pathDepth++;
+			} else {
+				return start == old;
+			}
+		}
+		return false;
+	}
+}
@@ -2,6 +2,7 @@
 package com.github.jhoenicke.javacup.runtime;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * This class implements a skeleton table driven LR parser. In general, LR
@@ -29,10 +30,19 @@ import java.util.ArrayList;
  * production (also containing the new state) onto the stack.
  * <p>
  *
+ * Two parse engines are available. By default the parse stack is an ArrayList
+ * of Symbols and each Symbol carries its parse state. Parsers generated with
+ * the primitive_stack option use a {@link ParseStack} instead, which keeps the
+ * states in an int array next to the symbols and pops a whole handle at once.
+ * The generated subclass selects the engine by overriding use_parse_stack().
+ * <p>
+ *
  * This class actually provides four LR parsers. The methods parse() and
  * debug_parse() provide two versions of the main parser (the only difference
- * being that debug_parse() emits debugging trace messages as it parses). In
- * addition to these main parsers, the error recovery mechanism uses two more.
+ * being that debug_parse() reports its moves to a {@link ParseListener} that
+ * writes debugging trace messages; parse() does the same when a listener is
+ * installed with setParseListener()). In addition to these main parsers, the
+ * error recovery mechanism uses two more.
  * One of these is used to simulate "parsing ahead" in the input without
  * carrying out actions (to verify that a potential error recovery has worked),
  * and the other is used to parse through buffered "parse ahead" input in order
@@ -88,6 +98,29 @@ import java.util.ArrayList;
  * implementation it invokes:<br>
  * report_fatal_error("Couldn't repair and continue parse", null);
  * </dl>
+ * <p>
+ *
+ * A parser instance parses one input at a time and is not thread safe, but it
+ * may be reused: reset(Scanner) drops the state of the previous parse and
+ * installs the scanner for the next one, keeping the stack storage. The parse
+ * tables are shared by all instances of a generated parser and never change,
+ * so instances can run concurrently in different threads; a
+ * {@link ParserPool} hands out such reusable instances.
+ * <p>
+ *
+ * Instead of pulling its input from the scanner, a parser can also be fed the
+ * tokens as they arrive through a {@link PushParser}. It runs the same tables
+ * and actions, and keeps the parse stack between the calls.
+ * <p>
+ *
+ * A scanner implementing {@link BatchScanner} delivers its tokens in batches
+ * into a {@link TokenBuffer}. On the primitive parse stack these tokens stay
+ * packed into longs, and their Symbols are only created when they are
+ * accessed.
+ * <p>
+ *
+ * An {@link IncrementalParser} parses a list of tokens and reparses it after an
+ * edit, shifting the unchanged subtrees of the previous parse as a whole.
  *
  * @see com.github.jhoenicke.javacup.runtime.Symbol
  * @version last updated: 7/3/96
@@ -117,6 +150,12 @@ public abstract class LRParser {
 	 */
 	private Scanner scanner;
 
+	/**
+	 * The scanner if it is a BatchScanner, else null; checked once when the
+	 * scanner is set instead of for every token.
+	 */
+	private BatchScanner batch_scanner;
+
 	/**
 	 * The number of Symbols after an error we much match to consider it recovered
 	 * from.
@@ -134,6 +173,44 @@ public abstract class LRParser {
 	/** The parse stack itself. */
 	protected ArrayList<Symbol> stack = new ArrayList<Symbol>();
 
+	/**
+	 * The primitive parse stack, used instead of stack by parsers generated with
+	 * the primitive_stack option. It is created by the first parse.
+	 */
+	protected ParseStack parse_stack;
+
+	/** Internal flag to indicate that the current parse runs on parse_stack. */
+	private boolean primitive = false;
+
+	/**
+	 * The lookahead Symbols collected by the error recovery of a push parse, null
+	 * unless it waits for them.
+	 */
+	private Symbol[] push_lookaheads;
+
+	/** The number of Symbols in push_lookaheads. */
+	private int push_count;
+
+	/**
+	 * The buffer of the lookahead Symbols of the error recovery, reused by all
+	 * recoveries; see lookahead_buffer().
+	 */
+	private Symbol[] recovery_lookaheads;
+
+	/**
+	 * The virtual stack of the parse ahead of the error recovery, created by the
+	 * first recovery and reset for every attempt.
+	 */
+	private VirtualParseStack virtual_stack;
+
+	/** The tokens read from a BatchScanner, created by the first batch. */
+	private TokenBuffer tokens;
+
+	/** The listener that observes the parse, or null. */
+	private ParseListener listener;
+
+	/** The recorder of the current parse, or null if it is not recorded. */
+	private ParseRecorder recorder;
 
 	/**
 	 * Simple constructor.
@@ -174,11 +251,35 @@ public abstract class LRParser {
 		return null;
 	}
 
+	/**
+	 * Prepare this parser for a new parse with the given scanner. This drops the
+	 * Symbols of the previous parse, so they can be collected, but keeps the stack
+	 * storage for reuse. Subclasses with per-parse state of their own should
+	 * override this method and call super.reset().
+	 *
+	 * @param scanner the scanner of the next parse, or null to only release the
+	 *                state of the previous parse.
+	 */
+	public void reset(Scanner scanner) {
+		stack.clear();
+		if (parse_stack != null)
+			parse_stack.clear();
+		cur_token = null;
+		doneParsing = false;
+		push_lookaheads = null;
+		if (recovery_lookaheads != null)
+			Arrays.fill(recovery_lookaheads, null);
+		setScanner(scanner);
+	}
+
 	/**
 	 * Simple setter method to set the default scanner.
 	 */
 	public void setScanner(Scanner scanner) {
 		this.scanner = scanner;
+		this.batch_scanner = scanner instanceof BatchScanner ? (BatchScanner) scanner : null;
+		if (tokens != null)
+			tokens.clear();
 	}
 
 	/**
@@ -188,6 +289,41 @@ public abstract class LRParser {
 		return this.scanner;
 	}
 
+	/**
+	 * Install a listener that observes the following parses. It stays installed
+	 * when the parser is reset.
+	 *
+	 * @param listener the listener, or null to parse without one.
+	 */
+	public void setParseListener(ParseListener listener) {
+		this.listener = listener;
+	}
+
+	/** Return the listener that observes the parses, or null. */
+	public ParseListener getParseListener() {
+		return listener;
+	}
+
+	/**
+	 * Return the recorder of the current parse for the parse loop of a parser
+	 * generated with the specialized_parse or direct_parse option. The loop
+	 * reports its shifts and reduces to it, and the error recovery its moves.
+	 *
+	 * @return the recorder, or null if the parse is not recorded.
+	 */
+	protected final ParseListener parse_recorder() {
+		return recorder;
+	}
+
+	/**
+	 * Indicate whether the scanner of the parser is a BatchScanner. The parse
+	 * loop of a parser generated with the specialized_parse or direct_parse
+	 * option leaves such a scanner to the batched loop of parse_loop().
+	 */
+	protected final boolean uses_batch_scanner() {
+		return batch_scanner != null;
+	}
+
 	/**
 	 * This method is called to indicate that the parser should quit. This is
 	 * normally called by an accept action, but can be used to cancel parsing early
@@ -203,16 +339,51 @@ public abstract class LRParser {
 	 */
 	protected abstract ParseTable parse_table();
 
+	/**
+	 * Return the terminals the parser accepts in a state, e.g. to offer them for
+	 * completion. See ParseTable.getExpectedSymbols().
+	 *
+	 * @param state the state index.
+	 * @return the immutable set of the Symbol indices, or null for parsers
+	 *         generated by earlier versions.
+	 */
+	public SymbolSet expected_symbols(int state) {
+		return parse_table().getExpectedSymbols(state);
+	}
+
 	/**
 	 * Perform a bit of user supplied action code (supplied by generated subclass).
 	 * Actions are indexed by an internal action number assigned at parser
-	 * generation time.
+	 * generation time. Parsers generated with the primitive_stack option supply
+	 * do_action(int, ParseStack) instead.
+	 *
+	 * @param act_num the internal index of the action to be performed.
+	 * @param stack   the parse stack of that object.
+	 */
+	protected Symbol do_action(int act_num, ArrayList<Symbol> stack) throws java.lang.Exception {
+		throw new Error("Parser was generated with the primitive_stack option");
+	}
+
+	/**
+	 * Perform a bit of user supplied action code on the primitive parse stack.
+	 * This is supplied by subclasses generated with the primitive_stack option,
+	 * which then also return true from use_parse_stack().
 	 *
 	 * @param act_num the internal index of the action to be performed.
 	 * @param stack   the parse stack of that object.
 	 */
-	protected abstract Symbol do_action(int act_num, ArrayList<Symbol> stack)
-			throws java.lang.Exception;
+	protected Symbol do_action(int act_num, ParseStack stack) throws java.lang.Exception {
+		throw new Error("Parser was not generated with the primitive_stack option");
+	}
+
+	/**
+	 * Select the parse engine. Subclasses generated with the primitive_stack
+	 * option return true, which makes the parser run on parse_stack and call
+	 * do_action(int, ParseStack).
+	 */
+	protected boolean use_parse_stack() {
+		return false;
+	}
 
 	/**
 	 * User code for initialization inside the parser. Typically this initializes
@@ -237,16 +408,44 @@ public abstract class LRParser {
 	 * Symbol (which is Symbol number 0). By default this method returns
 	 * getScanner().next_token(); this implementation can be overriden by the
 	 * generated parser using the code declared in the "scan with" clause. Do not
-	 * recycle objects; every call to scan() should return a fresh object.
+	 * recycle objects; every call to scan() should return a fresh object. A
+	 * {@link BatchScanner} is asked for a batch of tokens when all tokens of the
+	 * previous batch have been returned.
 	 */
 	protected Symbol scan() throws java.lang.Exception {
+		if (batch_scanner != null) {
+			TokenBuffer tokens = fill_tokens(batch_scanner);
+			return tokens.symbol(tokens.position++, batch_scanner);
+		}
 		Symbol sym = getScanner().next_token();
 		if (sym != null)
 			return sym;
+		return end_symbol();
+	}
+
+	/**
+	 * Return the token buffer of a batch scanner, refilled by the scanner if all
+	 * its tokens have been read.
+	 */
+	private TokenBuffer fill_tokens(BatchScanner scanner) throws java.lang.Exception {
+		TokenBuffer tokens = this.tokens;
+		if (tokens == null)
+			tokens = this.tokens = new TokenBuffer();
+		if (tokens.position == tokens.size) {
+			tokens.clear();
+			scanner.next_tokens(tokens);
+			if (tokens.size == 0)
+				tokens.add(EOF, -1, -1, null);
+		}
+		return tokens;
+	}
+
+	/** Create the Symbol that ends the input. */
+	Symbol end_symbol() {
 		if (getSymbolFactory2() != null)
 			return getSymbolFactory2().endSymbol();
 		else
-			return getSymbolFactory().newSymbol("END_OF_FILE", 0);
+			return getSymbolFactory().newSymbol("END_OF_FILE", EOF);
 	}
 
 	/**
@@ -319,9 +518,59 @@ public abstract class LRParser {
 	 * used.
 	 */
 	public Symbol parse() throws java.lang.Exception {
+		ParseRecorder recorder = ParseRecorder.record(this, listener);
+		if (recorder != null)
+			return recorded_parse(recorder);
+		if (listener != null)
+			return listen_parse(listener, false);
+		return parse_loop();
+	}
+
+	/**
+	 * Perform a parse that a JFR recording observes. With a listener installed
+	 * the listener loop runs and the recorder passes the moves on to the
+	 * listener; else the usual loop runs and reports its moves to the recorder.
+	 *
+	 * @param recorder the recorder.
+	 */
+	private Symbol recorded_parse(ParseRecorder recorder) throws java.lang.Exception {
+		this.recorder = recorder;
+		try {
+			if (listener != null)
+				return listen_parse(recorder, false);
+			Symbol result = null;
+			recorder.start_parse();
+			try {
+				result = parse_loop();
+			} finally {
+				recorder.end_parse(result);
+			}
+			return result;
+		} finally {
+			this.recorder = null;
+		}
+	}
+
+	/**
+	 * The parse loop of parse() when no listener is installed, for the parse
+	 * stack and the scanner of the parser. Parsers generated with the
+	 * specialized_parse or direct_parse option override it with their own loop.
+	 */
+	protected Symbol parse_loop() throws java.lang.Exception {
+		if (use_parse_stack()) {
+			if (uses_batch_scanner())
+				return parse_batched(batch_scanner);
+			return parse_primitive();
+		}
+
 		/* the current action code */
 		int act;
 
+		/* the recorder of the parse, or null */
+		ParseRecorder recorder = this.recorder;
+
+		primitive = false;
+
 		/* initialize the action encapsulation object */
 		init_actions();
 
@@ -354,6 +603,8 @@ public abstract class LRParser {
 				/* shift to the encoded state by pushing it on the stack */
 				cur_token.parse_state = parse_state = (act >> 1);
 				stack.add(cur_token);
+				if (recorder != null)
+					recorder.shift(cur_token, parse_state);
 
 				/* advance to the next Symbol */
 				cur_token = scan();
@@ -362,10 +613,15 @@ public abstract class LRParser {
 			else if (act != 0) {
 				act = (act >> 1) - 1;
 				/* perform the action for the reduce */
+				if (recorder != null)
+					recorder.start_reduce(act);
 				Symbol lhs_sym = do_action(act, stack);
 
 				/* look up information about the production */
 				int handle_size = parse_table().getProductionSize(act);
+				if (recorder != null)
+					recorder.reduce(act, lhs_sym, handle_size);
+
 				/* pop the handle off the stack */
 				while (handle_size-- > 0)
 					stack.remove(stack.size() - 1);
@@ -379,7 +635,7 @@ public abstract class LRParser {
 			}
 			/* finally if the entry is zero, we have an error */
 			else {
-				error_recovery(false);
+				error_recovery(recorder);
 				if (!stack.isEmpty())
 					parse_state = stack.get(stack.size() - 1).parse_state;
 			}
@@ -387,6 +643,475 @@ public abstract class LRParser {
 		return stack.isEmpty() ? null : stack.get(stack.size() - 1);
 	}
 
+	/**
+	 * The main parsing routine for the primitive parse stack. It does the same as
+	 * the ArrayList based loop in parse_loop(), but keeps the states in the int
+	 * array of parse_stack and pops the handle of a reduce with a single
+	 * decrement.
+	 */
+	private Symbol parse_primitive() throws java.lang.Exception {
+		/* the current action code */
+		int act;
+
+		primitive = true;
+		if (parse_stack == null)
+			parse_stack = new ParseStack();
+		ParseStack stack = parse_stack;
+		ParseTable table = parse_table();
+
+		/* the recorder of the parse, or null */
+		ParseRecorder recorder = this.recorder;
+
+		/* initialize the action encapsulation object */
+		init_actions();
+
+		/* do user initialization */
+		user_init();
+
+		/* get the first token */
+		cur_token = scan();
+
+		/* push dummy Symbol with start state to get us underway */
+		stack.clear();
+		if (getSymbolFactory2() != null)
+			stack.push(getSymbolFactory2().startSymbol(), 0);
+		else
+			stack.push(getSymbolFactory().startSymbol("START", 0, 0), 0);
+
+		int parse_state = 0;
+
+		doneParsing = false;
+
+		/* continue until we are told to stop */
+		while (!doneParsing) {
+			/* current state is always on the top of the stack and in parse_state */
+
+			/* look up action out of the current state with the current input */
+			act = table.getAction(parse_state, cur_token.sym);
+
+			/* decode the action: odd encodes shift */
+			if ((act & 1) != 0) {
+				/* shift to the encoded state by pushing it on the stack */
+				parse_state = act >> 1;
+				stack.push(cur_token, parse_state);
+				if (recorder != null)
+					recorder.shift(cur_token, parse_state);
+
+				/* advance to the next Symbol */
+				cur_token = scan();
+			}
+			/* if its even, then it encodes a reduce action */
+			else if (act != 0) {
+				act = (act >> 1) - 1;
+				/* perform the action for the reduce */
+				if (recorder != null)
+					recorder.start_reduce(act);
+				Symbol lhs_sym = do_action(act, stack);
+				if (recorder != null)
+					recorder.reduce(act, lhs_sym, table.getProductionSize(act));
+
+				/* pop the handle off the stack */
+				stack.pop(table.getProductionSize(act));
+
+				/* look up the state to go to from the one popped back to */
+				parse_state = table.getReduce(stack.topState(), lhs_sym.sym);
+
+				/* shift to that state */
+				stack.push(lhs_sym, parse_state);
+			}
+			/* finally if the entry is zero, we have an error */
+			else {
+				error_recovery(recorder);
+				if (!stack.isEmpty())
+					parse_state = stack.topState();
+			}
+		}
+		return stack.isEmpty() ? null : stack.top();
+	}
+
+	/**
+	 * Start a parse on the primitive parse stack for the parse loop of a parser
+	 * generated with the specialized_parse option. This initializes the actions,
+	 * reads the first token into cur_token and pushes the start state, like
+	 * parse() does.
+	 *
+	 * @return the parse stack.
+	 */
+	protected final ParseStack begin_parse() throws java.lang.Exception {
+		primitive = true;
+		if (parse_stack == null)
+			parse_stack = new ParseStack();
+		ParseStack stack = parse_stack;
+
+		init_actions();
+		user_init();
+		cur_token = scan();
+
+		stack.clear();
+		if (getSymbolFactory2() != null)
+			stack.push(getSymbolFactory2().startSymbol(), 0);
+		else
+			stack.push(getSymbolFactory().startSymbol("START", 0, 0), 0);
+		doneParsing = false;
+		return stack;
+	}
+
+	/** Indicate whether done_parsing() has been called during this parse. */
+	protected final boolean is_done_parsing() {
+		return doneParsing;
+	}
+
+	/**
+	 * Recover from a syntax error on cur_token in the parse loop of a parser
+	 * generated with the specialized_parse option.
+	 *
+	 * @return the parse state on top of the stack after the recovery.
+	 */
+	protected final int recover() throws java.lang.Exception {
+		error_recovery(recorder);
+		return parse_stack.isEmpty() ? 0 : parse_stack.topState();
+	}
+
+	/**
+	 * The main parsing routine for the primitive parse stack and a BatchScanner.
+	 * The lookahead is read from the token buffer by its symbol number, and a
+	 * shifted token is pushed without a Symbol; the stack lets the scanner create
+	 * it when an action or the error recovery accesses it. Only on an error the
+	 * lookahead becomes a Symbol in cur_token, and the loop uses cur_token until
+	 * it is shifted.
+	 */
+	private Symbol parse_batched(BatchScanner scanner) throws java.lang.Exception {
+		/* the current action code */
+		int act;
+
+		primitive = true;
+		if (parse_stack == null)
+			parse_stack = new ParseStack();
+		ParseStack stack = parse_stack;
+		ParseTable table = parse_table();
+
+		/* the recorder of the parse, or null */
+		ParseRecorder recorder = this.recorder;
+
+		/* initialize the action encapsulation object */
+		init_actions();
+
+		/* do user initialization */
+		user_init();
+
+		/* the lookahead is read from the buffer */
+		cur_token = null;
+
+		/* push dummy Symbol with start state to get us underway */
+		stack.clear();
+		stack.setSource(scanner);
+		if (getSymbolFactory2() != null)
+			stack.push(getSymbolFactory2().startSymbol(), 0);
+		else
+			stack.push(getSymbolFactory().startSymbol("START", 0, 0), 0);
+
+		int parse_state = 0;
+
+		doneParsing = false;
+
+		/* continue until we are told to stop */
+		while (!doneParsing) {
+			/* current state is always on the top of the stack and in parse_state */
+			TokenBuffer tokens = null;
+			int sym;
+			if (cur_token != null) {
+				sym = cur_token.sym;
+			} else {
+				tokens = fill_tokens(scanner);
+				sym = tokens.id(tokens.position);
+			}
+
+			/* look up action out of the current state with the current input */
+			act = table.getAction(parse_state, sym);
+
+			/* decode the action: odd encodes shift */
+			if ((act & 1) != 0) {
+				/* shift to the encoded state by pushing it on the stack */
+				parse_state = act >> 1;
+				if (tokens != null) {
+					stack.pushToken(tokens, tokens.position++, parse_state);
+					if (recorder != null)
+						recorder.shift(null, parse_state);
+				} else {
+					stack.push(cur_token, parse_state);
+					if (recorder != null)
+						recorder.shift(cur_token, parse_state);
+					cur_token = null;
+				}
+			}
+			/* if its even, then it encodes a reduce action */
+			else if (act != 0) {
+				act = (act >> 1) - 1;
+				/* perform the action for the reduce */
+				if (recorder != null)
+					recorder.start_reduce(act);
+				Symbol lhs_sym = do_action(act, stack);
+				if (recorder != null)
+					recorder.reduce(act, lhs_sym, table.getProductionSize(act));
+
+				/* pop the handle off the stack */
+				stack.pop(table.getProductionSize(act));
+
+				/* look up the state to go to from the one popped back to */
+				parse_state = table.getReduce(stack.topState(), lhs_sym.sym);
+
+				/* shift to that state */
+				stack.push(lhs_sym, parse_state);
+			}
+			/* finally if the entry is zero, we have an error */
+			else {
+				if (cur_token == null)
+					cur_token = scan();
+				error_recovery(recorder);
+				if (!stack.isEmpty())
+					parse_state = stack.topState();
+			}
+		}
+		return stack.isEmpty() ? null : stack.top();
+	}
+
+	/**
+	 * Start a push parse, see PushParser. This initializes the actions and the
+	 * parse stack like parse() does, but does not read a token.
+	 */
+	void push_start() throws java.lang.Exception {
+		primitive = use_parse_stack();
+		if (primitive && parse_stack == null)
+			parse_stack = new ParseStack();
+		stack.clear();
+		if (parse_stack != null)
+			parse_stack.clear();
+		push_lookaheads = null;
+		cur_token = null;
+
+		/* initialize the action encapsulation object */
+		init_actions();
+
+		/* do user initialization */
+		user_init();
+
+		/* push dummy Symbol with start state to get us underway */
+		if (getSymbolFactory2() != null)
+			push_symbol(getSymbolFactory2().startSymbol(), 0);
+		else
+			push_symbol(getSymbolFactory().startSymbol("START", 0, 0), 0);
+
+		doneParsing = false;
+	}
+
+	/**
+	 * Feed the next token to a push parse. This reduces until the token is
+	 * shifted, the input is accepted or a syntax error cannot be recovered from.
+	 * After a syntax error the tokens are collected until the error recovery has
+	 * the lookahead it needs.
+	 *
+	 * @param token the next token.
+	 * @return the status of the parse after this token.
+	 */
+	PushParser.Status push_token(Symbol token) throws java.lang.Exception {
+		if (push_lookaheads == null) {
+			cur_token = token;
+			return push_advance();
+		}
+		push_lookaheads[push_count++] = token;
+		return push_recover();
+	}
+
+	/** Return the Symbol on top of the stack of an accepted push parse. */
+	Symbol push_result() {
+		return stack_size() == 0 ? null : stack_symbol(stack_size() - 1);
+	}
+
+	/** Run the parse loop on cur_token until it is shifted. */
+	private PushParser.Status push_advance() throws java.lang.Exception {
+		if (primitive)
+			return push_advance_primitive();
+		ParseTable table = parse_table();
+		int parse_state = stack.get(stack.size() - 1).parse_state;
+		while (!doneParsing) {
+			int act = table.getAction(parse_state, cur_token.sym);
+
+			/* decode the action: odd encodes shift */
+			if ((act & 1) != 0) {
+				cur_token.parse_state = parse_state = act >> 1;
+				stack.add(cur_token);
+				/* the scanner repeats the end of input, so can we */
+				if (cur_token.sym != EOF) {
+					cur_token = null;
+					return PushParser.Status.NEED_MORE;
+				}
+			}
+			/* if its even, then it encodes a reduce action */
+			else if (act != 0) {
+				act = (act >> 1) - 1;
+				Symbol lhs_sym = do_action(act, stack);
+				int handle_size = table.getProductionSize(act);
+				while (handle_size-- > 0)
+					stack.remove(stack.size() - 1);
+				parse_state = table.getReduce(stack.get(stack.size() - 1).parse_state, lhs_sym.sym);
+				lhs_sym.parse_state = parse_state;
+				stack.add(lhs_sym);
+			}
+			/* finally if the entry is zero, we have an error */
+			else {
+				return push_error();
+			}
+		}
+		return PushParser.Status.ACCEPTED;
+	}
+
+	/** The parse loop of push_advance() on the primitive parse stack. */
+	private PushParser.Status push_advance_primitive() throws java.lang.Exception {
+		ParseStack stack = parse_stack;
+		ParseTable table = parse_table();
+		int parse_state = stack.topState();
+		while (!doneParsing) {
+			int act = table.getAction(parse_state, cur_token.sym);
+
+			/* decode the action: odd encodes shift */
+			if ((act & 1) != 0) {
+				parse_state = act >> 1;
+				stack.push(cur_token, parse_state);
+				/* the scanner repeats the end of input, so can we */
+				if (cur_token.sym != EOF) {
+					cur_token = null;
+					return PushParser.Status.NEED_MORE;
+				}
+			}
+			/* if its even, then it encodes a reduce action */
+			else if (act != 0) {
+				act = (act >> 1) - 1;
+				Symbol lhs_sym = do_action(act, stack);
+				stack.pop(table.getProductionSize(act));
+				parse_state = table.getReduce(stack.topState(), lhs_sym.sym);
+				stack.push(lhs_sym, parse_state);
+			}
+			/* finally if the entry is zero, we have an error */
+			else {
+				return push_error();
+			}
+		}
+		return PushParser.Status.ACCEPTED;
+	}
+
+	/**
+	 * Start the error recovery of a push parse with the first step of
+	 * error_recovery(), which needs no lookahead.
+	 */
+	private PushParser.Status push_error() throws java.lang.Exception {
+		syntax_error(cur_token);
+		if (!find_recovery_config(null)) {
+			unrecovered_syntax_error(cur_token);
+			done_parsing();
+			return PushParser.Status.ERROR;
+		}
+		push_lookaheads = lookahead_buffer();
+		push_lookaheads[0] = cur_token;
+		push_count = 1;
+		return push_recover();
+	}
+
+	/**
+	 * Continue the error recovery of a push parse with the collected lookahead,
+	 * like error_recovery() does with the scanned one. A Symbol that cannot
+	 * follow the error Symbol is skipped as soon as it arrives.
+	 */
+	private PushParser.Status push_recover() throws java.lang.Exception {
+		Symbol[] lookaheads = push_lookaheads;
+		for (;;) {
+			if (push_count == 0)
+				return PushParser.Status.NEED_MORE;
+			if (parse_table().isExpected(top_state(), lookaheads[0].sym)) {
+				if (push_count < lookaheads.length) {
+					/* the scanner repeats the end of input, so can we */
+					Symbol last = lookaheads[push_count - 1];
+					if (last.sym != EOF)
+						return PushParser.Status.NEED_MORE;
+					while (push_count < lookaheads.length)
+						lookaheads[push_count++] = last;
+				}
+
+				if (try_parse_ahead(lookaheads))
+					break;
+			} else {
+				/* the recovery cannot resume on it, whatever follows */
+				cur_token = lookaheads[0];
+			}
+
+			/* if we are now at EOF, we have failed */
+			if (lookaheads[0].sym == EOF) {
+				push_lookaheads = null;
+				Arrays.fill(lookaheads, null);
+				unrecovered_syntax_error(cur_token);
+				done_parsing();
+				return PushParser.Status.ERROR;
+			}
+
+			/* otherwise, we consume another Symbol and wait for the next */
+			System.arraycopy(lookaheads, 1, lookaheads, 0, lookaheads.length - 1);
+			push_count--;
+		}
+
+		push_lookaheads = null;
+		parse_lookahead(null, lookaheads);
+		return push_advance();
+	}
+
+	/*
+	 * The following helpers give the parse with a listener, the error recovery and
+	 * the IncrementalParser uniform access to whichever parse stack is in use.
+	 */
+
+	/** Return the number of elements on the parse stack. */
+	int stack_size() {
+		return primitive ? parse_stack.size() : stack.size();
+	}
+
+	/** Return the symbol at the given position from the bottom of the stack. */
+	Symbol stack_symbol(int index) {
+		return primitive ? parse_stack.get(index) : stack.get(index);
+	}
+
+	/** Return the parse state at the given position from the bottom of the stack. */
+	private int stack_state(int index) {
+		return primitive ? parse_stack.getState(index) : stack.get(index).parse_state;
+	}
+
+	/** Return the parse state on top of the stack. */
+	int top_state() {
+		return stack_state(stack_size() - 1);
+	}
+
+	/** Push a symbol and the parse state reached by shifting it. */
+	void push_symbol(Symbol sym, int state) {
+		if (primitive) {
+			parse_stack.push(sym, state);
+		} else {
+			sym.parse_state = state;
+			stack.add(sym);
+		}
+	}
+
+	/** Pop the handle of a production off the stack. */
+	void pop_symbols(int handle_size) {
+		if (primitive) {
+			parse_stack.pop(handle_size);
+		} else {
+			while (handle_size-- > 0)
+				stack.remove(stack.size() - 1);
+		}
+	}
+
+	/** Run the action code of a production on the stack in use. */
+	Symbol reduce_action(int act) throws java.lang.Exception {
+		return primitive ? do_action(act, parse_stack) : do_action(act, stack);
+	}
+
 	/**
 	 * Write a debugging message to System.err for the debugging version of the
 	 * parser.
@@ -400,7 +1125,7 @@ public abstract class LRParser {
 	/** Dump the parse stack for debugging purposes. */
 	@SuppressWarnings("unused")
 	private void dump_stack() {
-		if (stack == null) {
+		if (primitive ? parse_stack == null : stack == null) {
 			debug_message("# Stack dump requested, but stack is null");
 			return;
 		}
@@ -408,42 +1133,21 @@ public abstract class LRParser {
 		debug_message("============ Parse Stack Dump ============");
 
 		/* dump the stack */
-		for (int i = 0; i < stack.size(); i++) {
-			debug_message("Symbol: " + stack.get(i).sym + " State: " + stack.get(i).parse_state);
+		for (int i = 0; i < stack_size(); i++) {
+			debug_message("Symbol: " + stack_symbol(i).sym + " State: " + stack_state(i));
 		}
 		debug_message("==========================================");
 	}
 
-	/**
-	 * Do debug output for a reduce.
-	 *
-	 * @param prod_num the production we are reducing with.
-	 * @param nt       the nonterminal to display.
-	 * @param rhs_size the size of the RHS.
-	 */
-	private void debug_reduce(int prod_num, Symbol nt, int rhs_size) {
-		debug_message("# Reduce with prod #" + prod_num + " [NT=" + nt + ", " + "SZ=" + rhs_size + "]");
-	}
-
-	/**
-	 * Do debug output for shift.
-	 *
-	 * @param shift_tkn the Symbol being shifted onto the stack.
-	 */
-	private void debug_shift(Symbol shift_tkn) {
-		debug_message("# Shift under term " + shift_tkn + " to state #" + shift_tkn.parse_state);
-	}
-
 	/**
 	 * Do debug output for stack state. [CSA]
 	 */
 	@SuppressWarnings("unused")
 	private void debug_stack() {
 		StringBuffer sb = new StringBuffer("## STACK:");
-		for (int i = 0; i < stack.size(); i++) {
-			Symbol s = stack.get(i);
-			sb.append(" <state " + s.parse_state + ", sym " + s.sym + ">");
-			if ((i % 3) == 2 || (i == (stack.size() - 1))) {
+		for (int i = 0; i < stack_size(); i++) {
+			sb.append(" <state " + stack_state(i) + ", sym " + stack_symbol(i).sym + ">");
+			if ((i % 3) == 2 || (i == (stack_size() - 1))) {
 				debug_message(sb.toString());
 				sb = new StringBuffer("         ");
 			}
@@ -452,16 +1156,40 @@ public abstract class LRParser {
 
 	/**
 	 * Perform a parse with debugging output. This does exactly the same things as
-	 * parse(), except that it calls debug_shift() and debug_reduce() when shift and
-	 * reduce moves are taken by the parser and produces various other debugging
-	 * messages.
+	 * parse(), except that it reports the moves of the parser as debugging
+	 * messages, through a listener that replaces the installed one for this
+	 * parse.
 	 */
 	public Symbol debug_parse() throws java.lang.Exception {
+		debug_message("# Initializing parser");
+		return listen_parse(new DebugListener(), true);
+	}
+
+	/**
+	 * The main parsing routine with a listener, for both parse stacks. It does the
+	 * same as the loops of parse(), but reports every move to the listener. For
+	 * debug_parse() it also checks, as it always did, that every token is a
+	 * fresh Symbol; a listener that only observes leaves the parse as it is.
+	 *
+	 * @param listener    the listener.
+	 * @param check_fresh whether a recycled Symbol is an Error.
+	 */
+	private Symbol listen_parse(ParseListener listener, boolean check_fresh) throws java.lang.Exception {
+		Symbol result = null;
+		listener.start_parse();
+		try {
+			result = listen_loop(listener, check_fresh);
+		} finally {
+			listener.end_parse(result);
+		}
+		return result;
+	}
+
+	/** The loop of listen_parse(), between the start and the end of the parse. */
+	private Symbol listen_loop(ParseListener listener, boolean check_fresh) throws java.lang.Exception {
 		/* the current action code */
 		int act;
 
-		debug_message("# Initializing parser");
-
 		/* initialize the action encapsulation object */
 		init_actions();
 
@@ -471,77 +1199,114 @@ public abstract class LRParser {
 		/* the current Symbol */
 		cur_token = scan();
 
-		debug_message("# Current Symbol is #" + cur_token.sym);
-
 		/* push dummy Symbol with start state to get us underway */
-		stack.clear();
+		primitive = use_parse_stack();
+		if (primitive && parse_stack == null)
+			parse_stack = new ParseStack();
+		if (primitive)
+			parse_stack.clear();
+		else
+			stack.clear();
 		if (getSymbolFactory2() != null)
-			stack.add(getSymbolFactory2().startSymbol());
+			push_symbol(getSymbolFactory2().startSymbol(), 0);
 		else
-			stack.add(getSymbolFactory().startSymbol("START", 0, 0));
+			push_symbol(getSymbolFactory().startSymbol("START", 0, 0), 0);
 		int parse_state = 0;
 		doneParsing = false;
-		
+
 		/* continue until we are told to stop */
 		while (!doneParsing) {
 			/* Check current token for freshness. */
-			if (cur_token.used_by_parser)
+			if (check_fresh && cur_token.used_by_parser)
 				throw new Error("Symbol recycling detected (fix your scanner).");
 
-			/* current state is always on the top of the stack */
-			// debug_stack();
-
 			/* look up action out of the current state with the current input */
 			act = parse_table().getAction(parse_state, cur_token.sym);
 
 			/* decode the action: odd encodes shift */
 			if ((act & 1) != 0) {
 				/* shift to the encoded state by pushing it on the stack */
-				cur_token.parse_state = parse_state = (act >> 1);
-				cur_token.used_by_parser = true;
-				debug_shift(cur_token);
-				stack.add(cur_token);
+				parse_state = (act >> 1);
+				if (check_fresh)
+					cur_token.used_by_parser = true;
+				push_symbol(cur_token, parse_state);
+				listener.shift(cur_token, parse_state);
 
 				/* advance to the next Symbol */
 				cur_token = scan();
-				debug_message("# Current token is " + cur_token);
 			}
 			/* if its even, then it encodes a reduce action */
 			else if (act != 0) {
 				act = (act >> 1) - 1;
 				/* perform the action for the reduce */
-				Symbol lhs_sym = do_action(act, stack);
+				listener.start_reduce(act);
+				Symbol lhs_sym = reduce_action(act);
 
 				/* look up information about the production */
 				int handle_size = parse_table().getProductionSize(act);
-
-				debug_reduce(act, lhs_sym, handle_size);
+				listener.reduce(act, lhs_sym, handle_size);
 
 				/* pop the handle off the stack */
-				while (handle_size-- > 0)
-					stack.remove(stack.size() - 1);
+				pop_symbols(handle_size);
 
 				/* look up the state to go to from the one popped back to */
-				act = parse_table().getReduce(stack.get(stack.size() - 1).parse_state, lhs_sym.sym);
-				debug_message("# Reduce rule: top state " + stack.get(stack.size() - 1).parse_state + ", lhs sym "
-						+ lhs_sym.sym + " -> state " + act);
+				parse_state = parse_table().getReduce(top_state(), lhs_sym.sym);
 
 				/* shift to that state */
-				lhs_sym.parse_state = parse_state = act;
-				lhs_sym.used_by_parser = true;
-				stack.add(lhs_sym);
-
-				debug_message("# Goto state #" + act);
+				if (check_fresh)
+					lhs_sym.used_by_parser = true;
+				push_symbol(lhs_sym, parse_state);
+				listener.goto_state(lhs_sym, parse_state);
 			}
 			/* finally if the entry is zero, we have an error */
 			else {
 				/* try to error recover */
-				error_recovery(true);
-				if (!stack.isEmpty())
-					parse_state = stack.get(stack.size() - 1).parse_state;
+				error_recovery(listener);
+				if (stack_size() > 0)
+					parse_state = top_state();
 			}
 		}
-		return stack.isEmpty() ? null : stack.get(stack.size() - 1);
+		return stack_size() == 0 ? null : stack_symbol(stack_size() - 1);
+	}
+
+	/** The listener of debug_parse(), which writes the moves to System.err. */
+	private class DebugListener implements ParseListener {
+
+		@Override
+		public void shift(Symbol token, int state) {
+			debug_message("# Shift under term " + token + " to state #" + state);
+		}
+
+		@Override
+		public void reduce(int rule, Symbol lhs, int handle_size) {
+			debug_message("# Reduce with prod #" + rule + " [NT=" + lhs + ", " + "SZ=" + handle_size + "]");
+		}
+
+		@Override
+		public void goto_state(Symbol lhs, int state) {
+			debug_message("# Goto state #" + state);
+		}
+
+		@Override
+		public void syntax_error(Symbol token, int state) {
+			debug_message("# Syntax error on Symbol #" + token.sym + " in state #" + state);
+			debug_message("# Attempting error recovery");
+		}
+
+		@Override
+		public void pop(Symbol sym, int state) {
+			debug_message("# Pop stack by one, state was # " + state);
+		}
+
+		@Override
+		public void skip(Symbol token) {
+			debug_message("# Consuming Symbol #" + token.sym);
+		}
+
+		@Override
+		public void recovery(boolean recovered) {
+			debug_message(recovered ? "# Error recovery succeeds" : "# Error recovery fails");
+		}
 	}
 
 	/**
@@ -563,22 +1328,22 @@ public abstract class LRParser {
 	 * real parse configuration and executing all actions. Finally, we return the
 	 * the normal parser to continue with the overall parse.
 	 *
-	 * @param debug should we produce debugging messages as we parse.
+	 * @param listener the listener to report the moves to, or null.
 	 */
-	private void error_recovery(boolean debug) throws java.lang.Exception {
+	private void error_recovery(ParseListener listener) throws java.lang.Exception {
 		/* call user syntax error reporting routine */
 		syntax_error(cur_token);
 
-		if (debug)
-			debug_message("# Attempting error recovery");
+		if (listener != null)
+			listener.syntax_error(cur_token, top_state());
 
 		/*
 		 * first pop the stack back into a state that can shift on error and do that
 		 * shift (if that fails, we fail)
 		 */
-		if (!find_recovery_config(debug)) {
-			if (debug)
-				debug_message("# Error recovery fails");
+		if (!find_recovery_config(listener)) {
+			if (listener != null)
+				listener.recovery(false);
 
 			/* if that fails give up with a fatal syntax error */
 			unrecovered_syntax_error(cur_token);
@@ -590,7 +1355,7 @@ public abstract class LRParser {
 		}
 
 		/* read ahead to create lookahead we can parse multiple times */
-		Symbol[] lookaheads = new Symbol[error_sync_size()];
+		Symbol[] lookaheads = lookahead_buffer();
 		lookaheads[0] = cur_token;
 		for (int i = 1; i < lookaheads.length; i++) {
 			lookaheads[i] = scan();
@@ -599,16 +1364,15 @@ public abstract class LRParser {
 		/* repeatedly try to parse forward until we make it the required dist */
 		for (;;) {
 			/* try to parse forward, if it makes it, bail out of loop */
-			if (debug)
-				debug_message("# Trying to parse ahead");
-			if (try_parse_ahead(debug, lookaheads)) {
+			if (try_recovery(lookaheads)) {
 				break;
 			}
 
 			/* if we are now at EOF, we have failed */
 			if (lookaheads[0].sym == EOF) {
-				if (debug)
-					debug_message("# Error recovery fails at EOF");
+				if (listener != null)
+					listener.recovery(false);
+				Arrays.fill(lookaheads, null);
 				/* if that fails give up with a fatal syntax error */
 				unrecovered_syntax_error(cur_token);
 
@@ -624,8 +1388,8 @@ public abstract class LRParser {
 			// Auckland, New Zealand.
 			// It is the first token that is being consumed, not the one
 			// we were up to parsing
-			if (debug)
-				debug_message("# Consuming Symbol #" + lookaheads[0].sym);
+			if (listener != null)
+				listener.skip(lookaheads[0]);
 
 			/* move all the existing input over */
 			for (int i = 1; i < lookaheads.length; i++)
@@ -633,86 +1397,106 @@ public abstract class LRParser {
 			lookaheads[lookaheads.length - 1] = scan();
 		}
 
-		/* we have consumed to a point where we can parse forward */
-		if (debug)
-			debug_message("# Parse-ahead ok, going back to normal parse");
-
 		/* do the real parse (including actions) across the lookahead */
-		parse_lookahead(debug, lookaheads);
+		parse_lookahead(listener, lookaheads);
+
+		if (listener != null)
+			listener.recovery(true);
 
 		/* we have success */
 		return;
 	}
 
+	/**
+	 * Return the buffer for the error_sync_size() lookahead Symbols of an error
+	 * recovery. The parser reuses one buffer for all recoveries; parse_lookahead()
+	 * empties it, so it does not keep the Symbols alive.
+	 */
+	Symbol[] lookahead_buffer() {
+		int size = error_sync_size();
+		if (recovery_lookaheads == null || recovery_lookaheads.length != size)
+			recovery_lookaheads = new Symbol[size];
+		return recovery_lookaheads;
+	}
+
+	/**
+	 * Try to parse ahead over the lookahead Symbols after the error Symbol was
+	 * shifted, see try_parse_ahead(). If the parse table tells that the first
+	 * Symbol cannot follow the error Symbol, the parse ahead would fail on it
+	 * right away, so it is not tried.
+	 */
+	boolean try_recovery(Symbol[] lookaheads) throws java.lang.Exception {
+		if (!parse_table().isExpected(top_state(), lookaheads[0].sym)) {
+			cur_token = lookaheads[0];
+			return false;
+		}
+		return try_parse_ahead(lookaheads);
+	}
+
 	/**
 	 * Put the (real) parse stack into error recovery configuration by popping the
 	 * stack down to a state that can shift on the special error Symbol, then doing
 	 * the shift. If no suitable state exists on the stack we return false
 	 *
-	 * @param debug should we produce debugging messages as we parse.
+	 * @param listener the listener to report the moves to, or null.
 	 */
-	private boolean find_recovery_config(boolean debug) throws Exception {
+	boolean find_recovery_config(ParseListener listener) throws Exception {
 		Symbol error_token;
 		int act;
 
-		if (debug)
-			debug_message("# Finding recovery state on stack");
-
 		/* Remember the right-position of the top symbol on the stack */
-		Symbol right = stack.get(stack.size() - 1);
+		Symbol right = stack_symbol(stack_size() - 1);
 		Symbol left = cur_token;
 
 		/*
 		 * Now fire reduce actions that have error as lookahead; and pop when the action
 		 * cannot handle errors.
 		 */
-		while (((act = parse_table().getAction(stack.get(stack.size() - 1).parse_state, ERROR)) & 1) == 0) {
+		while (((act = parse_table().getAction(top_state(), ERROR)) & 1) == 0) {
 			if (act == 0) {
-				/* pop the stack */
-				if (debug)
-					debug_message("# Pop stack by one, state was # " + stack.get(stack.size() - 1).parse_state);
-				left = stack.remove(stack.size() - 1);
+				/* pop the stack down to the next state that can handle error */
+				int depth = stack_size() - 1;
+				while (depth > 0 && !parse_table().canRecover(stack_state(depth - 1)))
+					depth--;
+				if (listener != null)
+					for (int i = stack_size() - 1; i >= depth; i--)
+						listener.pop(stack_symbol(i), stack_state(i));
+				left = stack_symbol(depth);
+				pop_symbols(stack_size() - depth);
 
 				/* if we have hit bottom, we fail */
-				if (stack.isEmpty()) {
-					if (debug)
-						debug_message("# No recovery state found on stack");
+				if (stack_size() == 0)
 					return false;
-				}
 			} else {
 				/* reduce under error symbol */
 				act = (act >> 1) - 1;
 				/* perform the action for the reduce */
-				Symbol lhs_sym = do_action(act, stack);
+				if (listener != null)
+					listener.start_reduce(act);
+				Symbol lhs_sym = reduce_action(act);
 
 				/* look up information about the production */
 				int handle_size = parse_table().getProductionSize(act);
 
-				if (debug)
-					debug_reduce(act, lhs_sym, handle_size);
+				if (listener != null)
+					listener.reduce(act, lhs_sym, handle_size);
 
 				/* pop the handle off the stack */
-				while (handle_size-- > 0)
-					stack.remove(stack.size() - 1);
+				pop_symbols(handle_size);
 
 				/* look up the state to go to from the one popped back to */
-				act = parse_table().getReduce(stack.get(stack.size() - 1).parse_state, lhs_sym.sym);
+				act = parse_table().getReduce(top_state(), lhs_sym.sym);
 
 				/* shift to that state */
-				lhs_sym.parse_state = act;
 				lhs_sym.used_by_parser = true;
-				stack.add(lhs_sym);
+				push_symbol(lhs_sym, act);
 
-				if (debug)
-					debug_message("# Goto state #" + act);
+				if (listener != null)
+					listener.goto_state(lhs_sym, act);
 			}
 		}
 
 		/* state on top of the stack can shift under error */
-		if (debug) {
-			debug_message("# Recover state found (#" + stack.get(stack.size() - 1).parse_state + ")");
-			debug_message("# Shifting on error to state #" + (act - 1));
-		}
 
 		/* build and shift a special error Symbol */
 		if (getSymbolFactory2() != null)
@@ -720,9 +1504,10 @@ public abstract class LRParser {
 		else
 			error_token = getSymbolFactory().newSymbol("ERROR", 1, left, right);
 
-		error_token.parse_state = (act >> 1);
 		error_token.used_by_parser = true;
-		stack.add(error_token);
+		push_symbol(error_token, act >> 1);
+		if (listener != null)
+			listener.shift(error_token, act >> 1);
 
 		return true;
 	}
@@ -733,14 +1518,18 @@ public abstract class LRParser {
 	 * true if we make it all the way through the stored lookahead input without
 	 * error. This basically simulates the action of parse() using only our saved
 	 * "parse ahead" input, and not executing any actions.
-	 *
-	 * @param debug should we produce debugging messages as we parse.
 	 */
-	private boolean try_parse_ahead(boolean debug, Symbol[] lookaheads) throws java.lang.Exception {
+	boolean try_parse_ahead(Symbol[] lookaheads) throws java.lang.Exception {
 		int act;
 
-		/* create a virtual stack from the real parse stack */
-		VirtualParseStack vstack = new VirtualParseStack(stack);
+		/* shadow the real parse stack with the virtual stack */
+		VirtualParseStack vstack = virtual_stack;
+		if (vstack == null)
+			virtual_stack = vstack = new VirtualParseStack();
+		if (primitive)
+			vstack.reset(parse_stack);
+		else
+			vstack.reset(stack);
 		int parse_state = vstack.top();
 		int lookahead_pos = 0;
 		cur_token = lookaheads[lookahead_pos++];
@@ -757,9 +1546,6 @@ public abstract class LRParser {
 				/* push the new state on the stack */
 				vstack.push(parse_state);
 
-				if (debug)
-					debug_message("# Parse-ahead shifts Symbol #" + cur_token.sym + " into state #" + parse_state);
-
 				/* advance simulated input, if we run off the end, we are done */
 				if (lookahead_pos == lookaheads.length)
 					return true;
@@ -770,11 +1556,8 @@ public abstract class LRParser {
 				act = (act >> 1) - 1;
 
 				/* if this is a reduce with the start production we are done */
-				if (act == 0) {
-					if (debug)
-						debug_message("# Parse-ahead accepts");
+				if (act == 0)
 					return true;
-				}
 
 				/* get the lhs Symbol and the rhs size */
 				int lhs = parse_table().getProductionSymbol(act);
@@ -783,15 +1566,9 @@ public abstract class LRParser {
 				/* pop handle off the stack */
 				vstack.pop(rhs_size);
 
-				if (debug)
-					debug_message("# Parse-ahead reduces: handle size = " + rhs_size + " lhs = #" + lhs
-							+ " from state #" + vstack.top());
-
 				/* look up goto and push it onto the stack */
 				parse_state = parse_table().getReduce(vstack.top(), lhs);
 				vstack.push(parse_state);
-				if (debug)
-					debug_message("# Goto state #" + vstack.top());
 			}
 			/* if its an error, we fail */
 			else
@@ -807,9 +1584,9 @@ public abstract class LRParser {
 	 * and modifies the real parse configuration. This returns once we have consumed
 	 * all the stored input or we accept.
 	 *
-	 * @param debug should we produce debugging messages as we parse.
+	 * @param listener the listener to report the moves to, or null.
 	 */
-	private void parse_lookahead(boolean debug, Symbol[] lookaheads) throws java.lang.Exception {
+	void parse_lookahead(ParseListener listener, Symbol[] lookaheads) throws java.lang.Exception {
 		/* the current action code */
 		int act;
 
@@ -820,67 +1597,57 @@ public abstract class LRParser {
 		int lookahead_pos = 0;
 		cur_token = lookaheads[lookahead_pos++];
 
-		if (debug) {
-			debug_message("# Reparsing saved input with actions");
-			debug_message("# Current Symbol is #" + cur_token.sym);
-			debug_message("# Current state is #" + stack.get(stack.size() - 1).parse_state);
-		}
-
 		/* continue until we accept or have read all lookahead input */
 		while (!doneParsing && lookahead_pos < lookaheads.length) {
 			/* current state is always on the top of the stack */
 
 			/* look up action out of the current state with the current input */
-			act = parse_table().getAction(stack.get(stack.size() - 1).parse_state, cur_token.sym);
+			act = parse_table().getAction(top_state(), cur_token.sym);
 
 			/* decode the action: even encodes shift */
 			if ((act & 1) != 0) {
 				/* shift to the encoded state by pushing it on the stack */
-				cur_token.parse_state = (act >> 1);
 				cur_token.used_by_parser = true;
-				if (debug)
-					debug_shift(cur_token);
-				stack.add(cur_token);
+				push_symbol(cur_token, act >> 1);
+				if (listener != null)
+					listener.shift(cur_token, act >> 1);
 
 				/* advance to the next Symbol */
 				cur_token = lookaheads[lookahead_pos++];
-
-				if (debug)
-					debug_message("# Current Symbol is #" + cur_token.sym);
 			}
 			/* if its even, then it encodes a reduce action */
 			else {
 				/* The action cannot be error, since try_parse_ahead succeeded */
 				act = (act >> 1) - 1;
 				/* perform the action for the reduce */
-				lhs_sym = do_action(act, stack);
+				if (listener != null)
+					listener.start_reduce(act);
+				lhs_sym = reduce_action(act);
 
 				/* look up information about the production */
 				int handle_size = parse_table().getProductionSize(act);
 
-				if (debug)
-					debug_reduce(act, lhs_sym, handle_size);
+				if (listener != null)
+					listener.reduce(act, lhs_sym, handle_size);
 
 				/* pop the handle off the stack */
-				while (handle_size-- > 0)
-					stack.remove(stack.size() - 1);
+				pop_symbols(handle_size);
 
 				/* look up the state to go to from the one popped back to */
-				act = parse_table().getReduce(stack.get(stack.size() - 1).parse_state, lhs_sym.sym);
+				act = parse_table().getReduce(top_state(), lhs_sym.sym);
 
 				/* shift to that state */
-				lhs_sym.parse_state = act;
 				lhs_sym.used_by_parser = true;
-				stack.add(lhs_sym);
-
-				if (debug)
-					debug_message("# Goto state #" + act);
+				push_symbol(lhs_sym, act);
 
+				if (listener != null)
+					listener.goto_state(lhs_sym, act);
 			}
 		}
 
-		if (debug)
-			debug_message("# Completed reparse");
+		/* release the saved input, cur_token keeps the Symbol the parse continues with */
+		Arrays.fill(lookaheads, null);
+
 		/* go back to normal parser */
 		return;
 	}
@@ -0,0 +1,109 @@
+package com.github.jhoenicke.javacup.runtime;
+
+/**
+ * A listener that observes the moves of a parser, e.g. to trace the parse,
+ * to collect metrics or to build a tree next to the actions. It is installed
+ * with LRParser.setParseListener().
+ * <p>
+ *
+ * The parser only looks at the listener when a parse starts: without one it
+ * runs its parse loop untouched, with one it runs a separate loop that reports
+ * every move, so a parser without a listener pays nothing for this interface.
+ * The methods have empty defaults, so a listener implements only those it
+ * needs. The listener is called by the thread that parses, while the parse is
+ * in progress; it must not change the parser.
+ * <p>
+ *
+ * The moves of the error recovery are reported as well: the popped stack
+ * elements, the shift of the error Symbol, the reductions under error, the
+ * skipped tokens and the moves of the reparse of the lookahead. The parse
+ * ahead the recovery tries on the lookahead is not reported, as it does not
+ * change the parse. Push and incremental parses do not report their moves.
+ */
+public interface ParseListener {
+
+	/** A parse starts; the first token is read next. */
+	default void start_parse() {
+	}
+
+	/**
+	 * A parse ended, because it was done or because an exception ended it.
+	 *
+	 * @param result the Symbol parse() returns, or null if an exception ended the
+	 *               parse.
+	 */
+	default void end_parse(Symbol result) {
+	}
+
+	/**
+	 * A Symbol was shifted.
+	 *
+	 * @param token the Symbol, a token or the error Symbol of a recovery.
+	 * @param state the state the parser shifted to.
+	 */
+	default void shift(Symbol token, int state) {
+	}
+
+	/**
+	 * A production is about to be reduced; its action runs next.
+	 *
+	 * @param rule the action number of the production.
+	 */
+	default void start_reduce(int rule) {
+	}
+
+	/**
+	 * A production was reduced. Its action has run; the handle is still on the
+	 * stack and is popped next.
+	 *
+	 * @param rule        the action number of the production.
+	 * @param lhs         the Symbol the action returned.
+	 * @param handle_size the number of Symbols of the handle.
+	 */
+	default void reduce(int rule, Symbol lhs, int handle_size) {
+	}
+
+	/**
+	 * The Symbol of a reduce was pushed.
+	 *
+	 * @param lhs   the Symbol.
+	 * @param state the state the parser went to.
+	 */
+	default void goto_state(Symbol lhs, int state) {
+	}
+
+	/**
+	 * A syntax error was detected; the error recovery starts.
+	 *
+	 * @param token the token that has no action.
+	 * @param state the state on top of the stack.
+	 */
+	default void syntax_error(Symbol token, int state) {
+	}
+
+	/**
+	 * The error recovery popped a Symbol whose state has no action on error.
+	 *
+	 * @param sym   the Symbol.
+	 * @param state its state.
+	 */
+	default void pop(Symbol sym, int state) {
+	}
+
+	/**
+	 * The error recovery skipped a token, as the parse could not continue with
+	 * it.
+	 *
+	 * @param token the token.
+	 */
+	default void skip(Symbol token) {
+	}
+
+	/**
+	 * The error recovery ended.
+	 *
+	 * @param recovered true if the parse continues, false if it failed.
+	 */
+	default void recovery(boolean recovered) {
+	}
+}
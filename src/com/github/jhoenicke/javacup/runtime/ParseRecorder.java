@@ -0,0 +1,54 @@
+package com.github.jhoenicke.javacup.runtime;
+
+/**
+ * Records the parses of the parsers for a profiler. A recorder is a listener:
+ * the listener loop and the error recovery report their moves to it like to
+ * any listener, and the other parse loops report their shifts and reduces to
+ * it directly, but only while a parse is recorded. Without a recording the
+ * parser pays one check per parse.
+ * <p>
+ *
+ * The runtime has no implementation of its own, so it depends neither on
+ * jdk.jfr nor on Java 11. JfrParseRecorder, compiled from src-jfr, records the
+ * parses as JDK Flight Recorder events; it is loaded when the JVM supports it.
+ * The loops without listener shift the tokens of a BatchScanner without
+ * creating their Symbol; they report null as the token.
+ */
+abstract class ParseRecorder implements ParseListener {
+
+	/** The recorder creating the recorders of the parses, or null. */
+	private static final ParseRecorder FACTORY = load();
+
+	private static ParseRecorder load() {
+		try {
+			Class<?> type = Class.forName("com.github.jhoenicke.javacup.runtime.JfrParseRecorder");
+			return (ParseRecorder) type.getDeclaredConstructor(LRParser.class, ParseListener.class).newInstance(null,
+					null);
+		} catch (Throwable e) {
+			/* no JFR in this JVM, or a JVM older than the recorder */
+			return null;
+		}
+	}
+
+	/**
+	 * Return the recorder of the next parse of a parser.
+	 *
+	 * @param parser   the parser.
+	 * @param listener the installed listener, or null.
+	 * @return the recorder, or null if the parse is not recorded.
+	 */
+	static ParseRecorder record(LRParser parser, ParseListener listener) {
+		if (FACTORY == null)
+			return null;
+		return FACTORY.create(parser, listener);
+	}
+
+	/**
+	 * Create the recorder of a parse, if a recording enables one of the events.
+	 *
+	 * @param parser   the parser.
+	 * @param delegate the listener to pass the moves on to, or null.
+	 * @return the recorder, or null if the parse is not recorded.
+	 */
+	abstract ParseRecorder create(LRParser parser, ParseListener delegate);
+}
@@ -0,0 +1,266 @@
+package com.github.jhoenicke.javacup.runtime;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A parse stack built on primitive arrays. The parse states are kept in a
+ * growable int array and the symbols in a parallel array, so the parser never
+ * has to store the state into the Symbol object and can pop a whole handle by
+ * decrementing the top of stack index.
+ * <p>
+ *
+ * Generated parsers built with the <tt>primitive_stack</tt> option receive
+ * this stack in their action code. It offers the same <code>get(int)</code>
+ * and <code>size()</code> access as the ArrayList used by the default parse
+ * engine, so <code>CUP$stack</code> accesses in user code still work. Code
+ * that really needs a list can use {@link #asList()}.
+ * <p>
+ *
+ * Tokens read from a {@link BatchScanner} are pushed without their Symbol; the
+ * stack keeps their symbol number and positions packed into a long, see
+ * {@link TokenBuffer}, next to their value and lets the scanner create the
+ * Symbol when the slot is first accessed. So only the tokens whose Symbol an
+ * action uses produce garbage. The generated actions pass the stack to the
+ * symbol factory to create the left hand side; a factory with int positions,
+ * like DefaultSymbolFactory, and action code that only needs the position of
+ * a token read it with getLeft() and getRight() without creating the Symbol.
+ * The other factories create the Symbols at the ends of the handle.
+ */
+public final class ParseStack {
+
+	/** Default initial capacity of the stack. */
+	private final static int DEFAULT_CAPACITY = 64;
+
+	/** The parse states, one per stack element. */
+	private int[] states;
+
+	/** The symbols, one per stack element. */
+	private Symbol[] symbols;
+
+	/** Number of elements currently on the stack. */
+	private int size;
+
+	/** The scanner creating the Symbols of the tokens pushed without one. */
+	private BatchScanner source;
+
+	/**
+	 * The packed tokens pushed without a Symbol, null until the first such
+	 * push.
+	 */
+	private long[] tokens;
+
+	/** The values of the tokens pushed without a Symbol. */
+	private Object[] values;
+
+	/** Read only list view on this stack, created on demand. */
+	private List<Symbol> listView;
+
+	/** Create an empty stack with the default capacity. */
+	public ParseStack() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create an empty stack.
+	 *
+	 * @param capacity the initial capacity of the stack.
+	 */
+	public ParseStack(int capacity) {
+		states = new int[capacity];
+		symbols = new Symbol[capacity];
+		size = 0;
+	}
+
+	/** Return the number of elements on the stack. */
+	public int size() {
+		return size;
+	}
+
+	/** Indicate whether the stack is empty. */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Return the symbol at the given position counted from the bottom of the
+	 * stack, like List.get() on the default parse stack.
+	 *
+	 * @param index the position of the element, 0 is the bottom of the stack.
+	 */
+	public Symbol get(int index) {
+		Symbol sym = symbols[index];
+		if (sym == null)
+			sym = materialize(index);
+		return sym;
+	}
+
+	/**
+	 * Return the parse state at the given position counted from the bottom of the
+	 * stack.
+	 *
+	 * @param index the position of the element, 0 is the bottom of the stack.
+	 */
+	public int getState(int index) {
+		return states[index];
+	}
+
+	/**
+	 * Return the left position of the symbol at the given position counted from
+	 * the bottom of the stack, without creating the Symbol of a token.
+	 *
+	 * @param index the position of the element, 0 is the bottom of the stack.
+	 */
+	public int getLeft(int index) {
+		Symbol sym = symbols[index];
+		return sym != null ? sym.left : TokenBuffer.left(tokens[index]);
+	}
+
+	/**
+	 * Return the right position of the symbol at the given position counted
+	 * from the bottom of the stack, without creating the Symbol of a token.
+	 *
+	 * @param index the position of the element, 0 is the bottom of the stack.
+	 */
+	public int getRight(int index) {
+		Symbol sym = symbols[index];
+		return sym != null ? sym.right : TokenBuffer.right(tokens[index]);
+	}
+
+	/** Return the symbol on top of the stack. */
+	public Symbol top() {
+		return get(size - 1);
+	}
+
+	/** Return the parse state on top of the stack. */
+	public int topState() {
+		return states[size - 1];
+	}
+
+	/**
+	 * Push a symbol together with the parse state reached by shifting it.
+	 *
+	 * @param sym   the symbol to push.
+	 * @param state the parse state to record with the symbol.
+	 */
+	public void push(Symbol sym, int state) {
+		if (size == states.length)
+			grow();
+		states[size] = state;
+		symbols[size] = sym;
+		if (values != null)
+			values[size] = null;
+		size++;
+	}
+
+	/** Pop the top element and return its symbol. */
+	public Symbol pop() {
+		Symbol sym = get(size - 1);
+		size--;
+		symbols[size] = null;
+		return sym;
+	}
+
+	/**
+	 * Push a token from a batch scanner without creating its Symbol, unless it
+	 * is a wide token.
+	 *
+	 * @param buffer the buffer holding the token.
+	 * @param index  the index of the token in the buffer.
+	 * @param state  the parse state to record with the token.
+	 */
+	void pushToken(TokenBuffer buffer, int index, int state) {
+		long token = buffer.tokens[index];
+		if (TokenBuffer.isWide(token)) {
+			push(buffer.symbol(index, source), state);
+			return;
+		}
+		if (tokens == null) {
+			tokens = new long[states.length];
+			values = new Object[states.length];
+		}
+		if (size == states.length)
+			grow();
+		states[size] = state;
+		symbols[size] = null;
+		tokens[size] = token;
+		values[size] = buffer.values[index];
+		size++;
+	}
+
+	/**
+	 * Set the scanner that creates the Symbols of the tokens pushed by
+	 * pushToken().
+	 */
+	void setSource(BatchScanner source) {
+		this.source = source;
+	}
+
+	/** Create the Symbol of a token pushed without one. */
+	private Symbol materialize(int index) {
+		long token = tokens[index];
+		Symbol sym = source.symbol(TokenBuffer.id(token), TokenBuffer.left(token), TokenBuffer.right(token),
+				values[index]);
+		symbols[index] = sym;
+		values[index] = null;
+		return sym;
+	}
+
+	/**
+	 * Pop several elements at once, e.g. the handle of a production. The popped
+	 * slots are cleared, so the stack keeps no reference to their symbols and
+	 * values.
+	 *
+	 * @param count the number of elements to pop.
+	 */
+	public void pop(int count) {
+		int top = size;
+		size -= count;
+		Arrays.fill(symbols, size, top, null);
+		if (values != null)
+			Arrays.fill(values, size, top, null);
+	}
+
+	/** Remove all elements and release the references to their symbols. */
+	public void clear() {
+		Arrays.fill(symbols, null);
+		if (values != null)
+			Arrays.fill(values, null);
+		source = null;
+		size = 0;
+	}
+
+	/** Double the capacity of the stack. */
+	private void grow() {
+		int capacity = states.length * 2;
+		states = Arrays.copyOf(states, capacity);
+		symbols = Arrays.copyOf(symbols, capacity);
+		if (tokens != null) {
+			tokens = Arrays.copyOf(tokens, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+	}
+
+	/**
+	 * Return a read only list view of the symbols on this stack. The view
+	 * reflects later changes of the stack.
+	 */
+	public List<Symbol> asList() {
+		if (listView == null) {
+			listView = new AbstractList<Symbol>() {
+				public Symbol get(int index) {
+					if (index < 0 || index >= size)
+						throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+					return ParseStack.this.get(index);
+				}
+
+				public int size() {
+					return size;
+				}
+			};
+		}
+		return listView;
+	}
+
+}
@@ -1,23 +1,219 @@
 package com.github.jhoenicke.javacup.runtime;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
- * Class to hold the action, reduce, and production tables needed by the parser.
+ * Class to hold the action, reduce, production and expected tables needed by
+ * the parser.
+ * <p>
+ *
+ * The tables are either decoded from the strings embedded in the generated
+ * parser or loaded from a binary resource generated next to the parser class
+ * with the binary_tables option. The binary resource starts with the int
+ * BINARY_MAGIC and holds the production, base, action, reduce and expected
+ * tables in this order, each as an int length followed by its elements, in
+ * big endian byte order.
+ * <p>
+ *
+ * The base table holds two entries per state: the base of its row in the
+ * action table and the id of the row, which the check entries of the action
+ * table hold, so that states with identical rows can share them. Tables of
+ * the first format, whose base table holds only the base and whose check
+ * entries hold the state, are still accepted.
+ * <p>
+ *
+ * The expected table holds the set of the Symbols that have an action in
+ * each state, which completion and diagnostics ask for with
+ * getExpectedSymbols(). The error recovery uses it to skip the Symbols that
+ * cannot follow the error Symbol without trying to parse ahead, and its bit
+ * set of the states with an action on the error Symbol to pop the stack down
+ * to one without looking up the actions of the states in between. It starts
+ * with the number of 16 bit words of a set, followed by the bit set of the
+ * states with an action on error, the number of the expected set of every
+ * state, 0 for none, and the expected sets, numbered from 1. Tables of the
+ * first two formats have no expected table; the parser then looks up the
+ * actions instead.
+ * <p>
+ *
+ * A ParseTable is immutable once constructed. The generated parser keeps it in
+ * a static field, so all its instances share one table, also across threads.
  * 
  * @author hoenicke
  */
 public final class ParseTable {
-	
-	private int[] base_table;
-	private short[] action_table;
-	private short[] reduce_table;
-	private short[] production_table;
 
+	/** The version of the table format the generator emits. */
+	public final static int FORMAT_VERSION = 3;
+
+	/** Magic number at the start of a binary parse table resource ("CUP3"). */
+	public final static int BINARY_MAGIC = 0x43555033;
+
+	/** Magic number of binary parse tables of the second format ("CUP2"). */
+	private final static int BINARY_MAGIC_V2 = 0x43555032;
+
+	/** Magic number of binary parse tables of the first format ("CUPT"). */
+	private final static int BINARY_MAGIC_V1 = 0x43555054;
+
+	private final int[] base_table;
+	private final short[] action_table;
+	private final short[] reduce_table;
+	private final short[] production_table;
+	private final short[] expected_table;
+
+	/** The start of the set numbers and of the sets in expected_table. */
+	private final int expected_states, expected_sets;
+
+	/** The number of words of an expected set. */
+	private final int set_words;
+
+	/** The views of the expected sets, created on first use. */
+	private final SymbolSet[] symbol_sets;
+
+	/**
+	 * Decode the tables of the first format, as embedded in parsers generated by
+	 * earlier versions.
+	 *
+	 * @param tables the encoded tables.
+	 */
 	public ParseTable(String[] tables) {
+		this(1, tables);
+	}
+
+	/**
+	 * Decode the tables embedded in the generated parser.
+	 *
+	 * @param version the format version of the tables.
+	 * @param tables  the encoded tables.
+	 */
+	public ParseTable(int version, String[] tables) {
 		TableDecoder decoder = new TableDecoder(tables);
 		production_table = decoder.decodeShortArray();
-		base_table = decoder.decodeIntArray();
+		base_table = upgradeBaseTable(version, decoder.decodeIntArray());
 		action_table = decoder.decodeShortArray();
 		reduce_table = decoder.decodeShortArray();
+		expected_table = version >= 3 ? decoder.decodeShortArray() : null;
+		expected_states = 1 + ((getStateCount() + 15) >> 4);
+		expected_sets = expected_states + getStateCount();
+		set_words = expected_table != null ? expected_table[0] : 0;
+		symbol_sets = expected_table != null ? new SymbolSet[(expected_table.length - expected_sets) / set_words] : null;
+	}
+
+	/**
+	 * Build the tables from a binary parse table. The arrays are bulk copied out
+	 * of the buffer, starting at its current position.
+	 *
+	 * @param buffer the binary parse table in big endian byte order.
+	 */
+	public ParseTable(ByteBuffer buffer) {
+		int magic = buffer.getInt();
+		int version;
+		if (magic == BINARY_MAGIC)
+			version = FORMAT_VERSION;
+		else if (magic == BINARY_MAGIC_V2)
+			version = 2;
+		else if (magic == BINARY_MAGIC_V1)
+			version = 1;
+		else
+			throw new Error("Invalid binary parse table");
+		production_table = getShortArray(buffer);
+		base_table = upgradeBaseTable(version, getIntArray(buffer));
+		action_table = getShortArray(buffer);
+		reduce_table = getShortArray(buffer);
+		expected_table = version >= 3 ? getShortArray(buffer) : null;
+		expected_states = 1 + ((getStateCount() + 15) >> 4);
+		expected_sets = expected_states + getStateCount();
+		set_words = expected_table != null ? expected_table[0] : 0;
+		symbol_sets = expected_table != null ? new SymbolSet[(expected_table.length - expected_sets) / set_words] : null;
+	}
+
+	/**
+	 * Convert a base table to the current format. In the first format the check
+	 * entries hold the state, so the state is the row id.
+	 */
+	private static int[] upgradeBaseTable(int version, int[] bases) {
+		if (version < 1 || version > FORMAT_VERSION)
+			throw new Error("Unsupported parse table format " + version);
+		if (version >= 2)
+			return bases;
+		int[] result = new int[2 * bases.length];
+		for (int state = 0; state < bases.length; state++) {
+			result[2 * state] = bases[state];
+			result[2 * state + 1] = state;
+		}
+		return result;
+	}
+
+	private static short[] getShortArray(ByteBuffer buffer) {
+		short[] arr = new short[buffer.getInt()];
+		buffer.asShortBuffer().get(arr);
+		buffer.position(buffer.position() + 2 * arr.length);
+		return arr;
+	}
+
+	private static int[] getIntArray(ByteBuffer buffer) {
+		int[] arr = new int[buffer.getInt()];
+		buffer.asIntBuffer().get(arr);
+		buffer.position(buffer.position() + 4 * arr.length);
+		return arr;
+	}
+
+	/**
+	 * Load a binary parse table resource into a heap buffer. The resource is read
+	 * with plain stream I/O; memory mapping does not pay off for tables of this
+	 * size and its setup costs more than the read on a cold virtual machine.
+	 *
+	 * @param parser_class the parser class the resource belongs to.
+	 * @param name         the name of the resource relative to that class.
+	 */
+	public static ParseTable load(Class<?> parser_class, String name) {
+		InputStream in = parser_class.getResourceAsStream(name);
+		if (in == null)
+			throw new Error("Parse table resource " + name + " not found");
+		try {
+			byte[] bytes = new byte[Math.max(in.available(), 4096)];
+			int size = 0;
+			int len;
+			while ((len = in.read(bytes, size, bytes.length - size)) > 0) {
+				size += len;
+				if (size == bytes.length)
+					bytes = Arrays.copyOf(bytes, 2 * size);
+			}
+			return new ParseTable(ByteBuffer.wrap(bytes, 0, size));
+		} catch (IOException e) {
+			throw new Error("Can't load parse table resource " + name, e);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * Return a copy of the base table, two entries per state. Parsers generated
+	 * with the specialized_parse option keep the tables in static final arrays
+	 * and inline the lookups of getAction() and getReduce().
+	 */
+	public int[] getBaseTable() {
+		return base_table.clone();
+	}
+
+	/** Return a copy of the production table, see getBaseTable(). */
+	public short[] getProductionTable() {
+		return production_table.clone();
+	}
+
+	/** Return a copy of the action table, see getBaseTable(). */
+	public short[] getActionTable() {
+		return action_table.clone();
+	}
+
+	/** Return a copy of the reduce-goto table, see getBaseTable(). */
+	public short[] getReduceTable() {
+		return reduce_table.clone();
 	}
 
 	/**
@@ -27,8 +223,8 @@ public final class ParseTable {
 	 * @param sym   the Symbol index of the action being accessed.
 	 */
 	public final short getAction(int state, int sym) {
-		int base = base_table[state] + 2 * sym;
-		if (action_table[base] == state)
+		int base = base_table[2 * state] + 2 * sym;
+		if (action_table[base] == base_table[2 * state + 1])
 			return action_table[base + 1];
 		/* no entry; return default */
 		return action_table[state];
@@ -49,7 +245,7 @@ public final class ParseTable {
 	 *
 	 * @param rule the rule number (value in action table).
 	 */
-	final int getProductionSymbol(int rule) {
+	public final int getProductionSymbol(int rule) {
 		return production_table[2 * rule];
 	}
 
@@ -58,8 +254,69 @@ public final class ParseTable {
 	 *
 	 * @param rule the rule number (value in action table).
 	 */
-	final int getProductionSize(int rule) {
+	public final int getProductionSize(int rule) {
 		return production_table[2 * rule + 1];
 	}
 
+	/** Return the number of states. */
+	public final int getStateCount() {
+		return base_table.length / 2;
+	}
+
+	/**
+	 * Tell whether a state has an action on the error Symbol, i.e. whether the
+	 * error recovery can resume in it.
+	 *
+	 * @param state the state index.
+	 */
+	public final boolean canRecover(int state) {
+		if (expected_table == null)
+			return getAction(state, 0 /* error */) != 0;
+		return (expected_table[1 + (state >> 4)] & (1 << (state & 15))) != 0;
+	}
+
+	/**
+	 * Tell whether a Symbol has an action in a state. After the error Symbol was
+	 * shifted, this tells whether the error recovery can resume on the Symbol.
+	 *
+	 * @param state the state index.
+	 * @param sym   the Symbol index of a terminal.
+	 */
+	public final boolean isExpected(int state, int sym) {
+		if (expected_table != null) {
+			int set = expected_table[expected_states + state];
+			if (set != 0) {
+				int word = sym >> 4;
+				if (word >= set_words)
+					return false;
+				return (expected_table[expected_sets + (set - 1) * set_words + word] & (1 << (sym & 15))) != 0;
+			}
+		}
+		return getAction(state, sym) != 0;
+	}
+
+	/**
+	 * Return the Symbols that have an action in a state, i.e. the terminals the
+	 * parser accepts next in this state. States with the same Symbols share one
+	 * set, which is created on the first request.
+	 *
+	 * @param state the state index.
+	 * @return the immutable set of the Symbol indices, or null if the table has
+	 *         none for the state, as tables of the first two formats.
+	 */
+	public final SymbolSet getExpectedSymbols(int state) {
+		if (expected_table == null)
+			return null;
+		int set = expected_table[expected_states + state];
+		if (set == 0)
+			return null;
+		SymbolSet result = symbol_sets[set - 1];
+		if (result == null) {
+			/* the set is immutable, so threads racing here create equal ones */
+			result = new SymbolSet(expected_table, expected_sets + (set - 1) * set_words, set_words);
+			symbol_sets[set - 1] = result;
+		}
+		return result;
+	}
+
 }
@@ -0,0 +1,109 @@
+package com.github.jhoenicke.javacup.runtime;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread safe pool of reusable parsers. A worker borrows a parser with the
+ * scanner of its input, parses and returns the parser to the pool, which keeps
+ * it with its stack storage and its warmed up action object for the next
+ * borrower. All parsers of a pool share the static parse table of the
+ * generated parser class.
+ * <p>
+ *
+ * The most recently returned parser is handed out first. At most maxIdle
+ * parsers are kept; parsers returned beyond that are left to the garbage
+ * collector.
+ *
+ * <pre>
+ * ParserPool&lt;Parser&gt; pool = new ParserPool&lt;Parser&gt;(new ParserPool.Factory&lt;Parser&gt;() {
+ * 	public Parser create() {
+ * 		return new Parser(null, new ComplexSymbolFactory());
+ * 	}
+ * }, 64);
+ * Symbol result = pool.parse(new Lexer(input));
+ * </pre>
+ *
+ * @param <P> the generated parser class.
+ */
+public class ParserPool<P extends LRParser> {
+
+	/** Creates the parsers of a pool. */
+	public interface Factory<P extends LRParser> {
+		/** Create a new parser. */
+		P create();
+	}
+
+	/** The factory for new parsers. */
+	private final Factory<P> factory;
+
+	/** The maximum number of idle parsers kept by the pool. */
+	private final int maxIdle;
+
+	/** The idle parsers, most recently returned first. */
+	private final ConcurrentLinkedDeque<P> idle = new ConcurrentLinkedDeque<P>();
+
+	/** The number of idle parsers. */
+	private final AtomicInteger idleCount = new AtomicInteger();
+
+	/**
+	 * Create an empty pool.
+	 *
+	 * @param factory the factory for new parsers.
+	 * @param maxIdle the maximum number of idle parsers kept by the pool.
+	 */
+	public ParserPool(Factory<P> factory, int maxIdle) {
+		this.factory = factory;
+		this.maxIdle = maxIdle;
+	}
+
+	/**
+	 * Borrow a parser, prepared to parse the input of the given scanner.
+	 *
+	 * @param scanner the scanner to parse from.
+	 */
+	public P borrow(Scanner scanner) {
+		P parser = idle.pollFirst();
+		if (parser != null)
+			idleCount.decrementAndGet();
+		else
+			parser = factory.create();
+		parser.reset(scanner);
+		return parser;
+	}
+
+	/**
+	 * Return a borrowed parser to the pool. The parser must not be used by the
+	 * caller afterwards.
+	 *
+	 * @param parser the parser to return.
+	 */
+	public void release(P parser) {
+		parser.reset(null);
+		if (idleCount.incrementAndGet() <= maxIdle)
+			idle.offerFirst(parser);
+		else
+			idleCount.decrementAndGet();
+	}
+
+	/**
+	 * Parse the input of a scanner with a pooled parser.
+	 *
+	 * @param scanner the scanner to parse from.
+	 * @return the result of LRParser.parse().
+	 */
+	public Symbol parse(Scanner scanner) throws java.lang.Exception {
+		P parser = borrow(scanner);
+		try {
+			return parser.parse();
+		} finally {
+			release(parser);
+		}
+	}
+
+	/** Return the number of idle parsers in the pool. */
+	public int getIdleCount() {
+		return idleCount.get();
+	}
+
+}
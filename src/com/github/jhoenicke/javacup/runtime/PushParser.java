@@ -0,0 +1,132 @@
+package com.github.jhoenicke.javacup.runtime;
+
+/**
+ * Drives a generated parser in push mode: instead of pulling its tokens from a
+ * Scanner, the parser is fed the tokens as they arrive, for example from the
+ * frames of a non-blocking connection. Between two calls the parse stack is
+ * kept in the parser, so no thread has to wait for the input of a stream and
+ * many streams can be served by a small thread pool.
+ * <p>
+ *
+ * The parser runs the same parse tables and action code as in parse(), on the
+ * parse stack selected by the generated parser. Syntax errors are reported
+ * and recovered from as usual; the recovery collects the error_sync_size()
+ * tokens of lookahead it needs from the following calls. The input ends with
+ * an EOF token, which end() supplies.
+ *
+ * <pre>
+ * PushParser push = new PushParser(new Parser(null, new ComplexSymbolFactory()));
+ * while (push.offer(tokens, 0, count) == PushParser.Status.NEED_MORE)
+ * 	count = receiveTokens(tokens);
+ * </pre>
+ *
+ * A PushParser is not thread safe; the calls for one stream must not overlap.
+ * Scan code of the parser ("scan with") is not used, but its user_init() code
+ * is run before the first token.
+ */
+public class PushParser {
+
+	/** The status of a push parse. */
+	public enum Status {
+		/** The tokens were consumed and the parser waits for more. */
+		NEED_MORE,
+		/** The input was accepted; getResult() returns the result. */
+		ACCEPTED,
+		/** The parser could not recover from a syntax error. */
+		ERROR
+	}
+
+	/** The parser fed by this push parser. */
+	private final LRParser parser;
+
+	/** The status after the last token. */
+	private Status status;
+
+	/** Whether the parser has been started for the current input. */
+	private boolean started;
+
+	/**
+	 * Create a push parser.
+	 *
+	 * @param parser the generated parser to feed; it should not be used for
+	 *               other parses while this push parser is.
+	 */
+	public PushParser(LRParser parser) {
+		this.parser = parser;
+		this.status = Status.NEED_MORE;
+	}
+
+	/** Return the parser fed by this push parser. */
+	public LRParser getParser() {
+		return parser;
+	}
+
+	/**
+	 * Prepare for a new input. The parser keeps its stack storage, like with
+	 * LRParser.reset().
+	 */
+	public void reset() {
+		parser.reset(null);
+		status = Status.NEED_MORE;
+		started = false;
+	}
+
+	/**
+	 * Feed tokens to the parser. Tokens following the end of the parse, i.e.
+	 * after the input is accepted or the parse failed, are ignored.
+	 *
+	 * @param tokens the array holding the tokens.
+	 * @param off    the index of the first token.
+	 * @param len    the number of tokens.
+	 * @return the status after the tokens.
+	 */
+	public Status offer(Symbol[] tokens, int off, int len) throws java.lang.Exception {
+		start();
+		for (int i = off; i < off + len && status == Status.NEED_MORE; i++)
+			status = parser.push_token(tokens[i]);
+		return status;
+	}
+
+	/**
+	 * Feed one token to the parser.
+	 *
+	 * @param token the token.
+	 * @return the status after the token.
+	 */
+	public Status offer(Symbol token) throws java.lang.Exception {
+		start();
+		if (status == Status.NEED_MORE)
+			status = parser.push_token(token);
+		return status;
+	}
+
+	/**
+	 * End the input, by feeding an EOF token built with the parser's symbol
+	 * factory.
+	 *
+	 * @return the status at the end of the input.
+	 */
+	public Status end() throws java.lang.Exception {
+		return offer(parser.end_symbol());
+	}
+
+	/** Return the status after the last token. */
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * Return the result of an accepted input, i.e. the Symbol parse() would
+	 * return, or null if the input has not been accepted.
+	 */
+	public Symbol getResult() {
+		return status == Status.ACCEPTED ? parser.push_result() : null;
+	}
+
+	private void start() throws java.lang.Exception {
+		if (!started) {
+			started = true;
+			parser.push_start();
+		}
+	}
+}
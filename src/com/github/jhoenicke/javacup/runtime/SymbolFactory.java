@@ -29,6 +29,25 @@ public interface SymbolFactory {
 	 */
 	Symbol newSymbol(String name, int id, Symbol left, Symbol right);
 
+	/**
+	 * Construction of the left hand side of a reduce on a primitive parse stack
+	 * with left/right propagation switched on and a value. The new symbol spans
+	 * the stack elements first to last. The default creates the Symbols of both
+	 * ends; a factory whose Symbols carry plain int positions can read them from
+	 * the stack, so that the packed tokens at the ends keep no Symbol.
+	 */
+	default Symbol newSymbol(String name, int id, ParseStack stack, int first, int last, Object value) {
+		return newSymbol(name, id, stack.get(first), stack.get(last), value);
+	}
+
+	/**
+	 * Construction of the left hand side of a reduce on a primitive parse stack
+	 * with left/right propagation switched on without value
+	 */
+	default Symbol newSymbol(String name, int id, ParseStack stack, int first, int last) {
+		return newSymbol(name, id, stack.get(first), stack.get(last));
+	}
+
 	/**
 	 * Construction with left/right propagation switched off
 	 */
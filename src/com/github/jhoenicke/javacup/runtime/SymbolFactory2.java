@@ -61,6 +61,37 @@ public interface SymbolFactory2 {
 	 * @return a symbol
 	 */
 	public Symbol newSymbol(Enum<?> token, Symbol left, Symbol right);
+	/**
+	 * Construction of the left hand side of a reduce on a primitive parse stack
+	 * with left/right propagation switched on and a value. The default creates
+	 * the Symbols of both ends; a factory whose Symbols carry plain int positions
+	 * can read them from the stack instead.
+	 * 
+	 * @param token an enum to represent the symbol (mainly Nonterminal)
+	 * @param stack the parse stack holding the right hand side of the rule
+	 * @param first the stack index of the leftmost symbol of the rule
+	 * @param last  the stack index of the rightmost symbol of the rule
+	 * @param value a semantic value an object of an arbitrary Class
+	 * 
+	 * @return a symbol
+	 */
+	public default Symbol newSymbol(Enum<?> token, ParseStack stack, int first, int last, Object value) {
+		return newSymbol(token, stack.get(first), stack.get(last), value);
+	}
+	/**
+	 * Construction of the left hand side of a reduce on a primitive parse stack
+	 * with left/right propagation switched on without a value
+	 * 
+	 * @param token an enum to represent the symbol (mainly Nonterminal)
+	 * @param stack the parse stack holding the right hand side of the rule
+	 * @param first the stack index of the leftmost symbol of the rule
+	 * @param last  the stack index of the rightmost symbol of the rule
+	 * 
+	 * @return a symbol
+	 */
+	public default Symbol newSymbol(Enum<?> token, ParseStack stack, int first, int last) {
+		return newSymbol(token, stack.get(first), stack.get(last));
+	}
 
 	/**
 	 * Construction without left/right propagation but with a value
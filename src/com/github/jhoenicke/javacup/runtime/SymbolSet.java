@@ -0,0 +1,98 @@
+package com.github.jhoenicke.javacup.runtime;
+
+import java.util.BitSet;
+
+/**
+ * An immutable set of symbol indices, a view of a bit set stored in the
+ * expected table of a {@link ParseTable}. The parse table creates one set per
+ * distinct expected set and hands out the same instance for every state that
+ * has it, so asking for the expected symbols of a state allocates nothing once
+ * the set was created.
+ */
+public final class SymbolSet {
+
+	/** The words of the set, 16 bits each, and the first of them. */
+	private final short[] words;
+	private final int offset;
+
+	/** The number of words of the set. */
+	private final int length;
+
+	/** The number of symbols in the set. */
+	private final int size;
+
+	/**
+	 * Create a view of a bit set.
+	 *
+	 * @param words  the array holding the bit set.
+	 * @param offset the index of its first word.
+	 * @param length the number of its words.
+	 */
+	SymbolSet(short[] words, int offset, int length) {
+		this.words = words;
+		this.offset = offset;
+		this.length = length;
+		int count = 0;
+		for (int i = 0; i < length; i++)
+			count += Integer.bitCount(words[offset + i] & 0xffff);
+		this.size = count;
+	}
+
+	/** Tell whether the set contains the symbol with the given index. */
+	public boolean contains(int sym) {
+		int word = sym >> 4;
+		if (sym < 0 || word >= length)
+			return false;
+		return (words[offset + word] & (1 << (sym & 15))) != 0;
+	}
+
+	/**
+	 * Return the smallest symbol index in the set that is not smaller than the
+	 * given index, like BitSet.nextSetBit(). The symbols of the set are visited
+	 * with
+	 *
+	 * <pre>
+	 * for (int sym = set.next(0); sym &gt;= 0; sym = set.next(sym + 1))
+	 * </pre>
+	 *
+	 * @param from the index to start at.
+	 * @return the index, or -1 if there is none.
+	 */
+	public int next(int from) {
+		if (from < 0)
+			from = 0;
+		int word = from >> 4;
+		if (word >= length)
+			return -1;
+		int bits = (words[offset + word] & 0xffff) & (0xffff << (from & 15));
+		while (bits == 0) {
+			if (++word == length)
+				return -1;
+			bits = words[offset + word] & 0xffff;
+		}
+		return (word << 4) + Integer.numberOfTrailingZeros(bits);
+	}
+
+	/** Return the number of symbols in the set. */
+	public int size() {
+		return size;
+	}
+
+	/** Tell whether the set is empty. */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/** Return the set as a new BitSet, which the caller may modify. */
+	public BitSet toBitSet() {
+		BitSet result = new BitSet(length << 4);
+		for (int sym = next(0); sym >= 0; sym = next(sym + 1))
+			result.set(sym);
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return toBitSet().toString();
+	}
+}
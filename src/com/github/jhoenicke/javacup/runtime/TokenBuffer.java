@@ -0,0 +1,143 @@
+package com.github.jhoenicke.javacup.runtime;
+
+/**
+ * A buffer of tokens filled by a {@link BatchScanner}. A token is stored as a
+ * packed long holding its symbol number and its left and right positions, next
+ * to its value, so filling the buffer allocates no objects. The parser owns the
+ * buffer and reuses it for the whole parse.
+ * <p>
+ *
+ * The low 32 bits of a packed token hold the left position, the next 16 bits
+ * the length right - left and the top 16 bits the symbol number. A token whose
+ * symbol number or length does not fit is marked by a length of 0xFFFF and
+ * keeps both in a side array; the parse stack creates its Symbol right away.
+ */
+public final class TokenBuffer {
+
+	/** Default capacity of the buffer. */
+	private final static int DEFAULT_CAPACITY = 256;
+
+	/** The length field of a token that keeps its number and right position aside. */
+	final static long WIDE = 0xFFFFL << 32;
+
+	/** The packed tokens. */
+	final long[] tokens;
+
+	/** The values of the tokens. */
+	final Object[] values;
+
+	/**
+	 * The symbol number and right position of each wide token, at twice its
+	 * index; null until the first wide token.
+	 */
+	private int[] wide;
+
+	/** Number of tokens in the buffer. */
+	int size;
+
+	/** Index of the next token the parser reads. */
+	int position;
+
+	/** Create a buffer with the default capacity. */
+	public TokenBuffer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create a buffer.
+	 *
+	 * @param capacity the number of tokens the buffer holds.
+	 */
+	public TokenBuffer(int capacity) {
+		tokens = new long[capacity];
+		values = new Object[capacity];
+	}
+
+	/** Return the number of tokens the buffer holds. */
+	public int capacity() {
+		return tokens.length;
+	}
+
+	/** Return the number of tokens in the buffer. */
+	public int size() {
+		return size;
+	}
+
+	/** Indicate whether no more tokens can be added. */
+	public boolean isFull() {
+		return size == tokens.length;
+	}
+
+	/**
+	 * Append a token.
+	 *
+	 * @param id    the symbol number of the token.
+	 * @param left  the left position of the token.
+	 * @param right the right position of the token.
+	 * @param value the value of the token, or null.
+	 */
+	public void add(int id, int left, int right, Object value) {
+		long length = (long) right - left;
+		long token;
+		if ((id & ~0xFFFF) == 0 && length >= 0 && length < 0xFFFF) {
+			token = (long) id << 48 | length << 32 | (left & 0xFFFFFFFFL);
+		} else {
+			if (wide == null)
+				wide = new int[2 * tokens.length];
+			wide[2 * size] = id;
+			wide[2 * size + 1] = right;
+			token = WIDE | (left & 0xFFFFFFFFL);
+		}
+		tokens[size] = token;
+		values[size] = value;
+		size++;
+	}
+
+	/** Return the symbol number of the token at the given index. */
+	int id(int index) {
+		long token = tokens[index];
+		return isWide(token) ? wide[2 * index] : id(token);
+	}
+
+	/**
+	 * Create the Symbol of the token at the given index.
+	 *
+	 * @param index   the index of the token.
+	 * @param scanner the scanner that filled the buffer.
+	 */
+	Symbol symbol(int index, BatchScanner scanner) {
+		long token = tokens[index];
+		if (isWide(token))
+			return scanner.symbol(wide[2 * index], left(token), wide[2 * index + 1], values[index]);
+		return scanner.symbol(id(token), left(token), right(token), values[index]);
+	}
+
+	/** Remove all tokens and release their values. */
+	void clear() {
+		for (int i = 0; i < size; i++)
+			values[i] = null;
+		size = 0;
+		position = 0;
+	}
+
+	/** Indicate whether a packed token keeps its number and right position aside. */
+	static boolean isWide(long token) {
+		return (token & WIDE) == WIDE;
+	}
+
+	/** Return the symbol number of a packed token that is not wide. */
+	static int id(long token) {
+		return (int) (token >>> 48);
+	}
+
+	/** Return the left position of a packed token. */
+	static int left(long token) {
+		return (int) token;
+	}
+
+	/** Return the right position of a packed token that is not wide. */
+	static int right(long token) {
+		return (int) token + (int) ((token >>> 32) & 0xFFFF);
+	}
+
+}
@@ -1,7 +1,7 @@
 
 package com.github.jhoenicke.javacup.runtime;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -14,6 +14,10 @@ import java.util.List;
  * the system then reverts to the original parse stack (which has not actually
  * been modified). Since parse ahead does not execute actions, only parse state
  * is maintained on the virtual stack, not full Symbol objects.
+ * <p>
+ * The parser owns one virtual stack and reset() makes it shadow the real stack
+ * again for every parse ahead, so the error recovery allocates nothing once the
+ * int array holding the states has grown large enough.
  *
  * @see com.github.jhoenicke.javacup.runtime.lr_parser
  * @version last updated: 7/3/96
@@ -22,12 +26,21 @@ import java.util.List;
 
 class VirtualParseStack {
 
+	/** Initial capacity of the virtual portion. */
+	private final static int INITIAL_CAPACITY = 16;
+
 	/**
 	 * The real stack that we shadow. This is accessed when we move off the bottom
 	 * of the virtual portion of the stack, but is always left unmodified.
 	 */
 	private List<Symbol> real_stack;
 
+	/**
+	 * The real primitive stack that we shadow instead of real_stack, if the
+	 * parser runs on a ParseStack.
+	 */
+	private ParseStack real_parse_stack;
+
 	/**
 	 * Top of stack indicator for where we leave off in the real stack. This is
 	 * measured from bottom of stack, so 0 would indicate that no elements are left
@@ -37,23 +50,55 @@ class VirtualParseStack {
 	private int real_top;
 
 	/**
-	 * The virtual top portion of the stack. This stack contains Integer objects
-	 * with state numbers. This stack shadows the top portion of the real stack
-	 * within the area that has been modified (via operations on the virtual stack).
-	 * When this portion of the stack becomes empty we transfer elements from the
-	 * underlying stack onto this stack.
+	 * The virtual top portion of the stack: the state numbers in its first vtop
+	 * elements. This stack shadows the top portion of the real stack within the
+	 * area that has been modified (via operations on the virtual stack). When this
+	 * portion of the stack becomes empty we transfer elements from the underlying
+	 * stack onto this stack.
 	 */
-	private ArrayList<Integer> vstack;
+	private int[] vstack = new int[INITIAL_CAPACITY];
+
+	/** The number of states in vstack. */
+	private int vtop;
+
+	/** Create a virtual stack; reset() makes it shadow a real stack. */
+	VirtualParseStack() {
+	}
 
 	/** Constructor to build a virtual stack out of a real stack. */
 	public VirtualParseStack(List<Symbol> shadowing_stack) throws java.lang.Exception {
+		reset(shadowing_stack);
+	}
+
+	/** Constructor to build a virtual stack out of a real primitive stack. */
+	public VirtualParseStack(ParseStack shadowing_stack) throws java.lang.Exception {
+		reset(shadowing_stack);
+	}
+
+	/** Drop the virtual portion and shadow the given real stack. */
+	void reset(List<Symbol> shadowing_stack) throws java.lang.Exception {
 		/* sanity check */
 		if (shadowing_stack == null)
 			throw new Exception("Internal parser error: attempt to create null virtual stack");
 
 		/* set up our internals */
 		real_stack = shadowing_stack;
-		vstack = new ArrayList<Integer>();
+		real_parse_stack = null;
+		vtop = 0;
+		real_top = shadowing_stack.size();
+		getFromReal();
+	}
+
+	/** Drop the virtual portion and shadow the given real primitive stack. */
+	void reset(ParseStack shadowing_stack) throws java.lang.Exception {
+		/* sanity check */
+		if (shadowing_stack == null)
+			throw new Exception("Internal parser error: attempt to create null virtual stack");
+
+		/* set up our internals */
+		real_parse_stack = shadowing_stack;
+		real_stack = null;
+		vtop = 0;
 		real_top = shadowing_stack.size();
 		getFromReal();
 	}
@@ -63,17 +108,18 @@ class VirtualParseStack {
 	 * virtual stack is currently empty.
 	 */
 	private void getFromReal() {
-		Symbol stack_sym;
-
 		/* don't transfer if the real stack is empty */
 		if (real_top == 0)
 			return;
 
-		/* get a copy of the first Symbol we have not transfered */
-		stack_sym = (Symbol) real_stack.get(--real_top);
+		/* a primitive stack keeps the state numbers itself */
+		if (real_parse_stack != null) {
+			vstack[vtop++] = real_parse_stack.getState(--real_top);
+			return;
+		}
 
-		/* put the state number from the Symbol onto the virtual stack */
-		vstack.add(stack_sym.parse_state);
+		/* put the state number from the first Symbol we have not transfered */
+		vstack[vtop++] = real_stack.get(--real_top).parse_state;
 	}
 
 	/** Indicate whether the stack is empty. */
@@ -82,45 +128,45 @@ class VirtualParseStack {
 		 * if vstack is empty then we were unable to transfer onto it and the whole
 		 * thing is empty.
 		 */
-		return vstack.isEmpty();
+		return vtop == 0;
 	}
 
 	/** Return value on the top of the stack (without popping it). */
 	public int top() throws java.lang.Exception {
-		if (vstack.isEmpty())
+		if (vtop == 0)
 			throw new Exception("Internal parser error: top() called on empty virtual stack");
 
-		return vstack.get(vstack.size() - 1).intValue();
+		return vstack[vtop - 1];
 	}
 
 	/** Pop the stack. */
 	public void pop() {
-		assert !vstack.isEmpty() : "Internal parser error: pop from empty virtual stack";
+		assert vtop > 0 : "Internal parser error: pop from empty virtual stack";
 
 		/* pop it */
-		vstack.remove(vstack.size() - 1);
+		vtop--;
 
 		/* if we are now empty transfer an element (if there is one) */
-		if (vstack.isEmpty())
+		if (vtop == 0)
 			getFromReal();
 	}
 
 	/** Pop several elements from the stack */
 	public void pop(int num_elems) {
-		int vsize = vstack.size();
-		if (vsize > num_elems) {
-			while (num_elems-- > 0)
-				vstack.remove(--vsize);
+		if (vtop > num_elems) {
+			vtop -= num_elems;
 		} else {
-			vstack.clear();
-			real_top -= (num_elems - vsize);
+			real_top -= (num_elems - vtop);
+			vtop = 0;
 			getFromReal();
 		}
 	}
 
 	/** Push a state number onto the stack. */
 	public void push(int state_num) {
-		vstack.add(state_num);
+		if (vtop == vstack.length)
+			vstack = Arrays.copyOf(vstack, 2 * vtop);
+		vstack[vtop++] = state_num;
 	}
 
 }